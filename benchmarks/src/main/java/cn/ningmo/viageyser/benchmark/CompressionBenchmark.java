@@ -0,0 +1,153 @@
+package cn.ningmo.viageyser.benchmark;
+
+import cn.ningmo.viageyser.BatchCompression;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 单线程每秒压缩、解压的批次数，乘以 batchSize 即为每个核心的吞吐量（字节/秒）。
+//   zlib            BatchCompression.ZLIB，按线程复用 Deflater/Inflater
+//   zlib-per-batch  每个批次新建并释放 Deflater/Inflater，作为对照
+//   snappy          BatchCompression.SNAPPY
+//   none            BatchCompression.NONE，只复制
+// 批次内容是一串方块更新记录，坐标和运行时 ID 有重复，压缩率接近真实的游戏数据
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+    private static final int MAX_SIZE = 16 * 1024 * 1024;
+
+    @Param({ "zlib", "zlib-per-batch", "snappy", "none" })
+    public String algorithm;
+
+    @Param({ "1024", "65536" })
+    public int batchSize;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private BatchCompression compression;
+    private ByteBuf uncompressed;
+    private ByteBuf compressed;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        switch (algorithm) {
+            case "snappy":
+                compression = BatchCompression.SNAPPY;
+                break;
+            case "none":
+                compression = BatchCompression.NONE;
+                break;
+            default:
+                compression = BatchCompression.ZLIB;
+                break;
+        }
+
+        Random random = new Random(42);
+        uncompressed = alloc.directBuffer(batchSize, batchSize);
+        while (uncompressed.isWritable(8)) {
+            uncompressed.writeByte(0x15);
+            uncompressed.writeShort(random.nextInt(32));
+            uncompressed.writeByte(64 + random.nextInt(8));
+            uncompressed.writeShort(random.nextInt(32));
+            uncompressed.writeByte(random.nextInt(16));
+            uncompressed.writeByte(0x03);
+        }
+        uncompressed.writeZero(uncompressed.writableBytes());
+
+        compressed = alloc.directBuffer();
+        compression.compress(uncompressed.duplicate(), compressed);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        uncompressed.release();
+        compressed.release();
+    }
+
+    @Benchmark
+    public int compress() throws Exception {
+        ByteBuf out = alloc.directBuffer(batchSize / 2 + 64);
+        try {
+            if ("zlib-per-batch".equals(algorithm)) {
+                deflatePerBatch(uncompressed.duplicate(), out);
+            } else {
+                compression.compress(uncompressed.duplicate(), out);
+            }
+            return out.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+
+    @Benchmark
+    public int decompress() throws Exception {
+        ByteBuf out = alloc.directBuffer(batchSize);
+        try {
+            if ("zlib-per-batch".equals(algorithm)) {
+                inflatePerBatch(compressed.duplicate(), out);
+            } else {
+                compression.decompress(compressed.duplicate(), out, MAX_SIZE);
+            }
+            return out.readableBytes();
+        } finally {
+            out.release();
+        }
+    }
+
+    private static void deflatePerBatch(ByteBuf in, ByteBuf out) {
+        Deflater deflater = new Deflater(6, true);
+        try {
+            deflater.setInput(in.nioBuffer());
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.ensureWritable(8192);
+                ByteBuffer target = out.nioBuffer(out.writerIndex(), out.writableBytes());
+                out.writerIndex(out.writerIndex() + deflater.deflate(target));
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflatePerBatch(ByteBuf in, ByteBuf out) throws Exception {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(in.nioBuffer());
+            while (!inflater.finished()) {
+                out.ensureWritable(8192);
+                ByteBuffer target = out.nioBuffer(out.writerIndex(), out.writableBytes());
+                int n = inflater.inflate(target);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("zlib 数据不完整");
+                }
+                out.writerIndex(out.writerIndex() + n);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+}
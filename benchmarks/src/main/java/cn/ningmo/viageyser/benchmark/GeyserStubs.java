@@ -0,0 +1,96 @@
+package cn.ningmo.viageyser.benchmark;
+
+import org.cloudburstmc.protocol.bedrock.packet.BedrockPacketHandler;
+import org.cloudburstmc.protocol.bedrock.packet.LoginPacket;
+import org.cloudburstmc.protocol.bedrock.packet.MovePlayerPacket;
+import org.cloudburstmc.protocol.bedrock.packet.RequestNetworkSettingsPacket;
+import org.geysermc.geyser.GeyserImpl;
+import org.geysermc.geyser.network.GameProtocol;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 组装 GeyserImpl -> bootstrap -> bedrockServer -> packetHandler 这条钩子会反射访问的对象链
+public final class GeyserStubs {
+
+    public static final class Bootstrap {
+        private final BedrockServer bedrockServer;
+
+        Bootstrap(BedrockServer bedrockServer) {
+            this.bedrockServer = bedrockServer;
+        }
+    }
+
+    public static final class BedrockServer {
+        private BedrockPacketHandler packetHandler;
+
+        BedrockServer(BedrockPacketHandler packetHandler) {
+            this.packetHandler = packetHandler;
+        }
+    }
+
+    public static final class SimpleHandler implements BedrockPacketHandler {
+        @Override
+        public boolean handleRequestNetworkSettings(RequestNetworkSettingsPacket packet) {
+            return packet.getProtocolVersion() > 0;
+        }
+
+        @Override
+        public boolean handleLogin(LoginPacket packet) {
+            return packet.getProtocolVersion() > 0;
+        }
+
+        @Override
+        public boolean handleMove(MovePlayerPacket packet) {
+            return packet.getX() >= 0;
+        }
+    }
+
+    // 模拟 Geyser 的 UpstreamPacketHandler：RequestNetworkSettings 和 Login 都按协议版本查找编解码器，
+    // 找不到时拒绝连接
+    public static final class SessionHandler implements BedrockPacketHandler {
+        @Override
+        public boolean handleRequestNetworkSettings(RequestNetworkSettingsPacket packet) {
+            return GameProtocol.getBedrockCodec(packet.getProtocolVersion()) != null;
+        }
+
+        @Override
+        public boolean handleLogin(LoginPacket packet) {
+            return GameProtocol.getBedrockCodec(packet.getProtocolVersion()) != null;
+        }
+
+        @Override
+        public boolean handleMove(MovePlayerPacket packet) {
+            return packet.getX() >= 0;
+        }
+    }
+
+    private GeyserStubs() {
+    }
+
+    // 重置 GameProtocol 并安装新的 Geyser 实例。
+    // withNetworkHandler 为 false 时没有 bedrockServer，钩子只能为每个版本创建编解码器
+    public static void install(boolean withNetworkHandler) {
+        install(withNetworkHandler ? new SimpleHandler() : null);
+    }
+
+    // 使用指定的数据包处理器，为 null 时没有 bedrockServer
+    public static void install(BedrockPacketHandler packetHandler) {
+        GameProtocol.reset();
+        BedrockServer server = packetHandler != null ? new BedrockServer(packetHandler) : null;
+        GeyserImpl.setInstance(new GeyserImpl(new Bootstrap(server)));
+    }
+
+    // 当前 bedrockServer 上的处理器，应用钩子后是生成的委托类
+    public static BedrockPacketHandler installedHandler() {
+        Bootstrap bootstrap = (Bootstrap) GeyserImpl.getInstance().getBootstrap();
+        return bootstrap.bedrockServer.packetHandler;
+    }
+
+    public static Logger silentLogger() {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.OFF);
+        return logger;
+    }
+}
@@ -0,0 +1,97 @@
+package cn.ningmo.viageyser.benchmark;
+
+import cn.ningmo.viageyser.HandlerDelegateFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// 对比直接调用、Proxy 和生成的委托类在每个数据包上的分发开销
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HandlerDispatchBenchmark {
+
+    public interface PacketHandler {
+        boolean handleLogin(LoginPacket packet);
+
+        boolean handleMove(MovePacket packet);
+    }
+
+    public static class LoginPacket {
+        public int protocolVersion = 408;
+    }
+
+    public static class MovePacket {
+        public float x;
+    }
+
+    public static class SimpleHandler implements PacketHandler {
+        @Override
+        public boolean handleLogin(LoginPacket packet) {
+            return packet.protocolVersion > 0;
+        }
+
+        @Override
+        public boolean handleMove(MovePacket packet) {
+            return packet.x >= 0;
+        }
+    }
+
+    private PacketHandler direct;
+    private PacketHandler proxy;
+    private PacketHandler generated;
+    private final LoginPacket loginPacket = new LoginPacket();
+    private final MovePacket movePacket = new MovePacket();
+
+    @Setup
+    public void setup() {
+        SimpleHandler handler = new SimpleHandler();
+        Consumer<Object> interceptor = packet -> ((LoginPacket) packet).protocolVersion = 408;
+        Class<?>[] interfaces = HandlerDelegateFactory.collectInterfaces(handler.getClass());
+
+        direct = handler;
+        proxy = (PacketHandler) HandlerDelegateFactory.createProxy(handler, interfaces, interceptor);
+        generated = (PacketHandler) HandlerDelegateFactory.createGenerated(handler, interfaces, interceptor);
+        if (generated == null) {
+            throw new IllegalStateException("无法生成委托类");
+        }
+    }
+
+    @Benchmark
+    public boolean directMove() {
+        return direct.handleMove(movePacket);
+    }
+
+    @Benchmark
+    public boolean proxyMove() {
+        return proxy.handleMove(movePacket);
+    }
+
+    @Benchmark
+    public boolean generatedMove() {
+        return generated.handleMove(movePacket);
+    }
+
+    @Benchmark
+    public boolean proxyLogin() {
+        return proxy.handleLogin(loginPacket);
+    }
+
+    @Benchmark
+    public boolean generatedLogin() {
+        return generated.handleLogin(loginPacket);
+    }
+}
@@ -0,0 +1,49 @@
+package cn.ningmo.viageyser.benchmark;
+
+import cn.ningmo.viageyser.ProtocolVersionHook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// 完整 applyHook 的耗时，按最低协议版本区间和是否能安装登录拦截分别测量。
+// interception 为 false 时 GameProtocol 策略会为区间内每个版本创建编解码器，
+// 配合 -prof gc 查看 gc.alloc.rate.norm 即可得到每次建表的内存开销
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HookApplyBenchmark {
+
+    @Param({ "600", "500", "390" })
+    public int minProtocolVersion;
+
+    @Param({ "true", "false" })
+    public boolean interception;
+
+    private ProtocolVersionHook hook;
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        GeyserStubs.install(interception);
+        hook = new ProtocolVersionHook(GeyserStubs.silentLogger());
+        hook.setMinProtocolVersion(minProtocolVersion);
+    }
+
+    @Benchmark
+    public boolean applyHook() {
+        return hook.applyHook();
+    }
+}
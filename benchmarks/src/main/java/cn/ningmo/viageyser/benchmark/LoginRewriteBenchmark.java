@@ -0,0 +1,68 @@
+package cn.ningmo.viageyser.benchmark;
+
+import cn.ningmo.viageyser.ProtocolVersionHook;
+import org.cloudburstmc.protocol.bedrock.packet.BedrockPacketHandler;
+import org.cloudburstmc.protocol.bedrock.packet.LoginPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// 登录数据包经过钩子（委托类 + interceptPacket）的延迟，与直接调用原始处理器对比。
+// clientVersion 为原生版本时不需要改写，为空隙中的版本时会查表并改写
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginRewriteBenchmark {
+
+    @Param({ "686", "560" })
+    public int clientVersion;
+
+    @Param({ "shared", "lazy" })
+    public String codecMode;
+
+    private BedrockPacketHandler original;
+    private BedrockPacketHandler hooked;
+    private final LoginPacket packet = new LoginPacket();
+
+    @Setup
+    public void setup() {
+        GeyserStubs.install(true);
+        original = GeyserStubs.installedHandler();
+
+        ProtocolVersionHook hook = new ProtocolVersionHook(GeyserStubs.silentLogger());
+        hook.setMinProtocolVersion(400);
+        hook.setLazyCodecs("lazy".equals(codecMode));
+        if (!hook.applyHook()) {
+            throw new IllegalStateException("无法应用协议版本钩子");
+        }
+        hooked = GeyserStubs.installedHandler();
+        if (hooked == original) {
+            throw new IllegalStateException("数据包处理器没有被替换");
+        }
+    }
+
+    @Benchmark
+    public boolean direct() {
+        packet.setProtocolVersion(clientVersion);
+        return original.handleLogin(packet);
+    }
+
+    @Benchmark
+    public boolean hooked() {
+        packet.setProtocolVersion(clientVersion);
+        return hooked.handleLogin(packet);
+    }
+}
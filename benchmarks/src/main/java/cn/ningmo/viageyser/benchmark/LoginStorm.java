@@ -0,0 +1,245 @@
+package cn.ningmo.viageyser.benchmark;
+
+import cn.ningmo.viageyser.ProtocolVersionHook;
+import org.cloudburstmc.protocol.bedrock.packet.BedrockPacketHandler;
+import org.cloudburstmc.protocol.bedrock.packet.LoginPacket;
+import org.cloudburstmc.protocol.bedrock.packet.RequestNetworkSettingsPacket;
+import org.geysermc.geyser.network.GameProtocol;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+// 离线登录压测：不联网、不需要真实客户端，按版本比例生成 RequestNetworkSettings + Login 序列，
+// 交给替身 bedrockServer 上的数据包处理器（钩子开启时是生成的委托类）。
+// 每个模式先预热再测量，输出每秒登录数、登录延迟的 p50/p99/p999、每次登录分配的字节数、分配速率和被拒绝的登录数。
+//
+//   java -cp target/benchmarks.jar cn.ningmo.viageyser.benchmark.LoginStorm \
+//       --mix 686:50,560:30,440:20 --logins 200000 --threads 4 --hook both --codec-mode both
+//
+// 替身处理器找不到编解码器时拒绝登录，钩子关闭时非原生版本会全部被拒绝。
+// 钩子开启时支持范围内（MIN_VERSION 到默认编解码器版本）的登录不应被拒绝，否则以退出码 1 结束
+public final class LoginStorm {
+    private static final int MIN_VERSION = 400;
+
+    private final int[] versions;
+    private final int[] weights;
+    private final int logins;
+    private final int warmup;
+    private final int threads;
+
+    private LoginStorm(int[] versions, int[] weights, int logins, int warmup, int threads) {
+        this.versions = versions;
+        this.weights = weights;
+        this.logins = logins;
+        this.warmup = warmup;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mix = "686:50,560:30,440:20";
+        int logins = 200_000;
+        int warmup = 50_000;
+        int threads = 1;
+        String hook = "both";
+        String codecMode = "both";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--mix":
+                    mix = args[i + 1];
+                    break;
+                case "--logins":
+                    logins = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--hook":
+                    hook = args[i + 1];
+                    break;
+                case "--codec-mode":
+                    codecMode = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知参数: " + args[i]);
+            }
+        }
+
+        String[] entries = mix.split(",");
+        int[] versions = new int[entries.length];
+        int[] weights = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].trim().split(":");
+            versions[i] = Integer.parseInt(parts[0]);
+            weights[i] = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+        }
+
+        LoginStorm storm = new LoginStorm(versions, weights, logins, warmup, Math.max(1, threads));
+        System.out.println("版本比例 " + mix + "，" + storm.threads + " 个线程，每个模式 " + logins + " 次登录（预热 " + warmup + " 次），编解码器模式 " + codecMode);
+        System.out.println(String.format(Locale.ROOT, "%-12s %12s %10s %10s %10s %12s %10s %10s",
+                "钩子", "登录/秒", "p50(us)", "p99(us)", "p999(us)", "字节/登录", "分配MB/秒", "拒绝"));
+        if (!"on".equals(hook)) {
+            storm.run(false, false).print("关闭");
+        }
+        List<String> failures = new ArrayList<>();
+        if (!"off".equals(hook)) {
+            for (String mode : "both".equals(codecMode) ? new String[] { "shared", "lazy" } : new String[] { codecMode }) {
+                Result result = storm.run(true, "lazy".equals(mode));
+                result.print("开启/" + mode);
+                if (result.inRangeRejected > 0) {
+                    failures.add(mode + " 模式下拒绝了 " + result.inRangeRejected + " 次支持范围内的登录");
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            failures.forEach(System.err::println);
+            System.exit(1);
+        }
+    }
+
+    private Result run(boolean hooked, boolean lazy) throws Exception {
+        GeyserStubs.install(new GeyserStubs.SessionHandler());
+        if (hooked) {
+            ProtocolVersionHook hook = new ProtocolVersionHook(GeyserStubs.silentLogger());
+            hook.setMinProtocolVersion(MIN_VERSION);
+            hook.setLazyCodecs(lazy);
+            if (!hook.applyHook()) {
+                throw new IllegalStateException("无法应用协议版本钩子");
+            }
+        }
+        BedrockPacketHandler handler = GeyserStubs.installedHandler();
+
+        storm(handler, warmup, 1, hooked);
+        return storm(handler, logins, 2, hooked);
+    }
+
+    // 每个线程处理 count / threads 次登录，延迟数组预先分配，不计入分配量。
+    // hooked 为 true 时单独统计支持范围内被拒绝的登录
+    private Result storm(BedrockPacketHandler handler, int count, long seed, boolean hooked) throws Exception {
+        int perThread = Math.max(1, count / threads);
+        int maxVersion = GameProtocol.DEFAULT_BEDROCK_CODEC.getProtocolVersion();
+        long[][] latencies = new long[threads][perThread];
+        long[] allocated = new long[threads];
+        int[] rejected = new int[threads];
+        int[] inRangeRejected = new int[threads];
+        int[][] sequences = new int[threads][];
+        for (int t = 0; t < threads; t++) {
+            sequences[t] = sequence(perThread, new Random(seed * 31 + t));
+        }
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            Thread worker = new Thread(() -> {
+                int[] sequence = sequences[index];
+                long[] times = latencies[index];
+                int failures = 0;
+                int inRangeFailures = 0;
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long before = bean.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < sequence.length; i++) {
+                    long begin = System.nanoTime();
+                    // 每次登录都是新的数据包对象，和真实连接一样
+                    RequestNetworkSettingsPacket settings = new RequestNetworkSettingsPacket();
+                    settings.setProtocolVersion(sequence[i]);
+                    boolean accepted = handler.handleRequestNetworkSettings(settings);
+                    LoginPacket login = new LoginPacket();
+                    login.setProtocolVersion(sequence[i]);
+                    accepted &= handler.handleLogin(login);
+                    times[i] = System.nanoTime() - begin;
+                    if (!accepted) {
+                        failures++;
+                        if (hooked && sequence[i] >= MIN_VERSION && sequence[i] <= maxVersion) {
+                            inRangeFailures++;
+                        }
+                    }
+                }
+                allocated[index] = bean.getCurrentThreadAllocatedBytes() - before;
+                rejected[index] = failures;
+                inRangeRejected[index] = inRangeFailures;
+            }, "login-storm-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long[] all = new long[perThread * threads];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(latencies[t], 0, all, t * perThread, perThread);
+        }
+        Arrays.sort(all);
+        return new Result(all, elapsed, Arrays.stream(allocated).sum(), Arrays.stream(rejected).sum(),
+                Arrays.stream(inRangeRejected).sum());
+    }
+
+    // 按权重随机排列的客户端协议版本
+    private int[] sequence(int count, Random random) {
+        int total = Arrays.stream(weights).sum();
+        int[] sequence = new int[count];
+        for (int i = 0; i < count; i++) {
+            int pick = random.nextInt(total);
+            int v = 0;
+            while (pick >= weights[v]) {
+                pick -= weights[v++];
+            }
+            sequence[i] = versions[v];
+        }
+        return sequence;
+    }
+
+    private static final class Result {
+        private final long[] sortedLatencies;
+        private final long elapsedNanos;
+        private final long allocatedBytes;
+        private final int rejected;
+        private final int inRangeRejected;
+
+        Result(long[] sortedLatencies, long elapsedNanos, long allocatedBytes, int rejected, int inRangeRejected) {
+            this.sortedLatencies = sortedLatencies;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.rejected = rejected;
+            this.inRangeRejected = inRangeRejected;
+        }
+
+        private double percentileMicros(double p) {
+            int index = (int) Math.min(sortedLatencies.length - 1, Math.ceil(p * sortedLatencies.length) - 1);
+            return sortedLatencies[Math.max(0, index)] / 1000.0;
+        }
+
+        void print(String label) {
+            int count = sortedLatencies.length;
+            System.out.println(String.format(Locale.ROOT, "%-12s %12.0f %10.2f %10.2f %10.2f %12.1f %10.1f %10d",
+                    label,
+                    count * 1e9 / elapsedNanos,
+                    percentileMicros(0.50),
+                    percentileMicros(0.99),
+                    percentileMicros(0.999),
+                    (double) allocatedBytes / count,
+                    allocatedBytes / 1048576.0 / (elapsedNanos / 1e9),
+                    rejected));
+        }
+    }
+}
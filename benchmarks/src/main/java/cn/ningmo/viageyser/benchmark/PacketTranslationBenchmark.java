@@ -0,0 +1,92 @@
+package cn.ningmo.viageyser.benchmark;
+
+import cn.ningmo.viageyser.PacketRewriters;
+import cn.ningmo.viageyser.PacketTranslator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// 单线程每秒转换的数据包数（即每个核心的吞吐量）。数据包是 UpdateBlockPacket：
+//   passthrough    没有登记转换，原样通过
+//   id-remap       只改数据包 ID，包头长度不变，原地改写
+//   field-inplace  改写方块运行时 ID，varint 长度不变，原地改写
+//   field-resize   改写方块运行时 ID，varint 变长，写入池化缓冲区
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class PacketTranslationBenchmark {
+    private static final int UPDATE_BLOCK = 0x15;
+
+    @Param({ "passthrough", "id-remap", "field-inplace", "field-resize" })
+    public String scenario;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    private PacketTranslator translator;
+    private ByteBuf template;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        PacketTranslator.Builder builder = PacketTranslator.builder(560);
+        switch (scenario) {
+            case "id-remap":
+                // 两个 ID 互换，每次调用都会原地改写并在下一次改回来
+                builder.remapId(PacketTranslator.OUTBOUND, UPDATE_BLOCK, UPDATE_BLOCK + 1)
+                        .remapId(PacketTranslator.OUTBOUND, UPDATE_BLOCK + 1, UPDATE_BLOCK);
+                break;
+            case "field-inplace":
+                builder.rewrite(PacketTranslator.OUTBOUND, UPDATE_BLOCK, PacketRewriters.remapVarInt(3, id -> id ^ 1));
+                break;
+            case "field-resize":
+                builder.rewrite(PacketTranslator.OUTBOUND, UPDATE_BLOCK, PacketRewriters.remapVarInt(3, id -> id + 20000));
+                break;
+            default:
+                break;
+        }
+        translator = builder.build();
+
+        // 包头、坐标 (x, y, z)、方块运行时 ID、标志、图层
+        template = alloc.directBuffer(16);
+        template.writeByte(UPDATE_BLOCK);
+        template.writeByte(0x96).writeByte(0x01); // x = 75（zigzag）
+        template.writeByte(0x40);                 // y = 64
+        template.writeByte(0x2A);                 // z = 21（zigzag）
+        template.writeByte(0x05);                 // 运行时 ID = 5
+        template.writeByte(0x03);                 // 标志
+        template.writeByte(0x00);                 // 图层
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        template.release();
+    }
+
+    @Benchmark
+    public int translate() throws Exception {
+        // 池化的派生缓冲区由 Netty 回收，不会产生垃圾；原地改写直接修改模板的内容
+        ByteBuf packet = template.retainedDuplicate();
+        ByteBuf translated = translator.translate(PacketTranslator.OUTBOUND, packet, alloc);
+        int size = translated.readableBytes();
+        translated.release();
+        return size;
+    }
+}
@@ -0,0 +1,75 @@
+package org.cloudburstmc.protocol.bedrock.codec;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 模拟 cloudburst 的 BedrockCodec。toBuilder() 会复制整张数据包定义表，
+// 用来体现为每个协议版本单独创建编解码器时的时间和内存成本
+public final class BedrockCodec {
+    private static final int PACKET_COUNT = 300;
+
+    private final int protocolVersion;
+    private final String minecraftVersion;
+    private final Map<Integer, Object> packetDefinitions;
+
+    private BedrockCodec(int protocolVersion, String minecraftVersion, Map<Integer, Object> packetDefinitions) {
+        this.protocolVersion = protocolVersion;
+        this.minecraftVersion = minecraftVersion;
+        this.packetDefinitions = packetDefinitions;
+    }
+
+    public static BedrockCodec create(int protocolVersion, String minecraftVersion) {
+        Builder builder = builder().protocolVersion(protocolVersion).minecraftVersion(minecraftVersion);
+        for (int id = 0; id < PACKET_COUNT; id++) {
+            builder.registerPacket(id, new Object());
+        }
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Builder toBuilder() {
+        Builder builder = new Builder().protocolVersion(protocolVersion).minecraftVersion(minecraftVersion);
+        builder.packetDefinitions.putAll(packetDefinitions);
+        return builder;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public String getMinecraftVersion() {
+        return minecraftVersion;
+    }
+
+    public Object getPacketDefinition(int id) {
+        return packetDefinitions.get(id);
+    }
+
+    public static final class Builder {
+        private final Map<Integer, Object> packetDefinitions = new HashMap<>();
+        private int protocolVersion;
+        private String minecraftVersion;
+
+        public Builder protocolVersion(int protocolVersion) {
+            this.protocolVersion = protocolVersion;
+            return this;
+        }
+
+        public Builder minecraftVersion(String minecraftVersion) {
+            this.minecraftVersion = minecraftVersion;
+            return this;
+        }
+
+        public Builder registerPacket(int id, Object definition) {
+            packetDefinitions.put(id, definition);
+            return this;
+        }
+
+        public BedrockCodec build() {
+            return new BedrockCodec(protocolVersion, minecraftVersion, new HashMap<>(packetDefinitions));
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package org.cloudburstmc.protocol.bedrock.packet;
+
+public interface BedrockPacket {
+}
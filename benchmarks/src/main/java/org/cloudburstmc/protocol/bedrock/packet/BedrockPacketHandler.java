@@ -0,0 +1,10 @@
+package org.cloudburstmc.protocol.bedrock.packet;
+
+// 数据包处理器接口，方法名中带 Login 或 RequestNetworkSettings 的方法会被钩子拦截
+public interface BedrockPacketHandler {
+    boolean handleRequestNetworkSettings(RequestNetworkSettingsPacket packet);
+
+    boolean handleLogin(LoginPacket packet);
+
+    boolean handleMove(MovePlayerPacket packet);
+}
@@ -0,0 +1,13 @@
+package org.cloudburstmc.protocol.bedrock.packet;
+
+public class MovePlayerPacket implements BedrockPacket {
+    private float x;
+
+    public float getX() {
+        return x;
+    }
+
+    public void setX(float x) {
+        this.x = x;
+    }
+}
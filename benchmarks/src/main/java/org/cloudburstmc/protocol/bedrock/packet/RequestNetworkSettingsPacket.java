@@ -0,0 +1,13 @@
+package org.cloudburstmc.protocol.bedrock.packet;
+
+public class RequestNetworkSettingsPacket implements BedrockPacket {
+    private int protocolVersion;
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+}
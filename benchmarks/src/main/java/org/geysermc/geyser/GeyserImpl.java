@@ -0,0 +1,31 @@
+package org.geysermc.geyser;
+
+// 基准测试用的 Geyser 替身，只保留钩子会访问的成员。
+// 运行基准测试时类路径上没有真正的 Geyser，钩子会按原来的类名找到这些替身
+public class GeyserImpl {
+    public static final String VERSION = "benchmark";
+
+    private static volatile GeyserImpl instance;
+
+    private final Object bootstrap;
+
+    public GeyserImpl(Object bootstrap) {
+        this.bootstrap = bootstrap;
+    }
+
+    public static GeyserImpl getInstance() {
+        return instance;
+    }
+
+    public static void setInstance(GeyserImpl geyser) {
+        instance = geyser;
+    }
+
+    public Object getBootstrap() {
+        return bootstrap;
+    }
+
+    public boolean isShuttingDown() {
+        return false;
+    }
+}
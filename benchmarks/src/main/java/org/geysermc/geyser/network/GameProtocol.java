@@ -0,0 +1,45 @@
+package org.geysermc.geyser.network;
+
+import org.cloudburstmc.protocol.bedrock.codec.BedrockCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 模拟 Geyser 的 GameProtocol：原生支持少数几个版本，默认编解码器为最新版本
+public final class GameProtocol {
+    public static final int[] NATIVE_VERSIONS = { 649, 662, 671, 685, 686 };
+
+    public static final BedrockCodec DEFAULT_BEDROCK_CODEC = BedrockCodec.create(686, "1.21.2");
+
+    public static final List<BedrockCodec> SUPPORTED_BEDROCK_CODECS = new ArrayList<>();
+
+    static {
+        reset();
+    }
+
+    private GameProtocol() {
+    }
+
+    // 恢复为只有原生版本的编解码器列表，每次应用钩子前调用
+    public static void reset() {
+        synchronized (SUPPORTED_BEDROCK_CODECS) {
+            SUPPORTED_BEDROCK_CODECS.clear();
+            for (int version : NATIVE_VERSIONS) {
+                SUPPORTED_BEDROCK_CODECS.add(version == DEFAULT_BEDROCK_CODEC.getProtocolVersion()
+                        ? DEFAULT_BEDROCK_CODEC
+                        : DEFAULT_BEDROCK_CODEC.toBuilder().protocolVersion(version).build());
+            }
+        }
+    }
+
+    public static BedrockCodec getBedrockCodec(int protocolVersion) {
+        synchronized (SUPPORTED_BEDROCK_CODECS) {
+            for (BedrockCodec codec : SUPPORTED_BEDROCK_CODECS) {
+                if (codec.getProtocolVersion() == protocolVersion) {
+                    return codec;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,221 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.Snappy;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 基岩版数据包批次的压缩算法。
+// Deflater、Inflater 和 Snappy 按线程复用（Netty 事件循环线程固定，不会跨线程共享），每个批次只 reset，不重新分配本地内存；
+// 输入输出都是直接内存的 ByteBuf，通过 nioBuffer 交给 zlib，不经过堆数组
+public abstract class BatchCompression {
+    public static final BatchCompression ZLIB = new Zlib();
+    public static final BatchCompression SNAPPY = new SnappyCompression();
+    public static final BatchCompression NONE = new None();
+
+    // 解压后的批次上限，防止压缩炸弹
+    static final int MAX_DECOMPRESSED_SIZE = 16 * 1024 * 1024;
+
+    private final String name;
+
+    BatchCompression(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // 由协议库中压缩算法的枚举名得到算法，未知时返回 null
+    static BatchCompression fromName(String name) {
+        switch (name.toUpperCase(Locale.ROOT)) {
+            case "ZLIB":
+                return ZLIB;
+            case "SNAPPY":
+                return SNAPPY;
+            case "NONE":
+                return NONE;
+            default:
+                return null;
+        }
+    }
+
+    // 压缩 in 的全部可读字节并追加到 out，in 的读位置移到末尾
+    public abstract void compress(ByteBuf in, ByteBuf out) throws Exception;
+
+    // 解压 in 的全部可读字节并追加到 out，结果超过 maxSize 时抛出异常
+    public abstract void decompress(ByteBuf in, ByteBuf out, int maxSize) throws Exception;
+
+    private static final class Zlib extends BatchCompression {
+        private static final int LEVEL = 6;
+        private static final int CHUNK = 8192;
+
+        private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(LEVEL, true));
+        private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        Zlib() {
+            super("zlib");
+        }
+
+        @Override
+        public void compress(ByteBuf in, ByteBuf out) {
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            try {
+                deflater.setInput(nioBuffer(in));
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.ensureWritable(CHUNK);
+                    ByteBuffer target = out.nioBuffer(out.writerIndex(), out.writableBytes());
+                    out.writerIndex(out.writerIndex() + deflater.deflate(target));
+                }
+                in.skipBytes(in.readableBytes());
+            } finally {
+                // 释放对输入缓冲区的引用
+                deflater.reset();
+            }
+        }
+
+        @Override
+        public void decompress(ByteBuf in, ByteBuf out, int maxSize) throws DataFormatException {
+            Inflater inflater = INFLATERS.get();
+            inflater.reset();
+            try {
+                inflater.setInput(nioBuffer(in));
+                int written = 0;
+                while (!inflater.finished()) {
+                    out.ensureWritable(CHUNK);
+                    ByteBuffer target = out.nioBuffer(out.writerIndex(), Math.min(out.writableBytes(), maxSize - written + 1));
+                    int n = inflater.inflate(target);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new DataFormatException("zlib 数据不完整");
+                    }
+                    written += n;
+                    if (written > maxSize) {
+                        throw new DataFormatException("解压后的批次超过 " + maxSize + " 字节");
+                    }
+                    out.writerIndex(out.writerIndex() + n);
+                }
+                in.skipBytes(in.readableBytes());
+            } finally {
+                inflater.reset();
+            }
+        }
+
+        // 可读部分的 NIO 视图；由多段组成的缓冲区无法直接交给 zlib 时复制一份
+        private static ByteBuffer nioBuffer(ByteBuf buffer) {
+            if (buffer.nioBufferCount() == 1) {
+                return buffer.nioBuffer(buffer.readerIndex(), buffer.readableBytes());
+            }
+            ByteBuffer copy = ByteBuffer.allocateDirect(buffer.readableBytes());
+            buffer.getBytes(buffer.readerIndex(), copy);
+            copy.flip();
+            return copy;
+        }
+    }
+
+    private static final class SnappyCompression extends BatchCompression {
+        // Netty 的 Snappy 编码器用 short 保存匹配位置，一次最多处理 32 KiB，且要求读位置从 0 开始；
+        // 更大的批次按 32 KiB 切片分段编码后拼接，和 snappy 原始格式的分段方式相同
+        private static final int FRAGMENT = 32768;
+
+        private static final ThreadLocal<Snappy> CODECS = ThreadLocal.withInitial(Snappy::new);
+
+        SnappyCompression() {
+            super("snappy");
+        }
+
+        @Override
+        public void compress(ByteBuf in, ByteBuf out) {
+            Snappy snappy = CODECS.get();
+            int length = in.readableBytes();
+            if (length <= FRAGMENT) {
+                snappy.reset();
+                snappy.encode(in.slice(in.readerIndex(), length), out, length);
+                in.skipBytes(length);
+                return;
+            }
+            // 每段编码结果以该段长度开头，去掉后接在整个批次的长度之后
+            writeVarInt(out, length);
+            ByteBuf fragment = out.alloc().directBuffer(FRAGMENT + FRAGMENT / 6 + 32);
+            try {
+                while (in.isReadable()) {
+                    int size = Math.min(FRAGMENT, in.readableBytes());
+                    fragment.clear();
+                    snappy.reset();
+                    snappy.encode(in.slice(in.readerIndex(), size), fragment, size);
+                    in.skipBytes(size);
+                    fragment.skipBytes(varIntLength(size));
+                    out.writeBytes(fragment);
+                }
+            } finally {
+                fragment.release();
+            }
+        }
+
+        @Override
+        public void decompress(ByteBuf in, ByteBuf out, int maxSize) throws DataFormatException {
+            // 解码器按开头声明的长度预先分配，先检查长度
+            int length = peekVarInt(in);
+            if (length < 0 || length > maxSize) {
+                throw new DataFormatException("解压后的批次超过 " + maxSize + " 字节");
+            }
+            Snappy snappy = CODECS.get();
+            snappy.reset();
+            snappy.decode(in, out);
+        }
+
+        private static void writeVarInt(ByteBuf out, int value) {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static int varIntLength(int value) {
+            int length = 1;
+            while ((value & ~0x7F) != 0) {
+                value >>>= 7;
+                length++;
+            }
+            return length;
+        }
+
+        // 读取开头的长度但不移动读位置，格式错误时返回 -1
+        private static int peekVarInt(ByteBuf in) {
+            int value = 0;
+            for (int i = 0; i < 5 && in.readerIndex() + i < in.writerIndex(); i++) {
+                byte b = in.getByte(in.readerIndex() + i);
+                value |= (b & 0x7F) << (i * 7);
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class None extends BatchCompression {
+        None() {
+            super("none");
+        }
+
+        @Override
+        public void compress(ByteBuf in, ByteBuf out) {
+            out.writeBytes(in);
+        }
+
+        @Override
+        public void decompress(ByteBuf in, ByteBuf out, int maxSize) throws DataFormatException {
+            if (in.readableBytes() > maxSize) {
+                throw new DataFormatException("批次超过 " + maxSize + " 字节");
+            }
+            out.writeBytes(in);
+        }
+    }
+}
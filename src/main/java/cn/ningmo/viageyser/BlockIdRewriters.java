@@ -0,0 +1,594 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+// 按映射包转换数据包中的方块状态运行时 ID。
+// 发给客户端的数据包由默认编解码器编码，按目标版本的布局解析，用降级表转换；
+// 客户端发来的数据包是客户端自己的布局，按源版本解析，用升级表转换。
+// 解析只定位 ID 字段，记录替换后一次写出：长度都不变时原地覆盖，否则写入一个新的池化缓冲区。
+// 数据不完整或布局无法识别时原样放行，不会截断数据包。
+//
+// 覆盖的数据包：
+//   发给客户端：LevelChunk 的子区块调色板、UpdateBlock、UpdateBlockSynced、UpdateSubChunkBlocks、
+//             LevelEvent（方块破坏和裂纹粒子）、LevelSoundEvent（放置、破坏、敲击、使用）、
+//             InventoryContent、InventorySlot（1.21.20 之前）、MobEquipment、MobArmorEquipment、
+//             AddItemEntity、CreativeContent（1.21.60 之前）中物品携带的方块 ID
+//   客户端发来：InventoryTransaction（物品和使用物品时的目标方块）、MobEquipment
+// 不转换：请求模式或开启区块缓存的 LevelChunk 与 SubChunk（Geyser 不使用）、PlayerAuthInput 中的物品交互、
+//        CraftingData 和 AddPlayer 中的物品
+final class BlockIdRewriters {
+    static final int ADD_ITEM_ENTITY = 0x0F;
+    static final int UPDATE_BLOCK = 0x15;
+    static final int LEVEL_EVENT = 0x19;
+    static final int INVENTORY_TRANSACTION = 0x1E;
+    static final int MOB_EQUIPMENT = 0x1F;
+    static final int MOB_ARMOR_EQUIPMENT = 0x20;
+    static final int INVENTORY_CONTENT = 0x31;
+    static final int INVENTORY_SLOT = 0x32;
+    static final int LEVEL_CHUNK = 0x3A;
+    static final int UPDATE_BLOCK_SYNCED = 0x6E;
+    static final int LEVEL_SOUND_EVENT = 0x7B;
+    static final int CREATIVE_CONTENT = 0x91;
+    static final int UPDATE_SUB_CHUNK_BLOCKS = 0xAC;
+
+    // 布局变化的协议版本
+    private static final int V1_20_60 = 649;  // LevelChunk 加入维度
+    private static final int V1_21_20 = 712;  // 使用物品加入触发类型和预测结果，容器名称结构化，盔甲加入身体槽
+    private static final int V1_21_60 = 776;  // CreativeContent 改为分组
+
+    private static final int LEVEL_EVENT_DESTROY_BLOCK = 2001;
+    private static final int LEVEL_EVENT_CRACK_BLOCK = 2014;
+    private static final int SOUND_ITEM_USE_ON = 0;
+    private static final int SOUND_HIT = 1;
+    private static final int SOUND_BREAK = 5;
+    private static final int SOUND_PLACE = 6;
+
+    private static final int TRANSACTION_ITEM_USE = 2;
+    private static final int TRANSACTION_ITEM_USE_ON_ENTITY = 3;
+    private static final int TRANSACTION_ITEM_RELEASE = 4;
+    private static final int SOURCE_CONTAINER = 0;
+    private static final int SOURCE_WORLD_INTERACTION = 2;
+    private static final int SOURCE_UNTRACKED_INTERACTION_UI = 100;
+    private static final int SOURCE_NON_IMPLEMENTED_TODO = 99999;
+
+    private static final int SUB_CHUNK_BLOCKS = 4096;
+
+    private BlockIdRewriters() {
+    }
+
+    // 为映射包登记方块 ID 转换，没有任何方块表时返回 null
+    static PacketTranslator translator(MappingPack pack) {
+        return translator(pack, null);
+    }
+
+    // chunkCache 不为空时，同版本玩家共享 LevelChunk 的转换结果
+    static PacketTranslator translator(MappingPack pack, ChunkPayloadCache chunkCache) {
+        boolean downgrade = pack.hasTable(MappingPack.BLOCKS_DOWNGRADE);
+        boolean upgrade = pack.hasTable(MappingPack.BLOCKS);
+        if (!downgrade && !upgrade) {
+            return null;
+        }
+        PacketTranslator.Builder builder = PacketTranslator.builder(pack.sourceVersion());
+        if (downgrade) {
+            IntUnaryOperator mapping = pack::downgradeBlock;
+            int layout = pack.targetVersion();
+            PacketRewriter levelChunk = (packet, bodyIndex, alloc) -> levelChunk(packet, bodyIndex, alloc, mapping, layout);
+            if (chunkCache != null) {
+                levelChunk = chunkCache.wrap(pack.sourceVersion(), layout, levelChunk);
+            }
+            builder.rewrite(PacketTranslator.OUTBOUND, LEVEL_CHUNK, levelChunk)
+                    .rewrite(PacketTranslator.OUTBOUND, UPDATE_BLOCK, PacketRewriters.remapVarInt(3, mapping))
+                    .rewrite(PacketTranslator.OUTBOUND, UPDATE_BLOCK_SYNCED, PacketRewriters.remapVarInt(3, mapping))
+                    .rewrite(PacketTranslator.OUTBOUND, UPDATE_SUB_CHUNK_BLOCKS, (packet, bodyIndex, alloc) -> updateSubChunkBlocks(packet, bodyIndex, alloc, mapping))
+                    .rewrite(PacketTranslator.OUTBOUND, LEVEL_EVENT, (packet, bodyIndex, alloc) -> levelEvent(packet, bodyIndex, alloc, mapping))
+                    .rewrite(PacketTranslator.OUTBOUND, LEVEL_SOUND_EVENT, (packet, bodyIndex, alloc) -> levelSoundEvent(packet, bodyIndex, alloc, mapping))
+                    .rewrite(PacketTranslator.OUTBOUND, INVENTORY_CONTENT, (packet, bodyIndex, alloc) -> inventoryContent(packet, bodyIndex, alloc, mapping))
+                    .rewrite(PacketTranslator.OUTBOUND, MOB_EQUIPMENT, (packet, bodyIndex, alloc) -> mobEquipment(packet, bodyIndex, alloc, mapping))
+                    .rewrite(PacketTranslator.OUTBOUND, MOB_ARMOR_EQUIPMENT, (packet, bodyIndex, alloc) -> mobArmorEquipment(packet, bodyIndex, alloc, mapping, layout))
+                    .rewrite(PacketTranslator.OUTBOUND, ADD_ITEM_ENTITY, (packet, bodyIndex, alloc) -> addItemEntity(packet, bodyIndex, alloc, mapping));
+            if (layout < V1_21_20) {
+                builder.rewrite(PacketTranslator.OUTBOUND, INVENTORY_SLOT, (packet, bodyIndex, alloc) -> inventorySlot(packet, bodyIndex, alloc, mapping));
+            }
+            if (layout < V1_21_60) {
+                builder.rewrite(PacketTranslator.OUTBOUND, CREATIVE_CONTENT, (packet, bodyIndex, alloc) -> creativeContent(packet, bodyIndex, alloc, mapping));
+            }
+        }
+        if (upgrade) {
+            IntUnaryOperator mapping = pack::upgradeBlock;
+            int layout = pack.sourceVersion();
+            builder.rewrite(PacketTranslator.INBOUND, INVENTORY_TRANSACTION, (packet, bodyIndex, alloc) -> inventoryTransaction(packet, bodyIndex, alloc, mapping, layout))
+                    .rewrite(PacketTranslator.INBOUND, MOB_EQUIPMENT, (packet, bodyIndex, alloc) -> mobEquipment(packet, bodyIndex, alloc, mapping));
+        }
+        return builder.build();
+    }
+
+    // LevelChunk 在区块坐标之后是否带维度
+    static boolean levelChunkHasDimension(int layout) {
+        return layout >= V1_20_60;
+    }
+
+    // 区块坐标、[维度]、子区块数、是否缓存、[缓存的 blob]、区块数据（长度 + 字节）。
+    // 区块数据以子区块开头，之后的生物群系、边界和方块实体不含方块 ID
+    static ByteBuf levelChunk(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping, int layout) {
+        int end = packet.writerIndex();
+        int index = skipVarInts(packet, bodyIndex, end, levelChunkHasDimension(layout) ? 3 : 2);
+        if (index < 0 || PacketRewriters.skipVarInt(packet, index, end) < 0) {
+            return packet;
+        }
+        int subChunks = PacketRewriters.getVarInt(packet, index);
+        // 负数表示请求模式，子区块通过 SubChunk 数据包单独发送
+        if (subChunks <= 0) {
+            return packet;
+        }
+        index = PacketRewriters.skipVarInt(packet, index, end);
+        if (index >= end || packet.getByte(index++) != 0) {
+            // 开启区块缓存时子区块在 blob 中
+            return packet;
+        }
+        int lengthEnd = PacketRewriters.skipVarInt(packet, index, end);
+        if (lengthEnd < 0) {
+            return packet;
+        }
+        int length = PacketRewriters.getVarInt(packet, index);
+        if (length < 0 || lengthEnd + (long) length > end) {
+            return packet;
+        }
+
+        Edits edits = new Edits();
+        int lengthEdit = edits.placeholder(index, lengthEnd, length);
+        int position = lengthEnd;
+        int payloadEnd = lengthEnd + length;
+        for (int i = 0; i < subChunks; i++) {
+            position = subChunk(packet, position, payloadEnd, edits, mapping);
+            if (position < 0) {
+                return packet;
+            }
+        }
+        edits.set(lengthEdit, length + edits.lengthDelta(lengthEdit));
+        return edits.apply(packet, alloc);
+    }
+
+    // 版本字节 8 或 9、存储层数、[版本 9 的 Y 下标]，每层：头字节（位数 << 1 | 运行时 ID 标志）、
+    // 打包的方块下标（小端 int）、调色板大小、调色板中的运行时 ID。位数为 0 时只有一个调色板条目，没有大小
+    private static int subChunk(ByteBuf packet, int index, int end, Edits edits, IntUnaryOperator mapping) {
+        if (index >= end) {
+            return -1;
+        }
+        int version = packet.getByte(index++);
+        int layers;
+        if (version == 1) {
+            layers = 1;
+        } else if (version == 8 || version == 9) {
+            if (index >= end) {
+                return -1;
+            }
+            layers = Byte.toUnsignedInt(packet.getByte(index++));
+            if (version == 9) {
+                index++;
+            }
+        } else {
+            return -1;
+        }
+        for (int layer = 0; layer < layers; layer++) {
+            if (index >= end) {
+                return -1;
+            }
+            int header = Byte.toUnsignedInt(packet.getByte(index++));
+            int bits = header >> 1;
+            if ((header & 1) == 0 || !isPaletteSize(bits)) {
+                return -1;
+            }
+            int paletteSize = 1;
+            if (bits > 0) {
+                int blocksPerWord = 32 / bits;
+                index += (SUB_CHUNK_BLOCKS + blocksPerWord - 1) / blocksPerWord * 4;
+                int sizeEnd = PacketRewriters.skipVarInt(packet, index, end);
+                if (sizeEnd < 0) {
+                    return -1;
+                }
+                paletteSize = zigzagDecode(PacketRewriters.getVarInt(packet, index));
+                index = sizeEnd;
+            }
+            if (paletteSize < 0) {
+                return -1;
+            }
+            for (int i = 0; i < paletteSize; i++) {
+                index = remapSigned(packet, index, end, edits, mapping);
+                if (index < 0) {
+                    return -1;
+                }
+            }
+        }
+        return index;
+    }
+
+    private static boolean isPaletteSize(int bits) {
+        switch (bits) {
+            case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 8: case 16:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // 区块坐标，之后是标准层和附加层两个列表，每个条目：方块坐标、运行时 ID、标志、消息实体 ID、消息类型
+    static ByteBuf updateSubChunkBlocks(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping) {
+        int end = packet.writerIndex();
+        int index = skipVarInts(packet, bodyIndex, end, 3);
+        Edits edits = new Edits();
+        for (int list = 0; list < 2 && index >= 0; list++) {
+            int countEnd = PacketRewriters.skipVarInt(packet, index, end);
+            if (countEnd < 0) {
+                return packet;
+            }
+            int count = PacketRewriters.getVarInt(packet, index);
+            index = countEnd;
+            for (int i = 0; i < count && index >= 0; i++) {
+                index = skipVarInts(packet, index, end, 3);
+                index = remapUnsigned(packet, index, end, edits, mapping);
+                index = skipVarInts(packet, index, end, 1);
+                index = PacketRewriters.skipVarLong(packet, index, end);
+                index = skipVarInts(packet, index, end, 1);
+            }
+        }
+        return index < 0 ? packet : edits.apply(packet, alloc);
+    }
+
+    // 事件类型、坐标（3 个 float）、数据。裂纹粒子的数据高 8 位是方块的面
+    static ByteBuf levelEvent(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping) {
+        int end = packet.writerIndex();
+        int typeEnd = PacketRewriters.skipVarInt(packet, bodyIndex, end);
+        if (typeEnd < 0) {
+            return packet;
+        }
+        int type = zigzagDecode(PacketRewriters.getVarInt(packet, bodyIndex));
+        if (type != LEVEL_EVENT_DESTROY_BLOCK && type != LEVEL_EVENT_CRACK_BLOCK) {
+            return packet;
+        }
+        int index = typeEnd + 12;
+        int dataEnd = PacketRewriters.skipVarInt(packet, index, end);
+        if (dataEnd < 0) {
+            return packet;
+        }
+        int data = zigzagDecode(PacketRewriters.getVarInt(packet, index));
+        int mapped;
+        if (type == LEVEL_EVENT_CRACK_BLOCK) {
+            mapped = (mapping.applyAsInt(data & 0xFFFFFF) & 0xFFFFFF) | (data & 0xFF000000);
+        } else {
+            mapped = mapping.applyAsInt(data);
+        }
+        Edits edits = new Edits();
+        if (mapped != data) {
+            edits.replace(index, dataEnd, zigzagEncode(mapped));
+        }
+        return edits.apply(packet, alloc);
+    }
+
+    // 声音类型、坐标（3 个 float）、附加数据。放置、破坏、敲击和使用的附加数据是方块运行时 ID
+    static ByteBuf levelSoundEvent(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping) {
+        int end = packet.writerIndex();
+        int soundEnd = PacketRewriters.skipVarInt(packet, bodyIndex, end);
+        if (soundEnd < 0) {
+            return packet;
+        }
+        int sound = PacketRewriters.getVarInt(packet, bodyIndex);
+        if (sound != SOUND_ITEM_USE_ON && sound != SOUND_HIT && sound != SOUND_BREAK && sound != SOUND_PLACE) {
+            return packet;
+        }
+        Edits edits = new Edits();
+        if (remapSigned(packet, soundEnd + 12, end, edits, mapping) < 0) {
+            return packet;
+        }
+        return edits.apply(packet, alloc);
+    }
+
+    // 容器 ID、物品数、物品。1.21.20 起物品之后还有容器名称等字段，不含方块 ID
+    static ByteBuf inventoryContent(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping) {
+        int end = packet.writerIndex();
+        int index = skipVarInts(packet, bodyIndex, end, 1);
+        int countEnd = index < 0 ? -1 : PacketRewriters.skipVarInt(packet, index, end);
+        if (countEnd < 0) {
+            return packet;
+        }
+        int count = PacketRewriters.getVarInt(packet, index);
+        index = countEnd;
+        Edits edits = new Edits();
+        for (int i = 0; i < count && index >= 0; i++) {
+            index = item(packet, index, end, edits, mapping, true);
+        }
+        return index < 0 ? packet : edits.apply(packet, alloc);
+    }
+
+    // 容器 ID、槽位、物品
+    static ByteBuf inventorySlot(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping) {
+        return items(packet, alloc, skipVarInts(packet, bodyIndex, packet.writerIndex(), 2), 1, mapping);
+    }
+
+    // 实体运行时 ID、物品，之后是槽位和容器 ID
+    static ByteBuf mobEquipment(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping) {
+        return items(packet, alloc, PacketRewriters.skipVarLong(packet, bodyIndex, packet.writerIndex()), 1, mapping);
+    }
+
+    // 实体运行时 ID、头盔、胸甲、护腿、靴子，1.21.20 起还有身体槽
+    static ByteBuf mobArmorEquipment(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping, int layout) {
+        return items(packet, alloc, PacketRewriters.skipVarLong(packet, bodyIndex, packet.writerIndex()),
+                layout >= V1_21_20 ? 5 : 4, mapping);
+    }
+
+    // 实体唯一 ID、实体运行时 ID、物品
+    static ByteBuf addItemEntity(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping) {
+        int end = packet.writerIndex();
+        int index = PacketRewriters.skipVarLong(packet, bodyIndex, end);
+        index = PacketRewriters.skipVarLong(packet, index, end);
+        return items(packet, alloc, index, 1, mapping);
+    }
+
+    // 条目数，每个条目：创造物品栏网络 ID、物品（没有物品网络 ID）
+    static ByteBuf creativeContent(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping) {
+        int end = packet.writerIndex();
+        int countEnd = PacketRewriters.skipVarInt(packet, bodyIndex, end);
+        if (countEnd < 0) {
+            return packet;
+        }
+        int count = PacketRewriters.getVarInt(packet, bodyIndex);
+        int index = countEnd;
+        Edits edits = new Edits();
+        for (int i = 0; i < count && index >= 0; i++) {
+            index = skipVarInts(packet, index, end, 1);
+            index = item(packet, index, end, edits, mapping, false);
+        }
+        return index < 0 ? packet : edits.apply(packet, alloc);
+    }
+
+    // 旧版请求 ID 与槽位、交易类型、物品栏动作，之后按交易类型是使用物品的数据
+    static ByteBuf inventoryTransaction(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc, IntUnaryOperator mapping, int layout) {
+        int end = packet.writerIndex();
+        int index = PacketRewriters.skipVarInt(packet, bodyIndex, end);
+        if (index < 0) {
+            return packet;
+        }
+        if (PacketRewriters.getVarInt(packet, bodyIndex) != 0) {
+            // 每个旧版槽位：容器 ID 字节、槽位字节数组
+            int countEnd = PacketRewriters.skipVarInt(packet, index, end);
+            if (countEnd < 0) {
+                return packet;
+            }
+            int count = PacketRewriters.getVarInt(packet, index);
+            index = countEnd;
+            for (int i = 0; i < count && index >= 0; i++) {
+                index = skipBytes(packet, index + 1, end);
+            }
+        }
+        int typeEnd = index < 0 ? -1 : PacketRewriters.skipVarInt(packet, index, end);
+        if (typeEnd < 0) {
+            return packet;
+        }
+        int type = PacketRewriters.getVarInt(packet, index);
+        index = typeEnd;
+
+        Edits edits = new Edits();
+        int actionsEnd = PacketRewriters.skipVarInt(packet, index, end);
+        if (actionsEnd < 0) {
+            return packet;
+        }
+        int actions = PacketRewriters.getVarInt(packet, index);
+        index = actionsEnd;
+        for (int i = 0; i < actions && index >= 0; i++) {
+            int sourceEnd = PacketRewriters.skipVarInt(packet, index, end);
+            if (sourceEnd < 0) {
+                return packet;
+            }
+            int source = PacketRewriters.getVarInt(packet, index);
+            index = sourceEnd;
+            if (source == SOURCE_CONTAINER || source == SOURCE_UNTRACKED_INTERACTION_UI || source == SOURCE_NON_IMPLEMENTED_TODO
+                    || source == SOURCE_WORLD_INTERACTION) {
+                index = skipVarInts(packet, index, end, 1);
+            }
+            index = skipVarInts(packet, index, end, 1);
+            index = item(packet, index, end, edits, mapping, true);
+            index = item(packet, index, end, edits, mapping, true);
+        }
+
+        if (index >= 0 && type == TRANSACTION_ITEM_USE) {
+            // 动作类型、[触发类型]、方块坐标、面、快捷栏槽位、手中物品、玩家坐标、点击坐标、目标方块、[预测结果]
+            index = skipVarInts(packet, index, end, layout >= V1_21_20 ? 2 : 1);
+            index = skipVarInts(packet, index, end, 5);
+            index = item(packet, index, end, edits, mapping, true);
+            index = index < 0 ? -1 : remapUnsigned(packet, index + 24, end, edits, mapping);
+        } else if (index >= 0 && type == TRANSACTION_ITEM_USE_ON_ENTITY) {
+            // 实体运行时 ID、动作类型、快捷栏槽位、手中物品
+            index = PacketRewriters.skipVarLong(packet, index, end);
+            index = skipVarInts(packet, index, end, 2);
+            index = item(packet, index, end, edits, mapping, true);
+        } else if (index >= 0 && type == TRANSACTION_ITEM_RELEASE) {
+            // 动作类型、快捷栏槽位、手中物品
+            index = skipVarInts(packet, index, end, 2);
+            index = item(packet, index, end, edits, mapping, true);
+        }
+        return index < 0 ? packet : edits.apply(packet, alloc);
+    }
+
+    // 从 index 开始依次转换 count 个物品，只记录 ID 替换，之后的字段原样保留
+    private static ByteBuf items(ByteBuf packet, ByteBufAllocator alloc, int index, int count, IntUnaryOperator mapping) {
+        int end = packet.writerIndex();
+        Edits edits = new Edits();
+        for (int i = 0; i < count && index >= 0; i++) {
+            index = item(packet, index, end, edits, mapping, true);
+        }
+        return index < 0 ? packet : edits.apply(packet, alloc);
+    }
+
+    // 物品：运行时 ID（0 表示空气，之后没有字段）、数量（u16）、损害值、[是否有网络 ID、网络 ID]、
+    // 方块运行时 ID、用户数据（长度 + 字节）。返回物品之后的下标，数据不完整时返回 -1
+    private static int item(ByteBuf packet, int index, int end, Edits edits, IntUnaryOperator mapping, boolean netId) {
+        if (index < 0) {
+            return -1;
+        }
+        int idEnd = PacketRewriters.skipVarInt(packet, index, end);
+        if (idEnd < 0) {
+            return -1;
+        }
+        if (PacketRewriters.getVarInt(packet, index) == 0) {
+            return idEnd;
+        }
+        index = skipVarInts(packet, idEnd + 2, end, 1);
+        if (netId && index >= 0) {
+            if (index >= end) {
+                return -1;
+            }
+            boolean hasNetId = packet.getByte(index++) != 0;
+            if (hasNetId) {
+                index = skipVarInts(packet, index, end, 1);
+            }
+        }
+        if (index < 0) {
+            return -1;
+        }
+        int blockEnd = PacketRewriters.skipVarInt(packet, index, end);
+        if (blockEnd < 0) {
+            return -1;
+        }
+        // 0 表示不是方块物品
+        int blockId = zigzagDecode(PacketRewriters.getVarInt(packet, index));
+        if (blockId != 0) {
+            int mapped = mapping.applyAsInt(blockId);
+            if (mapped != blockId) {
+                edits.replace(index, blockEnd, zigzagEncode(mapped));
+            }
+        }
+        return skipBytes(packet, blockEnd, end);
+    }
+
+    // 转换 index 处以 zigzag 编码的运行时 ID
+    private static int remapSigned(ByteBuf packet, int index, int end, Edits edits, IntUnaryOperator mapping) {
+        int fieldEnd = index < 0 ? -1 : PacketRewriters.skipVarInt(packet, index, end);
+        if (fieldEnd < 0) {
+            return -1;
+        }
+        int value = zigzagDecode(PacketRewriters.getVarInt(packet, index));
+        int mapped = mapping.applyAsInt(value);
+        if (mapped != value) {
+            edits.replace(index, fieldEnd, zigzagEncode(mapped));
+        }
+        return fieldEnd;
+    }
+
+    // 转换 index 处的无符号 varint 运行时 ID
+    private static int remapUnsigned(ByteBuf packet, int index, int end, Edits edits, IntUnaryOperator mapping) {
+        int fieldEnd = index < 0 ? -1 : PacketRewriters.skipVarInt(packet, index, end);
+        if (fieldEnd < 0) {
+            return -1;
+        }
+        int value = PacketRewriters.getVarInt(packet, index);
+        int mapped = mapping.applyAsInt(value);
+        if (mapped != value) {
+            edits.replace(index, fieldEnd, mapped);
+        }
+        return fieldEnd;
+    }
+
+    private static int skipVarInts(ByteBuf packet, int index, int end, int count) {
+        for (int i = 0; i < count && index >= 0; i++) {
+            index = PacketRewriters.skipVarInt(packet, index, end);
+        }
+        return index;
+    }
+
+    // 跳过长度前缀的字节数组
+    private static int skipBytes(ByteBuf packet, int index, int end) {
+        int lengthEnd = index < 0 ? -1 : PacketRewriters.skipVarInt(packet, index, end);
+        if (lengthEnd < 0) {
+            return -1;
+        }
+        long next = lengthEnd + (long) PacketRewriters.getVarInt(packet, index);
+        return next < lengthEnd || next > end ? -1 : (int) next;
+    }
+
+    private static int zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int zigzagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    // 按下标升序记录的 varint 字段替换，value 为写出的无符号 varint 值
+    private static final class Edits {
+        private int[] from = new int[8];
+        private int[] to = new int[8];
+        private int[] value = new int[8];
+        private int size;
+
+        void replace(int start, int end, int encoded) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                value = Arrays.copyOf(value, size * 2);
+            }
+            from[size] = start;
+            to[size] = end;
+            value[size] = encoded;
+            size++;
+        }
+
+        // 先占位、之后才知道值的字段（长度前缀），返回替换的序号
+        int placeholder(int start, int end, int encoded) {
+            replace(start, end, encoded);
+            return size - 1;
+        }
+
+        void set(int edit, int encoded) {
+            value[edit] = encoded;
+        }
+
+        // 序号 after 之后的替换造成的长度变化
+        int lengthDelta(int after) {
+            int delta = 0;
+            for (int i = after + 1; i < size; i++) {
+                delta += PacketRewriters.varIntLength(value[i]) - (to[i] - from[i]);
+            }
+            return delta;
+        }
+
+        ByteBuf apply(ByteBuf packet, ByteBufAllocator alloc) {
+            int delta = 0;
+            boolean changed = false;
+            for (int i = 0; i < size; i++) {
+                delta += PacketRewriters.varIntLength(value[i]) - (to[i] - from[i]);
+                changed |= PacketRewriters.getVarInt(packet, from[i]) != value[i];
+            }
+            if (!changed) {
+                return packet;
+            }
+            if (delta == 0 && sameLengths()) {
+                for (int i = 0; i < size; i++) {
+                    PacketRewriters.setVarInt(packet, from[i], value[i]);
+                }
+                return packet;
+            }
+            int start = packet.readerIndex();
+            ByteBuf out = alloc.directBuffer(packet.readableBytes() + delta);
+            int position = start;
+            for (int i = 0; i < size; i++) {
+                out.writeBytes(packet, position, from[i] - position);
+                PacketRewriters.writeVarInt(out, value[i]);
+                position = to[i];
+            }
+            out.writeBytes(packet, position, packet.writerIndex() - position);
+            return out;
+        }
+
+        private boolean sameLengths() {
+            for (int i = 0; i < size; i++) {
+                if (PacketRewriters.varIntLength(value[i]) != to[i] - from[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
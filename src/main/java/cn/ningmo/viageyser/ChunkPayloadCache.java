@@ -0,0 +1,251 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 旧版本客户端共享的 LevelChunk 转换结果缓存，包在 BlockIdRewriters 的区块改写器外面。
+// 键为 (源协议版本, 维度, 区块坐标)，值带有修订号：转换前整个数据包的 128 位指纹和长度，
+// 区块内容变化后指纹不同，下一次发送时重新转换并替换旧条目。
+// 转换结果复制到堆外内存，同一区域的多个同版本玩家共享一份只读副本，按总字节数和条目数淘汰最久未使用的区块。
+// 按键分段加锁，转换在锁外进行，不同事件循环之间很少竞争
+final class ChunkPayloadCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final HookMetrics metrics;
+
+    ChunkPayloadCache(long maxBytes, int maxEntries, HookMetrics metrics) {
+        this.metrics = metrics;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxBytes / SEGMENTS), Math.max(1, maxEntries / SEGMENTS));
+        }
+    }
+
+    // 包装 sourceVersion 版本的区块改写器，layout 为数据包布局的协议版本
+    PacketRewriter wrap(int sourceVersion, int layout, PacketRewriter translator) {
+        int coordinates = BlockIdRewriters.levelChunkHasDimension(layout) ? 3 : 2;
+        return (packet, bodyIndex, alloc) -> {
+            int end = packet.writerIndex();
+            int[] position = new int[3];
+            int index = bodyIndex;
+            for (int i = 0; i < coordinates; i++) {
+                int next = PacketRewriters.skipVarInt(packet, index, end);
+                if (next < 0) {
+                    return translator.rewrite(packet, bodyIndex, alloc);
+                }
+                position[i] = PacketRewriters.getVarInt(packet, index);
+                index = next;
+            }
+            Key key = new Key(sourceVersion, position[2], position[0], position[1]);
+            Revision revision = Revision.of(packet);
+            Segment segment = segments[key.hashCode() & (SEGMENTS - 1)];
+
+            Entry cached = segment.get(key, revision);
+            if (cached != null) {
+                if (cached.payload == null) {
+                    // 上次转换没有改变任何字节
+                    metrics.recordChunkPayload(true, revision.length);
+                    return packet;
+                }
+                metrics.recordChunkPayload(true, cached.payload.readableBytes());
+                return cached.payload.retainedDuplicate().asReadOnly();
+            }
+
+            metrics.recordChunkPayload(false, 0);
+            ByteBuf translated = translator.rewrite(packet, bodyIndex, alloc);
+            if (translated == packet && Revision.of(packet).equals(revision)) {
+                segment.put(key, revision, null);
+                return packet;
+            }
+            int length = translated.readableBytes();
+            ByteBuf copy = Unpooled.directBuffer(length, length).writeBytes(translated, translated.readerIndex(), length);
+            segment.put(key, revision, copy);
+            return translated;
+        };
+    }
+
+    // 映射包重新加载、协议版本范围变化或插件禁用时释放所有缓存的区块
+    void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    long weight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    private static final class Key {
+        final int sourceVersion;
+        final int dimension;
+        final int chunkX;
+        final int chunkZ;
+
+        Key(int sourceVersion, int dimension, int chunkX, int chunkZ) {
+            this.sourceVersion = sourceVersion;
+            this.dimension = dimension;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return chunkX == other.chunkX && chunkZ == other.chunkZ && dimension == other.dimension
+                    && sourceVersion == other.sourceVersion;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = ((sourceVersion * 31 + dimension) * 31 + chunkX) * 0x9E3779B9 + chunkZ;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    // 转换前数据包的长度和两个不同种子的 64 位指纹，用来判断缓存的转换结果是否仍对应同一份区块内容
+    private static final class Revision {
+        final int length;
+        final long first;
+        final long second;
+
+        private Revision(int length, long first, long second) {
+            this.length = length;
+            this.first = first;
+            this.second = second;
+        }
+
+        static Revision of(ByteBuf packet) {
+            int index = packet.readerIndex();
+            int end = packet.writerIndex();
+            long first = 0x9E3779B97F4A7C15L;
+            long second = 0xC2B2AE3D27D4EB4FL;
+            for (; index + 8 <= end; index += 8) {
+                long word = packet.getLongLE(index);
+                first = Long.rotateLeft(first ^ word * 0xBF58476D1CE4E5B9L, 27) * 0x94D049BB133111EBL;
+                second = Long.rotateLeft(second + word * 0x94D049BB133111EBL, 31) * 0xBF58476D1CE4E5B9L;
+            }
+            for (; index < end; index++) {
+                byte b = packet.getByte(index);
+                first = (first ^ b) * 0x100000001B3L;
+                second = (second + b) * 0x9E3779B97F4A7C15L;
+            }
+            return new Revision(end - packet.readerIndex(), mix(first), mix(second));
+        }
+
+        private static long mix(long value) {
+            value ^= value >>> 33;
+            value *= 0xFF51AFD7ED558CCDL;
+            value ^= value >>> 33;
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Revision)) {
+                return false;
+            }
+            Revision other = (Revision) o;
+            return length == other.length && first == other.first && second == other.second;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(first);
+        }
+    }
+
+    private static final class Entry {
+        final Revision revision;
+        // 转换后的完整数据包；为 null 表示转换没有改变任何字节，直接发送原数据包
+        final ByteBuf payload;
+
+        Entry(Revision revision, ByteBuf payload) {
+            this.revision = revision;
+            this.payload = payload;
+        }
+
+        int weight() {
+            return payload == null ? 0 : payload.readableBytes();
+        }
+    }
+
+    private final class Segment {
+        private final long maxBytes;
+        private final int maxEntries;
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+
+        Segment(long maxBytes, int maxEntries) {
+            this.maxBytes = maxBytes;
+            this.maxEntries = maxEntries;
+        }
+
+        synchronized Entry get(Key key, Revision revision) {
+            Entry entry = entries.get(key);
+            return entry != null && entry.revision.equals(revision) ? entry : null;
+        }
+
+        // 放入缓存并按容量淘汰最久未使用的区块；超过整段容量的区块不缓存
+        synchronized void put(Key key, Revision revision, ByteBuf payload) {
+            Entry entry = new Entry(revision, payload);
+            if (entry.weight() > maxBytes) {
+                payload.release();
+                return;
+            }
+            Entry previous = entries.put(key, entry);
+            weight += entry.weight();
+            if (previous != null) {
+                release(previous);
+            }
+
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while ((weight > maxBytes || entries.size() > maxEntries) && iterator.hasNext()) {
+                Map.Entry<Key, Entry> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                iterator.remove();
+                release(eldest.getValue());
+                metrics.recordChunkEviction();
+            }
+        }
+
+        synchronized void clear() {
+            for (Entry entry : entries.values()) {
+                release(entry);
+            }
+            entries.clear();
+        }
+
+        // 已经发给连接的共享副本各自持有引用，最后一个副本写出后才真正释放堆外内存
+        private void release(Entry entry) {
+            weight -= entry.weight();
+            if (entry.payload != null) {
+                entry.payload.release();
+            }
+        }
+    }
+}
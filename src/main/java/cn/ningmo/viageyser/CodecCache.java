@@ -0,0 +1,191 @@
+package cn.ningmo.viageyser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+// 按需创建的版本编解码器缓存。
+// 只有某个协议版本的客户端第一次登录时才会创建对应的编解码器，超过容量后按 LRU 淘汰。
+// 创建编解码器在单独的加载线程上、entries 的锁外进行，锁只保护 LRU 顺序和监听器通知；
+// 登录路径上的未命中只提交创建任务，同一版本同时到来的登录共用同一个 future，Netty 事件循环不会被创建过程卡住。
+final class CodecCache {
+    interface Loader {
+        Object load(int version) throws Throwable;
+    }
+
+    interface Listener {
+        void onLoad(int version, Object codec);
+
+        void onEvict(int version, Object codec);
+    }
+
+    private final int capacity;
+    private final Loader loader;
+    private final Listener listener;
+    private final Executor executor;
+    private final LinkedHashMap<Integer, Object> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // 正在创建的版本
+    private final ConcurrentHashMap<Integer, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    // executor 负责创建编解码器，登录路径上的未命中只提交任务不等待
+    CodecCache(int capacity, Loader loader, Listener listener, Executor executor) {
+        this.capacity = Math.max(1, capacity);
+        this.loader = loader;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    // 缓存命中时返回编解码器；未命中时在加载线程上创建并返回 null，不阻塞调用方。
+    // 调用方在 Netty 事件循环上，本次登录改用共享编解码器，创建完成后的登录直接命中
+    Object getIfLoaded(int version) {
+        Object codec;
+        synchronized (entries) {
+            codec = entries.get(version);
+        }
+        if (codec != null) {
+            hits.increment();
+            return codec;
+        }
+
+        misses.increment();
+        CompletableFuture<Object> future = loadAsync(version);
+        return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+    }
+
+    // 提前创建编解码器并等待完成，不计入命中和未命中，不能在事件循环上调用。
+    // 已经在缓存中或正在创建时返回 false
+    boolean preload(int version) throws Throwable {
+        synchronized (entries) {
+            if (entries.containsKey(version)) {
+                return false;
+            }
+        }
+        if (loading.containsKey(version)) {
+            return false;
+        }
+        await(loadAsync(version));
+        return true;
+    }
+
+    // 同一版本只提交一次创建任务，同时到来的请求拿到同一个 future
+    private CompletableFuture<Object> loadAsync(int version) {
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loading.putIfAbsent(version, created);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> load(version, created));
+        } catch (RejectedExecutionException e) {
+            loading.remove(version, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    private void load(int version, CompletableFuture<Object> created) {
+        try {
+            // 另一个线程可能在我们查缓存之后、登记 future 之前刚好创建完
+            Object codec;
+            synchronized (entries) {
+                codec = entries.get(version);
+            }
+            if (codec == null) {
+                codec = loader.load(version);
+                publish(version, codec);
+            }
+            created.complete(codec);
+        } catch (Throwable t) {
+            failures.increment();
+            created.completeExceptionally(t);
+        } finally {
+            loading.remove(version, created);
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> future) throws Throwable {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    // 放入缓存并淘汰最久未使用的编解码器。监听器在锁内调用，保证同一版本的加入和淘汰通知不会乱序
+    private void publish(int version, Object codec) {
+        synchronized (entries) {
+            entries.put(version, codec);
+            listener.onLoad(version, codec);
+
+            Iterator<Map.Entry<Integer, Object>> iterator = entries.entrySet().iterator();
+            while (entries.size() > capacity && iterator.hasNext()) {
+                Map.Entry<Integer, Object> eldest = iterator.next();
+                iterator.remove();
+                evictions.increment();
+                listener.onEvict(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    // 淘汰所有不满足条件的版本，返回淘汰的数量
+    int retain(java.util.function.IntPredicate keep) {
+        synchronized (entries) {
+            int removed = 0;
+            Iterator<Map.Entry<Integer, Object>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Object> entry = iterator.next();
+                if (!keep.test(entry.getKey())) {
+                    iterator.remove();
+                    evictions.increment();
+                    listener.onEvict(entry.getKey(), entry.getValue());
+                    removed++;
+                }
+            }
+            return removed;
+        }
+    }
+
+    // 依次访问已加载的编解码器，不改变 LRU 顺序
+    void forEach(java.util.function.BiConsumer<Integer, Object> action) {
+        synchronized (entries) {
+            entries.forEach(action);
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    long failures() {
+        return failures.sum();
+    }
+}
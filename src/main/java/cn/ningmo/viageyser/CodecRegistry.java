@@ -0,0 +1,174 @@
+package cn.ningmo.viageyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+// 按协议版本区间映射到共享编解码器的注册表。
+// 区间起点保存在有序 int 数组中，查找时二分搜索，不再为每个协议版本创建一个编解码器对象。
+final class CodecRegistry {
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] targetVersions;
+    private final Object[] codecs;
+
+    private CodecRegistry(int[] starts, int[] ends, int[] targetVersions, Object[] codecs) {
+        this.starts = starts;
+        this.ends = ends;
+        this.targetVersions = targetVersions;
+        this.codecs = codecs;
+    }
+
+    // 返回覆盖该协议版本的区间下标，没有则返回 -1
+    private int indexOf(int version) {
+        int index = Arrays.binarySearch(starts, version);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        if (index < 0 || version > ends[index]) {
+            return -1;
+        }
+        return index;
+    }
+
+    boolean contains(int version) {
+        return indexOf(version) >= 0;
+    }
+
+    // 返回该版本应改写成的协议版本，不在任何区间内时返回 -1
+    int targetVersion(int version) {
+        int index = indexOf(version);
+        return index < 0 ? -1 : targetVersions[index];
+    }
+
+    int intervalCount() {
+        return starts.length;
+    }
+
+    int versionCount() {
+        int count = 0;
+        for (int i = 0; i < starts.length; i++) {
+            count += ends[i] - starts[i] + 1;
+        }
+        return count;
+    }
+
+    int sharedCodecCount() {
+        IdentityHashMap<Object, Boolean> distinct = new IdentityHashMap<>();
+        for (Object codec : codecs) {
+            distinct.put(codec, Boolean.TRUE);
+        }
+        return distinct.size();
+    }
+
+    // 注册表自身数组占用的大致字节数（不含共享的编解码器）
+    long estimatedFootprint() {
+        return 4L * 16 + (long) starts.length * (4 * 3 + 4);
+    }
+
+    int intervalStart(int index) {
+        return starts[index];
+    }
+
+    int intervalEnd(int index) {
+        return ends[index];
+    }
+
+    Object intervalCodec(int index) {
+        return codecs[index];
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static final class Builder {
+        private final List<Interval> intervals = new ArrayList<>();
+
+        // 添加一个闭区间 [start, end]，后添加的区间不能与已有区间重叠
+        Builder add(int start, int end, Object codec, int targetVersion) {
+            if (start > end) {
+                throw new IllegalArgumentException("区间起点大于终点: " + start + " > " + end);
+            }
+            intervals.add(new Interval(start, end, codec, targetVersion));
+            return this;
+        }
+
+        // 用指定编解码器填充 [start, end] 中尚未被覆盖的空隙
+        Builder fillGaps(int start, int end, Object codec, int targetVersion) {
+            List<Interval> sorted = new ArrayList<>(intervals);
+            sorted.sort(Comparator.comparingInt(interval -> interval.start));
+
+            int next = start;
+            for (Interval interval : sorted) {
+                if (interval.end < next) {
+                    continue;
+                }
+                if (interval.start > end) {
+                    break;
+                }
+                if (interval.start > next) {
+                    intervals.add(new Interval(next, interval.start - 1, codec, targetVersion));
+                }
+                next = Math.max(next, interval.end + 1);
+            }
+            if (next <= end) {
+                intervals.add(new Interval(next, end, codec, targetVersion));
+            }
+            return this;
+        }
+
+        CodecRegistry build() {
+            List<Interval> sorted = new ArrayList<>(intervals);
+            sorted.sort(Comparator.comparingInt(interval -> interval.start));
+
+            // 合并指向同一编解码器且相邻的区间
+            List<Interval> merged = new ArrayList<>();
+            for (Interval interval : sorted) {
+                if (!merged.isEmpty()) {
+                    Interval last = merged.get(merged.size() - 1);
+                    if (interval.start <= last.end) {
+                        throw new IllegalStateException("协议版本区间重叠: " + last.start + "-" + last.end
+                                + " 与 " + interval.start + "-" + interval.end);
+                    }
+                    if (last.end + 1 == interval.start && last.codec == interval.codec
+                            && last.targetVersion == interval.targetVersion) {
+                        merged.set(merged.size() - 1, new Interval(last.start, interval.end, last.codec, last.targetVersion));
+                        continue;
+                    }
+                }
+                merged.add(interval);
+            }
+
+            int size = merged.size();
+            int[] starts = new int[size];
+            int[] ends = new int[size];
+            int[] targets = new int[size];
+            Object[] codecs = new Object[size];
+            for (int i = 0; i < size; i++) {
+                Interval interval = merged.get(i);
+                starts[i] = interval.start;
+                ends[i] = interval.end;
+                targets[i] = interval.targetVersion;
+                codecs[i] = interval.codec;
+            }
+            return new CodecRegistry(starts, ends, targets, codecs);
+        }
+    }
+
+    private static final class Interval {
+        final int start;
+        final int end;
+        final Object codec;
+        final int targetVersion;
+
+        Interval(int start, int end, Object codec, int targetVersion) {
+            this.start = start;
+            this.end = end;
+            this.codec = codec;
+            this.targetVersion = targetVersion;
+        }
+    }
+}
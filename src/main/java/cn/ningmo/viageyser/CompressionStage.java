@@ -0,0 +1,270 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.EncoderException;
+import io.netty.util.ReferenceCountUtil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+// 按客户端真实协议版本选择的批次压缩处理器。
+// 1.19.30（协议 554）起客户端先发 RequestNetworkSettings 协商压缩算法，1.20.60（协议 649）起每个压缩批次前多一个算法字节。
+// 默认编解码器是新版本时，协议库按新格式收发，554 到 648 的客户端看不懂这个字节。
+// 这类连接在服务端开启压缩时把协议库的压缩处理器换成这里的处理器：算法沿用协商结果，不读写算法字节，
+// 压缩和解压使用 BatchCompression 中按线程复用的 Deflater/Inflater，输入输出都是直接内存
+final class CompressionStage extends ChannelDuplexHandler {
+    static final String NAME = "viageyser-compression";
+    static final String WATCHER_NAME = "viageyser-compression-watcher";
+
+    // 开始协商压缩、以及开始带算法字节的协议版本
+    static final int NEGOTIATION_VERSION = 554;
+    static final int HEADER_VERSION = 649;
+
+    // 解压缓冲区的最小初始容量
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final ClassValue<BatchAccess> BATCH_ACCESS = new ClassValue<>() {
+        @Override
+        protected BatchAccess computeValue(Class<?> type) {
+            return new BatchAccess(type);
+        }
+    };
+
+    private final BatchCompression compression;
+
+    CompressionStage(BatchCompression compression) {
+        this.compression = compression;
+    }
+
+    // 该协议版本的客户端是否需要替换协议库的压缩处理器
+    static boolean isNeeded(int version) {
+        return version >= NEGOTIATION_VERSION && version < HEADER_VERSION;
+    }
+
+    // 在连接流水线的最前面加入监视器，服务端开启压缩后第一个入站批次到来时完成替换。
+    // 协议库在发送 NetworkSettings 之后才加入压缩处理器，这时还不能直接替换
+    static void watch(ChannelPipeline pipeline, DebugLog debugLog) {
+        if (pipeline.get(WATCHER_NAME) == null && pipeline.get(NAME) == null) {
+            pipeline.addFirst(WATCHER_NAME, new Watcher(debugLog));
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            ByteBuf in = (ByteBuf) msg;
+            try {
+                ctx.fireChannelRead(decompress(ctx, in));
+            } finally {
+                in.release();
+            }
+            return;
+        }
+        BatchAccess access = BATCH_ACCESS.get(msg.getClass());
+        ByteBuf compressed = access.valid ? access.get(access.getCompressed, msg) : null;
+        if (compressed == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        ByteBuf uncompressed;
+        try {
+            uncompressed = decompress(ctx, compressed.duplicate());
+        } catch (Exception e) {
+            ReferenceCountUtil.release(msg);
+            throw e;
+        }
+        access.set(access.setUncompressed, msg, uncompressed);
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            ByteBuf in = (ByteBuf) msg;
+            ByteBuf out;
+            try {
+                out = compress(ctx, in);
+            } finally {
+                in.release();
+            }
+            ctx.write(out, promise);
+            return;
+        }
+        BatchAccess access = BATCH_ACCESS.get(msg.getClass());
+        ByteBuf uncompressed = access.valid ? access.get(access.getUncompressed, msg) : null;
+        if (uncompressed != null) {
+            // 其他版本可能已经按新格式压缩过，总是从未压缩的内容重新压缩
+            ByteBuf compressed;
+            try {
+                compressed = compress(ctx, uncompressed.duplicate());
+            } catch (Exception e) {
+                ReferenceCountUtil.release(msg);
+                throw e;
+            }
+            access.set(access.setCompressed, msg, compressed);
+        }
+        ctx.write(msg, promise);
+    }
+
+    private ByteBuf decompress(ChannelHandlerContext ctx, ByteBuf in) {
+        ByteBuf out = ctx.alloc().directBuffer(Math.max(INITIAL_CAPACITY, in.readableBytes() * 2));
+        try {
+            compression.decompress(in, out, BatchCompression.MAX_DECOMPRESSED_SIZE);
+            return out;
+        } catch (Exception e) {
+            out.release();
+            throw new DecoderException("解压批次失败: " + e.getMessage(), e);
+        }
+    }
+
+    private ByteBuf compress(ChannelHandlerContext ctx, ByteBuf in) {
+        ByteBuf out = ctx.alloc().directBuffer(in.readableBytes() / 2 + 64);
+        try {
+            compression.compress(in, out);
+            return out;
+        } catch (Exception e) {
+            out.release();
+            throw new EncoderException("压缩批次失败: " + e.getMessage(), e);
+        }
+    }
+
+    // 协议库压缩处理器协商出的算法，读不到时按 Geyser 的默认设置使用 zlib
+    static BatchCompression detectAlgorithm(Object handler) {
+        BatchCompression found = findAlgorithm(handler, 3);
+        return found != null ? found : BatchCompression.ZLIB;
+    }
+
+    // 在处理器及其字段引用的对象中查找名称包含 CompressionAlgorithm 的枚举值
+    private static BatchCompression findAlgorithm(Object value, int depth) {
+        if (value == null || depth < 0) {
+            return null;
+        }
+        if (value instanceof Enum && value.getClass().getName().contains("CompressionAlgorithm")) {
+            return BatchCompression.fromName(((Enum<?>) value).name());
+        }
+        if (depth == 0 || value.getClass().isArray() || value instanceof Map || value instanceof Iterable
+                || value.getClass().getName().startsWith("java.")) {
+            return null;
+        }
+        for (Class<?> type = value.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    BatchCompression found = findAlgorithm(field.get(value), depth - 1);
+                    if (found != null) {
+                        return found;
+                    }
+                } catch (RuntimeException | IllegalAccessException e) {
+                    // 模块限制或无法访问的字段，跳过
+                }
+            }
+        }
+        return null;
+    }
+
+    // 协议库压缩处理器在流水线中的名称，没有时返回 null
+    private static String findLibraryStage(ChannelPipeline pipeline) {
+        for (Map.Entry<String, ChannelHandler> entry : pipeline) {
+            String name = entry.getKey();
+            if (!name.startsWith("viageyser-") && name.toLowerCase(java.util.Locale.ROOT).contains("compression")) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    // 协议库的批次包装对象上压缩前后内容的访问器
+    private static final class BatchAccess {
+        final boolean valid;
+        final MethodHandle getCompressed;
+        final MethodHandle setCompressed;
+        final MethodHandle getUncompressed;
+        final MethodHandle setUncompressed;
+
+        BatchAccess(Class<?> type) {
+            MethodHandle[] handles = new MethodHandle[4];
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                MethodType getter = MethodType.methodType(ByteBuf.class, Object.class);
+                handles[0] = lookup.findVirtual(type, "getCompressed", MethodType.methodType(ByteBuf.class)).asType(getter);
+                handles[1] = setter(lookup, type, "setCompressed");
+                handles[2] = lookup.findVirtual(type, "getUncompressed", MethodType.methodType(ByteBuf.class)).asType(getter);
+                handles[3] = setter(lookup, type, "setUncompressed");
+            } catch (ReflectiveOperationException e) {
+                handles = new MethodHandle[4];
+            }
+            this.valid = handles[3] != null;
+            this.getCompressed = handles[0];
+            this.setCompressed = handles[1];
+            this.getUncompressed = handles[2];
+            this.setUncompressed = handles[3];
+        }
+
+        // setter 可能返回 void 或包装对象本身
+        private static MethodHandle setter(MethodHandles.Lookup lookup, Class<?> type, String name) throws ReflectiveOperationException {
+            for (java.lang.reflect.Method method : type.getMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == 1
+                        && method.getParameterTypes()[0] == ByteBuf.class) {
+                    return MethodHandles.dropReturn(lookup.unreflect(method))
+                            .asType(MethodType.methodType(void.class, Object.class, ByteBuf.class));
+                }
+            }
+            throw new NoSuchMethodException(type.getName() + "." + name);
+        }
+
+        ByteBuf get(MethodHandle getter, Object wrapper) {
+            try {
+                return (ByteBuf) getter.invokeExact(wrapper);
+            } catch (Throwable t) {
+                return null;
+            }
+        }
+
+        void set(MethodHandle setter, Object wrapper, ByteBuf value) {
+            try {
+                setter.invokeExact(wrapper, value);
+            } catch (Throwable t) {
+                value.release();
+                throw new IllegalStateException("无法写回批次内容", t);
+            }
+        }
+    }
+
+    // 等待协议库加入压缩处理器，然后换成按版本选择的处理器并移除自身
+    private static final class Watcher extends ChannelInboundHandlerAdapter {
+        private final DebugLog debugLog;
+
+        Watcher(DebugLog debugLog) {
+            this.debugLog = debugLog;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ChannelPipeline pipeline = ctx.pipeline();
+            String library = findLibraryStage(pipeline);
+            if (library != null) {
+                ChannelHandler original = pipeline.get(library);
+                BatchCompression algorithm = detectAlgorithm(original);
+                pipeline.replace(library, NAME, new CompressionStage(algorithm));
+                pipeline.remove(this);
+                debugLog.log(DebugLog.Category.NETWORK, ctx.channel(), SessionProtocolVersions.get(ctx.channel()),
+                        DebugLog.NO_VERSION, () -> "使用不带算法字节的 " + algorithm.name() + " 压缩");
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package cn.ningmo.viageyser;
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 异步、限流的调试日志，开启 debug 后可以在生产环境长期运行。
+// 调用方（通常在 Netty 事件循环上）只做一次限流判断和一次无锁入队，不拼接字符串、不调用 Logger；
+// 消息由 Supplier 在后台线程上生成，所以 Supplier 只能捕获不会再变化的值（版本号、类名等），不要捕获数据包对象本身。
+// 每个类别每秒最多输出固定条数，超出的以及队列满时的日志直接丢弃，丢弃数量定期汇总输出。
+// 带有会话、原始协议版本和改写后协议版本的日志输出为 key=value 字段，便于检索
+final class DebugLog {
+    enum Category {
+        LOGIN("login", 50),
+        CODEC("codec", 50),
+        NETWORK("network", 50),
+        // 启动时探测 Geyser 类和字段，短时间内条目较多
+        DISCOVERY("discovery", 500);
+
+        final String key;
+        final int defaultRate;
+
+        Category(String key, int defaultRate) {
+            this.key = key;
+            this.defaultRate = defaultRate;
+        }
+    }
+
+    static final int NO_VERSION = -1;
+
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    private static final long IDLE_PARK_NANOS = 10_000_000L;
+    private static final long DROP_REPORT_NANOS = 10_000_000_000L;
+    private static final Category[] CATEGORIES = Category.values();
+    private static final DebugLog DISABLED = new DebugLog(null, null);
+
+    private final Logger logger;
+    private final int[] rates;
+    // 限流窗口（秒）和窗口内已输出的条数，按类别索引
+    private final AtomicLongArray windows = new AtomicLongArray(CATEGORIES.length);
+    private final AtomicInteger[] used = new AtomicInteger[CATEGORIES.length];
+    private final LongAdder[] dropped = new LongAdder[CATEGORIES.length];
+    private final LongAdder overflow = new LongAdder();
+
+    // 多生产者单消费者的环形队列：生产者用 CAS 抢占 tail 上的槽位，消费者独占 head
+    private final AtomicReferenceArray<Event> slots = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    private final Thread drainer;
+    private volatile boolean running;
+
+    private DebugLog(Logger logger, int[] rates) {
+        this.logger = logger;
+        this.rates = rates;
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            used[i] = new AtomicInteger();
+            dropped[i] = new LongAdder();
+        }
+        if (logger == null) {
+            drainer = null;
+            return;
+        }
+        running = true;
+        drainer = new Thread(this::drainLoop, "ViaGeyser-DebugLog");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // 关闭调试时使用，所有调用立即返回
+    static DebugLog disabled() {
+        return DISABLED;
+    }
+
+    // rates 按 Category 的顺序给出每秒上限，为 null 时使用默认值
+    static DebugLog start(Logger logger, int[] rates) {
+        int[] limits = new int[CATEGORIES.length];
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            limits[i] = rates != null && i < rates.length && rates[i] > 0 ? rates[i] : CATEGORIES[i].defaultRate;
+        }
+        return new DebugLog(logger, limits);
+    }
+
+    boolean isEnabled() {
+        return logger != null;
+    }
+
+    void log(Category category, Supplier<String> message) {
+        enqueue(category, false, null, NO_VERSION, NO_VERSION, message, null);
+    }
+
+    // 带会话和协议版本字段的日志。session 可以是 Channel 或任意标识对象，版本未知时传 NO_VERSION
+    void log(Category category, Object session, int originalVersion, int rewrittenVersion, Supplier<String> message) {
+        enqueue(category, false, session, originalVersion, rewrittenVersion, message, null);
+    }
+
+    void warn(Category category, Supplier<String> message, Throwable error) {
+        enqueue(category, true, null, NO_VERSION, NO_VERSION, message, error);
+    }
+
+    void warn(Category category, Object session, int originalVersion, Supplier<String> message, Throwable error) {
+        enqueue(category, true, session, originalVersion, NO_VERSION, message, error);
+    }
+
+    // 停止后台线程并输出队列中剩余的日志
+    void close() {
+        if (drainer == null || !running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(Category category, boolean warning, Object session, int originalVersion, int rewrittenVersion,
+                         Supplier<String> message, Throwable error) {
+        if (logger == null || !running || !tryAcquire(category)) {
+            return;
+        }
+        Event event = new Event(category, warning, session, originalVersion, rewrittenVersion, message, error);
+        while (true) {
+            long position = tail.get();
+            if (position - head >= CAPACITY) {
+                overflow.increment();
+                return;
+            }
+            if (tail.compareAndSet(position, position + 1)) {
+                slots.lazySet((int) (position & MASK), event);
+                return;
+            }
+        }
+    }
+
+    // 固定一秒的窗口，窗口切换时的少量误差可以接受
+    private boolean tryAcquire(Category category) {
+        int index = category.ordinal();
+        long second = System.nanoTime() / 1_000_000_000L;
+        long window = windows.get(index);
+        if (window != second && windows.compareAndSet(index, window, second)) {
+            used[index].set(0);
+        }
+        if (used[index].incrementAndGet() <= rates[index]) {
+            return true;
+        }
+        dropped[index].increment();
+        return false;
+    }
+
+    private void drainLoop() {
+        long lastReport = System.nanoTime();
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            long now = System.nanoTime();
+            if (now - lastReport >= DROP_REPORT_NANOS) {
+                reportDropped();
+                lastReport = now;
+            }
+        }
+        drain();
+        reportDropped();
+    }
+
+    private int drain() {
+        int drained = 0;
+        while (true) {
+            long position = head;
+            if (position == tail.get()) {
+                return drained;
+            }
+            int index = (int) (position & MASK);
+            Event event = slots.get(index);
+            if (event == null) {
+                // 生产者已抢到槽位但还没写入，下一轮再取
+                return drained;
+            }
+            slots.lazySet(index, null);
+            head = position + 1;
+            write(event);
+            drained++;
+        }
+    }
+
+    private void write(Event event) {
+        StringBuilder line = new StringBuilder(128).append('[').append(event.category.key).append(']');
+        if (event.session != null) {
+            line.append(" session=").append(sessionId(event.session));
+        }
+        if (event.originalVersion != NO_VERSION) {
+            line.append(" original=").append(event.originalVersion);
+        }
+        if (event.rewrittenVersion != NO_VERSION) {
+            line.append(" rewritten=").append(event.rewrittenVersion);
+        }
+        try {
+            line.append(' ').append(event.message.get());
+        } catch (RuntimeException e) {
+            line.append(" <生成日志消息失败: ").append(e).append('>');
+        }
+        if (event.error != null) {
+            logger.log(Level.WARNING, line.toString(), event.error);
+        } else if (event.warning) {
+            logger.warning(line.toString());
+        } else {
+            logger.info(line.toString());
+        }
+    }
+
+    private static String sessionId(Object session) {
+        if (session instanceof Channel) {
+            return ((Channel) session).id().asShortText();
+        }
+        return Integer.toHexString(System.identityHashCode(session));
+    }
+
+    private void reportDropped() {
+        for (int i = 0; i < CATEGORIES.length; i++) {
+            long count = dropped[i].sumThenReset();
+            if (count > 0) {
+                logger.info("[" + CATEGORIES[i].key + "] 限流丢弃了 " + count + " 条调试日志（每秒上限 " + rates[i] + "）");
+            }
+        }
+        long lost = overflow.sumThenReset();
+        if (lost > 0) {
+            logger.info("调试日志队列已满，丢弃了 " + lost + " 条");
+        }
+    }
+
+    private static final class Event {
+        final Category category;
+        final boolean warning;
+        final Object session;
+        final int originalVersion;
+        final int rewrittenVersion;
+        final Supplier<String> message;
+        final Throwable error;
+
+        Event(Category category, boolean warning, Object session, int originalVersion, int rewrittenVersion,
+              Supplier<String> message, Throwable error) {
+            this.category = category;
+            this.warning = warning;
+            this.session = session;
+            this.originalVersion = originalVersion;
+            this.rewrittenVersion = rewrittenVersion;
+            this.message = message;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package cn.ningmo.viageyser;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// 直接读取 Geyser jar 的类文件索引。
+// jar 通过内存映射读取，启动时只解析中央目录；某个类第一次被查询时才解压并解析它的常量池和字段表。
+// 整个过程不加载也不初始化任何类，反射只需要处理索引选出的少数字段。
+// 探测结束后调用 close 立即解除映射，不等 GC 回收 MappedByteBuffer。
+final class GeyserClassIndex implements AutoCloseable {
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int ACC_STATIC = 0x0008;
+
+    // 解析失败或不存在的类
+    private static final ClassInfo MISSING = new ClassInfo("", List.of());
+
+    // java.util 中的 Map、集合接口及其实现类的描述符
+    private static final Set<String> CONTAINER_DESCRIPTORS = Set.of(
+            "Ljava/util/Map;", "Ljava/util/SortedMap;", "Ljava/util/NavigableMap;",
+            "Ljava/util/HashMap;", "Ljava/util/LinkedHashMap;", "Ljava/util/TreeMap;", "Ljava/util/EnumMap;",
+            "Ljava/util/IdentityHashMap;", "Ljava/util/WeakHashMap;", "Ljava/util/Hashtable;",
+            "Ljava/util/concurrent/ConcurrentMap;", "Ljava/util/concurrent/ConcurrentNavigableMap;",
+            "Ljava/util/concurrent/ConcurrentHashMap;", "Ljava/util/concurrent/ConcurrentSkipListMap;",
+            "Ljava/util/Collection;", "Ljava/util/List;", "Ljava/util/ArrayList;", "Ljava/util/LinkedList;",
+            "Ljava/util/Vector;", "Ljava/util/concurrent/CopyOnWriteArrayList;",
+            "Ljava/util/Set;", "Ljava/util/SortedSet;", "Ljava/util/NavigableSet;", "Ljava/util/HashSet;",
+            "Ljava/util/LinkedHashSet;", "Ljava/util/TreeSet;", "Ljava/util/EnumSet;",
+            "Ljava/util/concurrent/CopyOnWriteArraySet;",
+            "Ljava/util/Queue;", "Ljava/util/Deque;", "Ljava/util/ArrayDeque;");
+
+    // 解除映射用的 Unsafe.invokeCleaner，找不到时只能等 GC 回收
+    private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+    private final MappedByteBuffer mapped;
+    private final ByteBuffer zip;
+    private final Map<String, Integer> entries;
+    private final Map<String, ClassInfo> parsed = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    private GeyserClassIndex(MappedByteBuffer mapped, Map<String, Integer> entries) {
+        this.mapped = mapped;
+        this.zip = mapped;
+        this.entries = entries;
+    }
+
+    // 为包含 anchor 的 jar 建立索引，无法定位或读取 jar 时抛出 IOException
+    static GeyserClassIndex open(Class<?> anchor) throws IOException {
+        File jar;
+        try {
+            jar = new File(anchor.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (Exception | LinkageError e) {
+            throw new IOException("无法定位 " + anchor.getName() + " 所在的 jar", e);
+        }
+        if (!jar.isFile()) {
+            throw new IOException(jar.getName() + " 不是 jar 文件");
+        }
+
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        return new GeyserClassIndex(mapped, readCentralDirectory(mapped));
+    }
+
+    private static MethodHandle findInvokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // 解除 jar 的内存映射。调用方保证所有查询都已结束，关闭后 find 返回 null
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        parsed.clear();
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invokeExact((ByteBuffer) mapped);
+            } catch (Throwable t) {
+                // 无法立即解除映射，交给 GC
+            }
+        }
+    }
+
+    // 类名到中央目录记录偏移的映射，只保留 .class 条目
+    private static Map<String, Integer> readCentralDirectory(ByteBuffer zip) throws IOException {
+        int end = -1;
+        for (int i = zip.limit() - 22; i >= Math.max(0, zip.limit() - 22 - 0xFFFF); i--) {
+            if (zip.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("找不到 zip 中央目录");
+        }
+
+        int count = Short.toUnsignedInt(zip.getShort(end + 10));
+        long offset = Integer.toUnsignedLong(zip.getInt(end + 16));
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new IOException("不支持 ZIP64 格式的 jar");
+        }
+
+        Map<String, Integer> entries = new HashMap<>(count * 2);
+        int position = (int) offset;
+        byte[] name = new byte[256];
+        for (int i = 0; i < count; i++) {
+            if (zip.getInt(position) != CENTRAL_DIRECTORY_ENTRY) {
+                throw new IOException("zip 中央目录已损坏");
+            }
+            int nameLength = Short.toUnsignedInt(zip.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(zip.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(zip.getShort(position + 32));
+
+            // 以 ".class" 结尾的条目才解码名称
+            if (nameLength > 6 && zip.get(position + 46 + nameLength - 6) == '.'
+                    && zip.get(position + 46 + nameLength - 1) == 's') {
+                if (name.length < nameLength) {
+                    name = new byte[nameLength];
+                }
+                zip.get(position + 46, name, 0, nameLength);
+                String entryName = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+                if (entryName.endsWith(".class")) {
+                    entries.put(entryName.substring(0, entryName.length() - 6).replace('/', '.'), position);
+                }
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    boolean contains(String className) {
+        return entries.containsKey(className);
+    }
+
+    int classCount() {
+        return entries.size();
+    }
+
+    // 读取类的字段表，类不在 jar 中或解析失败时返回 null
+    ClassInfo find(String className) {
+        if (closed) {
+            return null;
+        }
+        ClassInfo info = parsed.computeIfAbsent(className, name -> {
+            Integer entry = entries.get(name);
+            if (entry == null) {
+                return MISSING;
+            }
+            try {
+                return parseClass(name, readEntry(entry));
+            } catch (IOException | DataFormatException | RuntimeException e) {
+                return MISSING;
+            }
+        });
+        return info == MISSING ? null : info;
+    }
+
+    private byte[] readEntry(int centralEntry) throws IOException, DataFormatException {
+        int method = Short.toUnsignedInt(zip.getShort(centralEntry + 10));
+        int compressedSize = zip.getInt(centralEntry + 20);
+        int size = zip.getInt(centralEntry + 24);
+        int localHeader = zip.getInt(centralEntry + 42);
+        if (zip.getInt(localHeader) != LOCAL_FILE_HEADER) {
+            throw new IOException("zip 本地文件头已损坏");
+        }
+        int dataStart = localHeader + 30
+                + Short.toUnsignedInt(zip.getShort(localHeader + 26))
+                + Short.toUnsignedInt(zip.getShort(localHeader + 28));
+
+        byte[] data = new byte[size];
+        if (method == 0) {
+            zip.get(dataStart, data, 0, size);
+            return data;
+        }
+        if (method != 8) {
+            throw new IOException("不支持的压缩方式: " + method);
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(zip.slice(dataStart, compressedSize));
+            int read = 0;
+            while (read < size && !inflater.finished()) {
+                int n = inflater.inflate(data, read, size - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != size) {
+                throw new IOException("类文件解压不完整");
+            }
+            return data;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // 只解析到字段表为止，方法和属性都不需要
+    private static ClassInfo parseClass(String className, byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException("不是有效的类文件");
+        }
+        in.readUnsignedShort(); // minor_version
+        in.readUnsignedShort(); // major_version
+
+        int constantCount = in.readUnsignedShort();
+        String[] utf8 = new String[constantCount];
+        Integer[] integers = new Integer[constantCount];
+        for (int i = 1; i < constantCount; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 3: // Integer
+                    integers[i] = in.readInt();
+                    break;
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                default:
+                    throw new IOException("未知的常量池标签: " + tag);
+            }
+        }
+
+        in.readUnsignedShort(); // access_flags
+        in.readUnsignedShort(); // this_class
+        in.readUnsignedShort(); // super_class
+        in.skipBytes(in.readUnsignedShort() * 2); // interfaces
+
+        int fieldCount = in.readUnsignedShort();
+        List<FieldInfo> fields = new ArrayList<>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            int access = in.readUnsignedShort();
+            String name = utf8[in.readUnsignedShort()];
+            String descriptor = utf8[in.readUnsignedShort()];
+            Integer constantValue = null;
+            int attributeCount = in.readUnsignedShort();
+            for (int j = 0; j < attributeCount; j++) {
+                String attributeName = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if ("ConstantValue".equals(attributeName) && length == 2) {
+                    constantValue = integers[in.readUnsignedShort()];
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+            fields.add(new FieldInfo(access, name, descriptor, constantValue));
+        }
+        return new ClassInfo(className, fields);
+    }
+
+    static final class ClassInfo {
+        final String name;
+        final List<FieldInfo> fields;
+
+        ClassInfo(String name, List<FieldInfo> fields) {
+            this.name = name;
+            this.fields = List.copyOf(fields);
+        }
+
+        FieldInfo field(String fieldName) {
+            for (FieldInfo field : fields) {
+                if (field.name.equals(fieldName)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    static final class FieldInfo {
+        final int access;
+        final String name;
+        final String descriptor;
+        final Integer constantValue; // static final int 常量的编译期值，没有时为 null
+
+        FieldInfo(int access, String name, String descriptor, Integer constantValue) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.constantValue = constantValue;
+        }
+
+        boolean isStatic() {
+            return (access & ACC_STATIC) != 0;
+        }
+
+        boolean isInt() {
+            return descriptor.equals("I") || descriptor.equals("Ljava/lang/Integer;");
+        }
+
+        // 类型是 java.util 中的 Map、集合或者数组的字段，例如 CODEC_LOOKUP
+        boolean isMapOrCollection() {
+            return descriptor.startsWith("[") || CONTAINER_DESCRIPTORS.contains(descriptor);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package cn.ningmo.viageyser;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// 为 BedrockServer 的 packetHandler 生成委托类。
+// 在钩子安装时用 ASM 生成一次隐藏类：普通方法直接转发给原始处理器，
+// 只有登录和 RequestNetworkSettings 方法会先调用拦截逻辑，避免 Proxy 每个数据包都走反射。
+public final class HandlerDelegateFactory {
+    private static final String DELEGATE_NAME = "cn/ningmo/viageyser/LoginHandlerDelegate";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String CONSUMER = "java/util/function/Consumer";
+    private static final String OBJECT_DESC = "Ljava/lang/Object;";
+    private static final String CONSUMER_DESC = "Ljava/util/function/Consumer;";
+    private static final String DELEGATE_FIELD = "delegate";
+    private static final String INTERCEPTOR_FIELD = "interceptor";
+
+    private HandlerDelegateFactory() {
+    }
+
+    // 判断一个处理器方法是否为需要拦截的登录方法
+    public static boolean isLoginMethod(Method method) {
+        return method.getName().contains("Login")
+                && method.getParameterCount() > 0
+                && !method.getParameterTypes()[0].isPrimitive();
+    }
+
+    // 1.19.30 起客户端先发 RequestNetworkSettings，Geyser 在这里就按协议版本查找编解码器
+    public static boolean isNetworkSettingsMethod(Method method) {
+        return method.getName().contains("RequestNetworkSettings")
+                && method.getParameterCount() > 0
+                && !method.getParameterTypes()[0].isPrimitive();
+    }
+
+    // 需要先调用拦截逻辑的方法：登录和 RequestNetworkSettings
+    public static boolean isInterceptedMethod(Method method) {
+        return isLoginMethod(method) || isNetworkSettingsMethod(method);
+    }
+
+    // 收集接口上所有需要实现的实例方法，按名称和描述符去重
+    public static List<Method> collectMethods(Class<?>[] interfaces) {
+        Map<String, Method> methods = new LinkedHashMap<>();
+        for (Class<?> iface : interfaces) {
+            for (Method method : iface.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                methods.putIfAbsent(method.getName() + descriptor(method), method);
+            }
+        }
+        return new ArrayList<>(methods.values());
+    }
+
+    // 生成委托实例，失败时返回 null，由调用方回退到 Proxy
+    public static Object createGenerated(Object originalHandler, Class<?>[] interfaces, Consumer<Object> loginInterceptor) {
+        try {
+            ClassLoader loader = HandlerDelegateFactory.class.getClassLoader();
+            for (Class<?> iface : interfaces) {
+                // 隐藏类通过本插件的类加载器解析接口，必须能看到同一个接口类
+                if (!Modifier.isPublic(iface.getModifiers())
+                        || Class.forName(iface.getName(), false, loader) != iface) {
+                    return null;
+                }
+            }
+
+            byte[] bytes = generate(interfaces, collectMethods(interfaces));
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Object.class, Consumer.class));
+            return constructor.invoke(originalHandler, loginInterceptor);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    // 旧的 Proxy 方式，拦截的方法在创建时解析一次，不再每次比较方法名
+    public static Object createProxy(Object originalHandler, Class<?>[] interfaces, Consumer<Object> loginInterceptor) {
+        Set<Method> interceptedMethods = new HashSet<>();
+        for (Method method : collectMethods(interfaces)) {
+            if (isInterceptedMethod(method)) {
+                interceptedMethods.add(method);
+            }
+        }
+
+        return Proxy.newProxyInstance(
+                originalHandler.getClass().getClassLoader(),
+                interfaces,
+                new LoginInvocationHandler(originalHandler, interceptedMethods, loginInterceptor)
+        );
+    }
+
+    // 优先使用生成的委托类，无法生成时回退到 Proxy
+    public static Object create(Object originalHandler, Consumer<Object> loginInterceptor) {
+        Class<?>[] interfaces = collectInterfaces(originalHandler.getClass());
+        Object generated = createGenerated(originalHandler, interfaces, loginInterceptor);
+        if (generated != null) {
+            return generated;
+        }
+        return createProxy(originalHandler, interfaces, loginInterceptor);
+    }
+
+    // 判断对象是否为本工厂生成的委托，避免重复包装
+    public static boolean isDelegate(Object handler) {
+        if (handler == null) {
+            return false;
+        }
+        Class<?> type = handler.getClass();
+        return (type.isHidden() && type.getName().startsWith(DELEGATE_NAME.replace('/', '.')))
+                || (Proxy.isProxyClass(type) && Proxy.getInvocationHandler(handler) instanceof LoginInvocationHandler);
+    }
+
+    private static final class LoginInvocationHandler implements InvocationHandler {
+        private final Object originalHandler;
+        private final Set<Method> interceptedMethods;
+        private final Consumer<Object> loginInterceptor;
+
+        LoginInvocationHandler(Object originalHandler, Set<Method> interceptedMethods, Consumer<Object> loginInterceptor) {
+            this.originalHandler = originalHandler;
+            this.interceptedMethods = interceptedMethods;
+            this.loginInterceptor = loginInterceptor;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (interceptedMethods.contains(method)) {
+                loginInterceptor.accept(args[0]);
+            }
+            return method.invoke(originalHandler, args);
+        }
+    }
+
+    private static byte[] generate(Class<?>[] interfaces, List<Method> methods) {
+        String[] interfaceNames = new String[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceNames[i] = Type.getInternalName(interfaces[i]);
+        }
+
+        // 生成的方法都是直线代码，只需要计算栈深度，不需要 StackMapTable
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        // 与插件自身的编译目标（pom 中的 maven.compiler.target）保持一致
+        writer.visit(Opcodes.V21, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+                DELEGATE_NAME, null, OBJECT, interfaceNames);
+        writer.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, DELEGATE_FIELD, OBJECT_DESC, null, null).visitEnd();
+        writer.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, INTERCEPTOR_FIELD, CONSUMER_DESC, null, null).visitEnd();
+
+        // 构造方法：(Object delegate, Consumer interceptor)
+        MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>",
+                "(" + OBJECT_DESC + CONSUMER_DESC + ")V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitVarInsn(Opcodes.ALOAD, 1);
+        init.visitFieldInsn(Opcodes.PUTFIELD, DELEGATE_NAME, DELEGATE_FIELD, OBJECT_DESC);
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitVarInsn(Opcodes.ALOAD, 2);
+        init.visitFieldInsn(Opcodes.PUTFIELD, DELEGATE_NAME, INTERCEPTOR_FIELD, CONSUMER_DESC);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (Method method : methods) {
+            String desc = Type.getMethodDescriptor(method);
+            String owner = Type.getInternalName(method.getDeclaringClass());
+            MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, method.getName(), desc, null, null);
+            mv.visitCode();
+            if (isInterceptedMethod(method)) {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitFieldInsn(Opcodes.GETFIELD, DELEGATE_NAME, INTERCEPTOR_FIELD, CONSUMER_DESC);
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, CONSUMER, "accept", "(" + OBJECT_DESC + ")V", true);
+            }
+
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, DELEGATE_NAME, DELEGATE_FIELD, OBJECT_DESC);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+            int slot = 1;
+            for (Type argument : Type.getArgumentTypes(desc)) {
+                mv.visitVarInsn(argument.getOpcode(Opcodes.ILOAD), slot);
+                slot += argument.getSize();
+            }
+            mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, owner, method.getName(), desc, true);
+            mv.visitInsn(Type.getReturnType(desc).getOpcode(Opcodes.IRETURN));
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    // 收集处理器类及其所有父类实现的接口，父类实现的接口同样会被 Geyser 按接口类型调用
+    public static Class<?>[] collectInterfaces(Class<?> type) {
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            Collections.addAll(interfaces, current.getInterfaces());
+        }
+        return interfaces.toArray(new Class<?>[0]);
+    }
+
+    private static String descriptor(Method method) {
+        return Type.getMethodDescriptor(method);
+    }
+}
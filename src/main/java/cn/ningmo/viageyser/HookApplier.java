@@ -0,0 +1,112 @@
+package cn.ningmo.viageyser;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// 在后台线程上应用协议版本钩子。
+// Geyser 就绪后立即开始探测，失败时按指数退避重试，结果通过 CompletableFuture 发布。
+final class HookApplier {
+    private static final long READY_POLL_MILLIS = 50L;
+    private static final long READY_TIMEOUT_MILLIS = 120_000L;
+    private static final long INITIAL_BACKOFF_MILLIS = 250L;
+    private static final long MAX_BACKOFF_MILLIS = 30_000L;
+    private static final int MAX_ATTEMPTS = 8;
+
+    private final Logger logger;
+    private final ProtocolVersionHook hook;
+    private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ViaGeyser-Hook");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long waitedMillis;
+    private int attempts;
+
+    HookApplier(Logger logger, ProtocolVersionHook hook) {
+        this.logger = logger;
+        this.hook = hook;
+    }
+
+    CompletableFuture<Boolean> getFuture() {
+        return future;
+    }
+
+    void start() {
+        executor.execute(this::pollReady);
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+        future.complete(false);
+    }
+
+    private void pollReady() {
+        if (future.isDone()) {
+            return;
+        }
+
+        if (!hook.isGeyserReady()) {
+            waitedMillis += READY_POLL_MILLIS;
+            if (waitedMillis >= READY_TIMEOUT_MILLIS) {
+                logger.warning("等待 Geyser 就绪超时，无法应用版本钩子");
+                complete(false);
+                return;
+            }
+            schedule(this::pollReady, READY_POLL_MILLIS);
+            return;
+        }
+
+        attempt();
+    }
+
+    private void attempt() {
+        if (future.isDone()) {
+            return;
+        }
+
+        attempts++;
+        boolean success;
+        try {
+            success = hook.applyHook();
+        } catch (Exception e) {
+            logger.severe("应用协议版本钩子时发生错误: " + e.getMessage());
+            success = false;
+        }
+
+        if (success) {
+            logger.info("成功应用 Geyser 协议版本钩子！（第 " + attempts + " 次尝试）");
+            complete(true);
+            return;
+        }
+
+        if (attempts >= MAX_ATTEMPTS) {
+            logger.warning("应用 Geyser 协议版本钩子失败，已重试 " + attempts + " 次，请检查日志获取详细信息");
+            complete(false);
+            return;
+        }
+
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (attempts - 1));
+        logger.warning("应用 Geyser 协议版本钩子失败，将在 " + backoff + " 毫秒后重试");
+        schedule(this::attempt, backoff);
+    }
+
+    private void schedule(Runnable task, long delayMillis) {
+        try {
+            executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 插件已禁用
+            complete(false);
+        }
+    }
+
+    private void complete(boolean success) {
+        future.complete(success);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,226 @@
+package cn.ningmo.viageyser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// 登录拦截的运行时统计。
+// 计数器都是 LongAdder，登录线程只做一次无竞争的累加；按协议版本的直方图是稠密数组，查找不装箱。
+final class HookMetrics {
+    // 协议版本在这个范围内的单独计数，超出范围的合并到 otherVersions
+    private static final int MAX_TRACKED_VERSION = 2048;
+    // 改写耗时按 2 的幂分桶，第 i 个桶表示 [2^i, 2^(i+1)) 纳秒
+    private static final int LATENCY_BUCKETS = 32;
+
+    private final long startedAt = System.currentTimeMillis();
+    private final LongAdder loginsIntercepted = new LongAdder();
+    private final LongAdder rewrites = new LongAdder();
+    private final LongAdder rewriteFailures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder rewriteNanos = new LongAdder();
+    private final LongAdder otherVersions = new LongAdder();
+    private final LongAdder staticPacketHits = new LongAdder();
+    private final LongAdder staticPacketMisses = new LongAdder();
+    private final LongAdder staticPacketBytes = new LongAdder();
+    private final LongAdder staticPacketDisabled = new LongAdder();
+    private final LongAdder chunkHits = new LongAdder();
+    private final LongAdder chunkMisses = new LongAdder();
+    private final LongAdder chunkBytesSaved = new LongAdder();
+    private final LongAdder chunkEvictions = new LongAdder();
+    private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS];
+    private final AtomicReferenceArray<LongAdder> versions = new AtomicReferenceArray<>(MAX_TRACKED_VERSION);
+
+    HookMetrics() {
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            latencyBuckets[i] = new LongAdder();
+        }
+    }
+
+    // 委托类拦截到一个登录数据包，original 为客户端上报的协议版本
+    void recordLogin(int original) {
+        loginsIntercepted.increment();
+        if (original < 0 || original >= MAX_TRACKED_VERSION) {
+            otherVersions.increment();
+            return;
+        }
+        LongAdder counter = versions.get(original);
+        if (counter == null) {
+            versions.compareAndSet(original, null, new LongAdder());
+            counter = versions.get(original);
+        }
+        counter.increment();
+    }
+
+    void recordRewrite(long nanos) {
+        rewrites.increment();
+        rewriteNanos.add(nanos);
+        int bucket = nanos <= 1 ? 0 : Math.min(LATENCY_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(nanos));
+        latencyBuckets[bucket].increment();
+    }
+
+    void recordFailure() {
+        rewriteFailures.increment();
+    }
+
+    // 准入表拒绝了一个连接
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    // 静态数据包缓存的一次查找，命中时 bytes 为省去编码的字节数
+    void recordStaticPacket(boolean hit, int bytes) {
+        if (hit) {
+            staticPacketHits.increment();
+            staticPacketBytes.add(bytes);
+        } else {
+            staticPacketMisses.increment();
+        }
+    }
+
+    // 某个静态数据包类型在一个协议版本上连续不匹配，停用了缓存
+    void recordStaticPacketDisabled() {
+        staticPacketDisabled.increment();
+    }
+
+    // 区块缓存的一次查找，命中时 bytes 为省去转换的字节数
+    void recordChunkPayload(boolean hit, int bytes) {
+        if (hit) {
+            chunkHits.increment();
+            chunkBytesSaved.add(bytes);
+        } else {
+            chunkMisses.increment();
+        }
+    }
+
+    void recordChunkEviction() {
+        chunkEvictions.increment();
+    }
+
+    long chunkHits() {
+        return chunkHits.sum();
+    }
+
+    long chunkMisses() {
+        return chunkMisses.sum();
+    }
+
+    long chunkBytesSaved() {
+        return chunkBytesSaved.sum();
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+
+    long loginsIntercepted() {
+        return loginsIntercepted.sum();
+    }
+
+    long rewrites() {
+        return rewrites.sum();
+    }
+
+    long staticPacketHits() {
+        return staticPacketHits.sum();
+    }
+
+    long staticPacketMisses() {
+        return staticPacketMisses.sum();
+    }
+
+    long rewriteFailures() {
+        return rewriteFailures.sum();
+    }
+
+    // 按协议版本统计的连接数，只包含出现过的版本，按版本号升序
+    List<long[]> versionCounts() {
+        List<long[]> counts = new ArrayList<>();
+        for (int version = 0; version < MAX_TRACKED_VERSION; version++) {
+            LongAdder counter = versions.get(version);
+            if (counter != null) {
+                counts.add(new long[] { version, counter.sum() });
+            }
+        }
+        return counts;
+    }
+
+    // 改写耗时的近似分位数（取所在桶的上界），没有样本时返回 0
+    long rewriteLatencyPercentile(double percentile) {
+        long[] counts = new long[LATENCY_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            counts[i] = latencyBuckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << LATENCY_BUCKETS;
+    }
+
+    // 格式化为人可读的文本行，命令和统计文件共用
+    List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        long count = rewrites();
+        lines.add("运行时间: " + (System.currentTimeMillis() - startedAt) / 1000 + " 秒");
+        lines.add("拦截的登录: " + loginsIntercepted());
+        lines.add("改写协议版本: " + count + "，失败: " + rewriteFailures() + "，拒绝: " + rejected());
+        if (count > 0) {
+            lines.add("改写耗时: 平均 " + rewriteNanos.sum() / count + " ns，p50 < " + rewriteLatencyPercentile(0.5)
+                    + " ns，p99 < " + rewriteLatencyPercentile(0.99) + " ns");
+        }
+        long staticHits = staticPacketHits.sum();
+        long staticMisses = staticPacketMisses.sum();
+        if (staticHits + staticMisses > 0) {
+            lines.add("静态数据包缓存: 命中率 " + staticHits * 100 / (staticHits + staticMisses) + "%（" + staticHits + "/"
+                    + (staticHits + staticMisses) + "），省去编码 " + staticPacketBytes.sum() / 1024 + " KiB，停用 "
+                    + staticPacketDisabled.sum());
+        }
+        long chunkLookups = chunkHits.sum() + chunkMisses.sum();
+        if (chunkLookups > 0) {
+            lines.add("区块缓存: 命中率 " + chunkHits.sum() * 100 / chunkLookups + "%（" + chunkHits.sum() + "/" + chunkLookups
+                    + "），省去转换 " + chunkBytesSaved.sum() / 1024 + " KiB，淘汰 " + chunkEvictions.sum());
+        }
+        List<long[]> versionCounts = versionCounts();
+        if (!versionCounts.isEmpty() || otherVersions.sum() > 0) {
+            lines.add("按协议版本的连接数:");
+            for (long[] entry : versionCounts) {
+                lines.add("  " + entry[0] + ": " + entry[1]);
+            }
+            if (otherVersions.sum() > 0) {
+                lines.add("  其他: " + otherVersions.sum());
+            }
+        }
+        return lines;
+    }
+
+    // 先写临时文件再替换，读取方不会看到写了一半的内容
+    void writeTo(File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("# ViaGeyser 统计，更新于 " + Instant.now() + System.lineSeparator());
+            for (String line : describe()) {
+                writer.write(line);
+                writer.write(System.lineSeparator());
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,112 @@
+package cn.ningmo.viageyser;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// 探测阶段得到的不可变钩子方案。
+// 探测只做类加载和反射查找，可以并行执行；所有修改都在提交阶段按顺序执行一次。
+final class HookPlan {
+    final NetworkHandlerTarget networkHandler;
+    final GameProtocolTarget gameProtocol;
+    final CodecLookupTarget codecLookup;
+    final List<FieldWriteGroup> fieldWrites;
+
+    HookPlan(NetworkHandlerTarget networkHandler, GameProtocolTarget gameProtocol,
+             CodecLookupTarget codecLookup, List<FieldWriteGroup> fieldWrites) {
+        this.networkHandler = networkHandler;
+        this.gameProtocol = gameProtocol;
+        this.codecLookup = codecLookup;
+        this.fieldWrites = fieldWrites == null ? List.of() : List.copyOf(fieldWrites);
+    }
+
+    boolean isEmpty() {
+        return networkHandler == null && gameProtocol == null && codecLookup == null && fieldWrites.isEmpty();
+    }
+
+    // BedrockServer 的 packetHandler 及解析好的登录数据包访问器。
+    // interceptsNetworkSettings 表示处理器有 RequestNetworkSettings 方法，Geyser 第一次按版本查找编解码器之前就能改写
+    static final class NetworkHandlerTarget {
+        final Object bedrockServer;
+        final Field packetHandlerField;
+        final Object originalHandler;
+        final LoginPacketAccessor accessor;
+        final boolean alreadyWrapped;
+        final boolean interceptsNetworkSettings;
+
+        NetworkHandlerTarget(Object bedrockServer, Field packetHandlerField, Object originalHandler,
+                             LoginPacketAccessor accessor, boolean alreadyWrapped, boolean interceptsNetworkSettings) {
+            this.bedrockServer = bedrockServer;
+            this.packetHandlerField = packetHandlerField;
+            this.originalHandler = originalHandler;
+            this.accessor = accessor;
+            this.alreadyWrapped = alreadyWrapped;
+            this.interceptsNetworkSettings = interceptsNetworkSettings;
+        }
+    }
+
+    // GameProtocol 的编解码器列表及据此建立的区间注册表
+    static final class GameProtocolTarget {
+        final List<Object> codecsList;
+        final Object defaultCodec;
+        final int defaultVersion;
+        final VersionedCodecFactory codecFactory;
+        final Map<Integer, Object> nativeCodecs;
+        final Set<Integer> nativeVersions;
+        final CodecRegistry registry;
+
+        GameProtocolTarget(List<Object> codecsList, Object defaultCodec, int defaultVersion, VersionedCodecFactory codecFactory,
+                           Map<Integer, Object> nativeCodecs, CodecRegistry registry) {
+            this.codecsList = codecsList;
+            this.defaultCodec = defaultCodec;
+            this.defaultVersion = defaultVersion;
+            this.codecFactory = codecFactory;
+            this.nativeCodecs = Map.copyOf(nativeCodecs);
+            this.nativeVersions = this.nativeCodecs.keySet();
+            this.registry = registry;
+        }
+    }
+
+    // BedrockCodec 的 CODEC_LOOKUP 及其 int 键副本
+    static final class CodecLookupTarget {
+        final String handlerClassName;
+        final String codecClassName;
+        final String lookupFieldName;
+        final Map<Object, Object> lookup;
+        final IntCodecTable table;
+
+        CodecLookupTarget(String handlerClassName, String codecClassName, String lookupFieldName,
+                          Map<Object, Object> lookup, IntCodecTable table) {
+            this.handlerClassName = handlerClassName;
+            this.codecClassName = codecClassName;
+            this.lookupFieldName = lookupFieldName;
+            this.lookup = lookup;
+            this.table = table;
+        }
+    }
+
+    // 一个候选类（或 Geyser 实例）上需要写入的版本字段，提交时按顺序尝试，直到某一组写入成功
+    static final class FieldWriteGroup {
+        final String source;
+        final List<FieldWrite> writes;
+
+        FieldWriteGroup(String source, List<FieldWrite> writes) {
+            this.source = source;
+            this.writes = List.copyOf(writes);
+        }
+    }
+
+    static final class FieldWrite {
+        final Field field;
+        final Object target;
+        final int value;
+
+        // target 为 null 表示静态字段
+        FieldWrite(Field field, Object target, int value) {
+            this.field = field;
+            this.target = target;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package cn.ningmo.viageyser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+
+// 把上次成功的钩子方案（策略、类名、字段名）保存在插件数据目录中。
+// 以 Geyser 的版本和 jar 文件指纹为键，Geyser 没有升级时下次启动直接使用已知方案，跳过逐个探测。
+final class HookPlanCache {
+    private static final String FILE_NAME = "hook-plan.properties";
+    private static final String KEY_PROPERTY = "geyser-build";
+    private static final String STRATEGIES_PROPERTY = "strategies";
+
+    private final Logger logger;
+    private final File file;
+    private final String buildKey;
+
+    HookPlanCache(Logger logger, File dataFolder, String buildKey) {
+        this.logger = logger;
+        this.file = new File(dataFolder, FILE_NAME);
+        this.buildKey = buildKey;
+    }
+
+    // 由 Geyser 版本号、jar 文件大小和修改时间组成的构建指纹。
+    // VERSION 是编译期常量，必须通过反射读取运行时的值
+    static String computeBuildKey(Class<?> geyserClass) {
+        String version;
+        try {
+            version = String.valueOf(geyserClass.getField("VERSION").get(null));
+        } catch (ReflectiveOperationException e) {
+            version = "unknown";
+        }
+
+        StringBuilder key = new StringBuilder(version);
+        try {
+            File jar = new File(geyserClass.getProtectionDomain().getCodeSource().getLocation().toURI());
+            key.append('|').append(jar.getName()).append('|').append(jar.length()).append('|').append(jar.lastModified());
+        } catch (Exception | LinkageError e) {
+            // 无法定位 jar 时只使用版本号
+        }
+        return key.toString();
+    }
+
+    // 读取与当前 Geyser 构建匹配的方案，不存在或已过期时返回 null
+    Plan load() {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            logger.warning("读取钩子方案缓存失败: " + e.getMessage());
+            return null;
+        }
+
+        if (!buildKey.equals(properties.getProperty(KEY_PROPERTY))) {
+            return null;
+        }
+
+        Plan plan = new Plan();
+        for (String name : properties.getProperty(STRATEGIES_PROPERTY, "").split(",")) {
+            if (!name.isBlank()) {
+                plan.markSucceeded(name.trim());
+            }
+        }
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.equals(KEY_PROPERTY) && !name.equals(STRATEGIES_PROPERTY)) {
+                plan.put(name, properties.getProperty(name));
+            }
+        }
+        return plan.strategies.isEmpty() ? null : plan;
+    }
+
+    void save(Plan plan) {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_PROPERTY, buildKey);
+        properties.setProperty(STRATEGIES_PROPERTY, String.join(",", plan.strategies));
+        properties.putAll(plan.values);
+
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            File temp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                properties.store(out, "ViaGeyser hook plan");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warning("保存钩子方案缓存失败: " + e.getMessage());
+        }
+    }
+
+    void invalidate() {
+        if (file.isFile() && !file.delete()) {
+            logger.warning("无法删除过期的钩子方案缓存: " + file.getName());
+        }
+    }
+
+    // 一次钩子应用中成功的策略以及用到的类名、字段名
+    static final class Plan {
+        private final Set<String> strategies = new LinkedHashSet<>();
+        private final Map<String, String> values = new LinkedHashMap<>();
+
+        void markSucceeded(String strategy) {
+            strategies.add(strategy);
+        }
+
+        boolean succeeded(String strategy) {
+            return strategies.contains(strategy);
+        }
+
+        void put(String key, String value) {
+            values.put(key, value);
+        }
+
+        // 合并另一次提交的结果
+        void putAll(Plan other) {
+            strategies.addAll(other.strategies);
+            values.putAll(other.values);
+        }
+
+        String get(String key) {
+            return values.get(key);
+        }
+
+        Set<String> strategies() {
+            return strategies;
+        }
+    }
+}
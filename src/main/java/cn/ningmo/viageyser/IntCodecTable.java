@@ -0,0 +1,95 @@
+package cn.ningmo.viageyser;
+
+import java.util.Arrays;
+import java.util.Map;
+
+// 以 int 协议版本为键的开放寻址编解码器表。
+// 精确查找走线性探测，不装箱。
+final class IntCodecTable {
+    private static final int EMPTY = Integer.MIN_VALUE;
+
+    private final int[] keys;
+    private final Object[] values;
+    private final int mask;
+    private int size;
+
+    private int minKey = Integer.MAX_VALUE;
+    private int maxKey = Integer.MIN_VALUE;
+
+    private IntCodecTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // 从 CODEC_LOOKUP 之类的 Map 复制一次，非 Integer 键会被忽略
+    static IntCodecTable copyOf(Map<?, ?> source) {
+        IntCodecTable table = new IntCodecTable(source.size());
+        for (Map.Entry<?, ?> entry : source.entrySet()) {
+            if (entry.getKey() instanceof Integer && entry.getValue() != null) {
+                table.put((Integer) entry.getKey(), entry.getValue());
+            }
+        }
+        return table;
+    }
+
+    private static int slot(int key, int mask) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void put(int key, Object value) {
+        int index = slot(key, mask);
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        if (keys[index] == EMPTY) {
+            size++;
+        }
+        keys[index] = key;
+        values[index] = value;
+        minKey = Math.min(minKey, key);
+        maxKey = Math.max(maxKey, key);
+    }
+
+    Object get(int key) {
+        int index = slot(key, mask);
+        while (true) {
+            int existing = keys[index];
+            if (existing == key) {
+                return values[index];
+            }
+            if (existing == EMPTY) {
+                return null;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    // 登录时改写到的协议版本：原生版本保持不变，minVersion 到最新版本之间的空隙改写到最新的编解码器，
+    // 与修改 CODEC_LOOKUP 时填入的编解码器一致。不在范围内返回 -1
+    int targetVersion(int version, int minVersion) {
+        if (size == 0 || version < minVersion || version > maxKey) {
+            return -1;
+        }
+        return containsKey(version) ? version : maxKey;
+    }
+
+    int minKey() {
+        return size == 0 ? -1 : minKey;
+    }
+
+    int maxKey() {
+        return size == 0 ? -1 : maxKey;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,113 @@
+package cn.ningmo.viageyser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+
+// 登录和 RequestNetworkSettings 数据包的协议版本访问器。
+// 所有反射查找都在钩子安装时完成一次，登录路径上只调用缓存的 MethodHandle，不分配对象也不走反射。
+final class LoginPacketAccessor {
+    private static final String GAME_PROTOCOL_CLASS = "org.geysermc.geyser.network.GameProtocol";
+    private static final String DEFAULT_CODEC_FIELD = "DEFAULT_BEDROCK_CODEC";
+    private static final String PROTOCOL_VERSION_FIELD = "protocolVersion";
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(int.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, int.class);
+
+    // 每个数据包类只解析一次 protocolVersion 字段
+    private final ClassValue<Handles> handles = new ClassValue<>() {
+        @Override
+        protected Handles computeValue(Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    private final int defaultProtocolVersion;
+
+    private LoginPacketAccessor(int defaultProtocolVersion) {
+        this.defaultProtocolVersion = defaultProtocolVersion;
+    }
+
+    // 解析默认编解码器的协议版本，并预先解析已知登录数据包类的字段
+    static LoginPacketAccessor create(Iterable<Class<?>> packetTypes) throws Throwable {
+        LoginPacketAccessor accessor = new LoginPacketAccessor(resolveDefaultProtocolVersion());
+        for (Class<?> packetType : packetTypes) {
+            accessor.handles.get(packetType);
+        }
+        return accessor;
+    }
+
+    static int resolveDefaultProtocolVersion() throws Throwable {
+        Class<?> gameProtocolClass = Class.forName(GAME_PROTOCOL_CLASS);
+        VarHandle defaultCodecHandle = MethodHandles.privateLookupIn(gameProtocolClass, MethodHandles.lookup())
+                .findStaticVarHandle(gameProtocolClass, DEFAULT_CODEC_FIELD, gameProtocolClass.getDeclaredField(DEFAULT_CODEC_FIELD).getType());
+        Object defaultCodec = defaultCodecHandle.get();
+
+        MethodHandle getProtocolVersion = MethodHandles.publicLookup()
+                .findVirtual(defaultCodec.getClass(), "getProtocolVersion", MethodType.methodType(int.class))
+                .asType(GETTER_TYPE);
+        return (int) getProtocolVersion.invokeExact(defaultCodec);
+    }
+
+    int getDefaultProtocolVersion() {
+        return defaultProtocolVersion;
+    }
+
+    // 数据包类中没有 protocolVersion 字段时返回 false
+    boolean supports(Object packet) {
+        return handles.get(packet.getClass()) != Handles.MISSING;
+    }
+
+    // RequestNetworkSettings 返回 false
+    boolean isLogin(Object packet) {
+        return handles.get(packet.getClass()).login;
+    }
+
+    int getProtocolVersion(Object packet) throws Throwable {
+        return (int) handles.get(packet.getClass()).getter.invokeExact(packet);
+    }
+
+    void setProtocolVersion(Object packet, int protocolVersion) throws Throwable {
+        handles.get(packet.getClass()).setter.invokeExact(packet, protocolVersion);
+    }
+
+    private static Handles resolve(Class<?> type) {
+        boolean login = !type.getSimpleName().contains("NetworkSettings");
+        // 沿着继承链查找 protocolVersion 字段
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            try {
+                current.getDeclaredField(PROTOCOL_VERSION_FIELD);
+            } catch (NoSuchFieldException e) {
+                continue;
+            }
+
+            try {
+                VarHandle handle = MethodHandles.privateLookupIn(current, MethodHandles.lookup())
+                        .findVarHandle(current, PROTOCOL_VERSION_FIELD, int.class);
+                return new Handles(
+                        handle.toMethodHandle(VarHandle.AccessMode.GET).asType(GETTER_TYPE),
+                        handle.toMethodHandle(VarHandle.AccessMode.SET).asType(SETTER_TYPE),
+                        login
+                );
+            } catch (ReflectiveOperationException e) {
+                return Handles.MISSING;
+            }
+        }
+        return Handles.MISSING;
+    }
+
+    private static final class Handles {
+        static final Handles MISSING = new Handles(null, null, true);
+
+        final MethodHandle getter;
+        final MethodHandle setter;
+        final boolean login;
+
+        Handles(MethodHandle getter, MethodHandle setter, boolean login) {
+            this.getter = getter;
+            this.setter = setter;
+            this.login = login;
+        }
+    }
+}
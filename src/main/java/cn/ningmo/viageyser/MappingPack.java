@@ -0,0 +1,177 @@
+package cn.ningmo.viageyser;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// 一个源协议版本到默认编解码器版本的方块状态运行时 ID 映射。
+// 映射包通过内存映射读取，表直接是映射区域上的 IntBuffer 视图，加载时不复制也不解析条目；
+// 转换只是一次带边界检查的数组访问，没有哈希和装箱。
+//
+// 文件格式（大端序）：
+//   int    magic = 'VGMP'
+//   u16    格式版本 = 1
+//   int    源协议版本
+//   int    目标协议版本
+//   u16    表数量
+//   每张表：u8 类型、int 找不到映射时使用的 ID、int 条目数 n、n 个 int（-1 表示没有映射）
+// 表类型 0 为源版本到目标版本（客户端发来的数据包），2 为目标版本到源版本（发给客户端的数据包）。
+// 物品运行时 ID 由服务端在 StartGame 中下发，所有版本的客户端都使用同一套，不需要映射；
+// 曾经预留的物品表类型 1、3 和其他未知类型一样在读取时跳过
+final class MappingPack {
+    static final String EXTENSION = ".vgm";
+    static final int BLOCKS = 0;
+    static final int BLOCKS_DOWNGRADE = 2;
+    private static final int TABLE_TYPES = 3;
+
+    private static final int MAGIC = 0x56474D50;
+    private static final int FORMAT_VERSION = 1;
+    private static final IntBuffer EMPTY = IntBuffer.allocate(0);
+
+    private final int sourceVersion;
+    private final int targetVersion;
+    // 按表类型索引，没有的表为空表
+    private final IntBuffer[] tables;
+    private final int[] fallbacks;
+    // 表所在的映射区域，预热时整体读入内存
+    private final ByteBuffer source;
+
+    private MappingPack(int sourceVersion, int targetVersion, IntBuffer[] tables, int[] fallbacks, ByteBuffer source) {
+        this.sourceVersion = sourceVersion;
+        this.targetVersion = targetVersion;
+        this.tables = tables;
+        this.fallbacks = fallbacks;
+        this.source = source;
+    }
+
+    static MappingPack load(File file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("映射包过大: " + file.getName());
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return parse(mapped);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("映射包不完整: " + file.getName(), e);
+        }
+    }
+
+    private static MappingPack parse(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("不是 ViaGeyser 映射包");
+        }
+        int format = Short.toUnsignedInt(buffer.getShort(4));
+        if (format != FORMAT_VERSION) {
+            throw new IOException("不支持的映射包格式版本: " + format);
+        }
+        int sourceVersion = buffer.getInt(6);
+        int targetVersion = buffer.getInt(10);
+        int tableCount = Short.toUnsignedInt(buffer.getShort(14));
+
+        IntBuffer[] tables = new IntBuffer[TABLE_TYPES];
+        java.util.Arrays.fill(tables, EMPTY);
+        int[] fallbacks = new int[TABLE_TYPES];
+        int position = 16;
+        for (int i = 0; i < tableCount; i++) {
+            int type = Byte.toUnsignedInt(buffer.get(position));
+            int fallback = buffer.getInt(position + 1);
+            int count = buffer.getInt(position + 5);
+            position += 9;
+            if (count < 0 || (long) position + (long) count * 4 > buffer.limit()) {
+                throw new IOException("映射表超出文件范围");
+            }
+            IntBuffer table = buffer.slice(position, count * 4).asIntBuffer();
+            position += count * 4;
+            // 未知类型的表跳过，便于以后扩展
+            if (type == BLOCKS || type == BLOCKS_DOWNGRADE) {
+                tables[type] = table;
+                fallbacks[type] = fallback;
+            }
+        }
+        return new MappingPack(sourceVersion, targetVersion, tables, fallbacks, buffer);
+    }
+
+    // 写出映射包，供生成工具使用。tables 和 fallbacks 按表类型索引，tables 中为 null 的表不写出；
+    // 表的下标为源 ID，值为目标 ID，-1 表示没有映射。只接受 BLOCKS 和 BLOCKS_DOWNGRADE
+    static void write(File file, int sourceVersion, int targetVersion, int[][] tables, int[] fallbacks) throws IOException {
+        int count = 0;
+        for (int type = 0; type < tables.length; type++) {
+            if (tables[type] == null) {
+                continue;
+            }
+            if (type != BLOCKS && type != BLOCKS_DOWNGRADE) {
+                throw new IllegalArgumentException("不支持的映射表类型: " + type);
+            }
+            count++;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeInt(sourceVersion);
+            out.writeInt(targetVersion);
+            out.writeShort(count);
+            for (int type = 0; type < tables.length; type++) {
+                if (tables[type] != null) {
+                    writeTable(out, type, fallbacks[type], tables[type]);
+                }
+            }
+        }
+    }
+
+    private static void writeTable(DataOutputStream out, int type, int fallback, int[] ids) throws IOException {
+        out.writeByte(type);
+        out.writeInt(fallback);
+        out.writeInt(ids.length);
+        for (int id : ids) {
+            out.writeInt(id);
+        }
+    }
+
+    // 把映射区域读入物理内存，该版本第一次转换时不会再因缺页而停顿。不预热的映射包按访问逐页读入
+    void prefault() {
+        if (source instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) source).load();
+        }
+    }
+
+    int sourceVersion() {
+        return sourceVersion;
+    }
+
+    int targetVersion() {
+        return targetVersion;
+    }
+
+    // 目标版本的方块状态运行时 ID 转换回源版本的 ID
+    int downgradeBlock(int targetId) {
+        return lookup(BLOCKS_DOWNGRADE, targetId);
+    }
+
+    // 源版本的方块状态运行时 ID 转换为目标版本的 ID
+    int upgradeBlock(int sourceId) {
+        return lookup(BLOCKS, sourceId);
+    }
+
+    private int lookup(int type, int id) {
+        IntBuffer table = tables[type];
+        if (id < 0 || id >= table.limit()) {
+            return fallbacks[type];
+        }
+        int mapped = table.get(id);
+        return mapped < 0 ? fallbacks[type] : mapped;
+    }
+
+    boolean hasTable(int type) {
+        return tables[type].limit() > 0;
+    }
+}
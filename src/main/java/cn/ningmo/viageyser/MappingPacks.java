@@ -0,0 +1,82 @@
+package cn.ningmo.viageyser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+// 数据目录中 mappings 文件夹下的所有映射包，按源协议版本放在稠密数组中，查找不装箱
+final class MappingPacks {
+    private static final int MAX_VERSION = 2048;
+    private static final MappingPacks EMPTY = new MappingPacks(new MappingPack[0], 0);
+
+    private final MappingPack[] byVersion;
+    private final int count;
+
+    private MappingPacks(MappingPack[] byVersion, int count) {
+        this.byVersion = byVersion;
+        this.count = count;
+    }
+
+    static MappingPacks empty() {
+        return EMPTY;
+    }
+
+    // 加载目录中所有 .vgm 文件，损坏的文件跳过并记录警告。
+    // targetVersion 为 Geyser 默认编解码器的协议版本，目标版本不同的映射包跳过；为负数时不检查
+    static MappingPacks load(File folder, int targetVersion, Logger logger) {
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(MappingPack.EXTENSION));
+        if (files == null || files.length == 0) {
+            return EMPTY;
+        }
+        MappingPack[] byVersion = new MappingPack[0];
+        int count = 0;
+        for (File file : files) {
+            try {
+                MappingPack pack = MappingPack.load(file);
+                int version = pack.sourceVersion();
+                if (version < 0 || version >= MAX_VERSION) {
+                    logger.warning("映射包 " + file.getName() + " 的源协议版本无效: " + version);
+                    continue;
+                }
+                if (targetVersion >= 0 && pack.targetVersion() != targetVersion) {
+                    logger.warning("映射包 " + file.getName() + " 的目标协议版本 " + pack.targetVersion()
+                            + " 与 Geyser 默认编解码器的协议版本 " + targetVersion + " 不一致，已跳过");
+                    continue;
+                }
+                if (version >= byVersion.length) {
+                    byVersion = java.util.Arrays.copyOf(byVersion, version + 1);
+                }
+                if (byVersion[version] != null) {
+                    logger.warning("协议版本 " + version + " 有多个映射包，使用 " + file.getName());
+                } else {
+                    count++;
+                }
+                byVersion[version] = pack;
+            } catch (IOException e) {
+                logger.warning("加载映射包 " + file.getName() + " 失败: " + e.getMessage());
+            }
+        }
+        return new MappingPacks(byVersion, count);
+    }
+
+    // 源协议版本的映射包，没有时返回 null
+    MappingPack forVersion(int version) {
+        return version >= 0 && version < byVersion.length ? byVersion[version] : null;
+    }
+
+    List<MappingPack> all() {
+        List<MappingPack> packs = new ArrayList<>(count);
+        for (MappingPack pack : byVersion) {
+            if (pack != null) {
+                packs.add(pack);
+            }
+        }
+        return packs;
+    }
+
+    int size() {
+        return count;
+    }
+}
@@ -0,0 +1,12 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+// 改写一个已编码数据包中版本之间不同的字段
+public interface PacketRewriter {
+    // packet 从 readerIndex 到 writerIndex 是完整的数据包，bodyIndex 为包头之后第一个字节的绝对下标。
+    // 长度不变时原地修改并返回 packet；长度变化时从 alloc 取池化缓冲区写出完整的数据包（含包头）并返回，
+    // 原缓冲区由调用方释放。packet 保证可写
+    ByteBuf rewrite(ByteBuf packet, int bodyIndex, ByteBufAllocator alloc) throws Exception;
+}
@@ -0,0 +1,127 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.function.IntUnaryOperator;
+
+// 常用的字段改写器和 varint 读写工具，全部使用绝对下标，不移动缓冲区的读写位置
+public final class PacketRewriters {
+    private PacketRewriters() {
+    }
+
+    // 跳过数据包内容开头的 precedingVarInts 个 varint，按 mapping 改写紧随其后的无符号 varint。
+    // 例如 UpdateBlockPacket：方块坐标是 3 个 varint，之后是方块状态运行时 ID
+    public static PacketRewriter remapVarInt(int precedingVarInts, IntUnaryOperator mapping) {
+        return (packet, bodyIndex, alloc) -> {
+            int end = packet.writerIndex();
+            int index = bodyIndex;
+            for (int i = 0; i < precedingVarInts; i++) {
+                index = skipVarInt(packet, index, end);
+                if (index < 0) {
+                    return packet;
+                }
+            }
+            int fieldEnd = skipVarInt(packet, index, end);
+            if (fieldEnd < 0) {
+                return packet;
+            }
+            int value = getVarInt(packet, index);
+            int mapped = mapping.applyAsInt(value);
+            if (mapped == value) {
+                return packet;
+            }
+            int length = fieldEnd - index;
+            if (varIntLength(mapped) == length) {
+                setVarInt(packet, index, mapped);
+                return packet;
+            }
+            return replaceRange(packet, index, fieldEnd, mapped, alloc);
+        };
+    }
+
+    // 把 [from, to) 替换为 value 的 varint 编码，写入新的池化缓冲区
+    static ByteBuf replaceRange(ByteBuf packet, int from, int to, int value, ByteBufAllocator alloc) {
+        int start = packet.readerIndex();
+        int end = packet.writerIndex();
+        ByteBuf out = alloc.directBuffer((from - start) + varIntLength(value) + (end - to));
+        out.writeBytes(packet, start, from - start);
+        writeVarInt(out, value);
+        out.writeBytes(packet, to, end - to);
+        return out;
+    }
+
+    // 返回 varint 之后的下标，数据不完整时返回 -1
+    static int skipVarInt(ByteBuf buffer, int index, int end) {
+        for (int i = 0; i < 5; i++) {
+            if (index >= end) {
+                return -1;
+            }
+            if ((buffer.getByte(index++) & 0x80) == 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    // 返回 varlong 之后的下标，数据不完整或 index 为 -1 时返回 -1
+    static int skipVarLong(ByteBuf buffer, int index, int end) {
+        if (index < 0) {
+            return -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            if (index >= end) {
+                return -1;
+            }
+            if ((buffer.getByte(index++) & 0x80) == 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    static int getVarInt(ByteBuf buffer, int index) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.getByte(index++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        return value;
+    }
+
+    static int varIntLength(int value) {
+        if ((value & 0xFFFFFF80) == 0) {
+            return 1;
+        }
+        if ((value & 0xFFFFC000) == 0) {
+            return 2;
+        }
+        if ((value & 0xFFE00000) == 0) {
+            return 3;
+        }
+        if ((value & 0xF0000000) == 0) {
+            return 4;
+        }
+        return 5;
+    }
+
+    // 在 index 处覆盖写入 varint，调用方保证长度与原值相同
+    static void setVarInt(ByteBuf buffer, int index, int value) {
+        while ((value & 0xFFFFFF80) != 0) {
+            buffer.setByte(index++, (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.setByte(index, value);
+    }
+
+    static void writeVarInt(ByteBuf buffer, int value) {
+        while ((value & 0xFFFFFF80) != 0) {
+            buffer.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.writeByte(value);
+    }
+}
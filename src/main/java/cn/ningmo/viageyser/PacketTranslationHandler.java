@@ -0,0 +1,89 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+
+import java.util.List;
+
+// 在数据包编解码器的头部一侧按客户端版本转换已编码的数据包：入站在解码之前，出站在编码之后。
+// 每个客户端版本共享一个实例，只加入到该版本客户端的流水线中
+@ChannelHandler.Sharable
+final class PacketTranslationHandler extends ChannelDuplexHandler {
+    static final String NAME = "viageyser-packet-translator";
+    private static final String PACKET_CODEC_NAME = "bedrock-packet-codec";
+
+    private final PacketTranslator translator;
+
+    PacketTranslationHandler(PacketTranslator translator) {
+        this.translator = translator;
+    }
+
+    // 静态数据包缓存保存的是转换前的编码，转换必须排在保存处理器的头部一侧
+    boolean addTo(ChannelPipeline pipeline) {
+        if (pipeline.get(NAME) != null) {
+            return true;
+        }
+        String anchor = pipeline.get(StaticPacketCache.CAPTURE_NAME) != null ? StaticPacketCache.CAPTURE_NAME : PACKET_CODEC_NAME;
+        if (pipeline.get(anchor) == null) {
+            return false;
+        }
+        pipeline.addBefore(anchor, NAME, this);
+        return true;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (translator.isActive(PacketTranslator.INBOUND)) {
+            msg = translate(ctx, msg, PacketTranslator.INBOUND);
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (translator.isActive(PacketTranslator.OUTBOUND)) {
+            msg = translate(ctx, msg, PacketTranslator.OUTBOUND);
+        }
+        ctx.write(msg, promise);
+    }
+
+    private Object translate(ChannelHandlerContext ctx, Object msg, int direction) throws Exception {
+        if (msg instanceof ByteBuf) {
+            return translator.translate(direction, (ByteBuf) msg, ctx.alloc());
+        }
+        PacketWrappers access = PacketWrappers.of(msg.getClass());
+        if (access.packets != null) {
+            // 批量包装中的元素是单个数据包包装，转换结果写回元素自身。
+            // 转换可能释放原缓冲区并返回新的缓冲区，列表中的裸 ByteBuf 无法替换，原样保留
+            List<?> packets = access.packets(msg);
+            if (packets != null) {
+                for (int i = 0; i < packets.size(); i++) {
+                    Object element = packets.get(i);
+                    if (element != null && !(element instanceof ByteBuf)) {
+                        translateWrapper(ctx, PacketWrappers.of(element.getClass()), element, direction);
+                    }
+                }
+            }
+        } else {
+            translateWrapper(ctx, access, msg, direction);
+        }
+        return msg;
+    }
+
+    private void translateWrapper(ChannelHandlerContext ctx, PacketWrappers access, Object wrapper, int direction) throws Exception {
+        if (access.getPacketBuffer == null) {
+            return;
+        }
+        ByteBuf buffer = access.packetBuffer(wrapper);
+        if (buffer != null) {
+            ByteBuf translated = translator.translate(direction, buffer, ctx.alloc());
+            if (translated != buffer) {
+                access.setPacketBuffer(wrapper, translated);
+            }
+        }
+    }
+}
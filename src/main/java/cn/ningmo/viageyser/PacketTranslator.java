@@ -0,0 +1,149 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.Arrays;
+
+// 一个客户端协议版本的数据包转换表，按数据包 ID 直接索引。
+// 两个版本之间没有变化的数据包原样通过，不复制也不分配；只有 ID 变化或登记了改写器的数据包才会被处理。
+// ID 变化但包头长度不变时原地改写，长度变化时写入池化缓冲区
+public final class PacketTranslator {
+    public static final int INBOUND = 0;  // 客户端发来的数据包
+    public static final int OUTBOUND = 1; // 发给客户端的数据包
+
+    private static final int PACKET_IDS = 1024;
+    private static final int PACKET_ID_MASK = PACKET_IDS - 1;
+
+    private final int sourceVersion;
+    private final int[][] ids;
+    private final PacketRewriter[][] rewriters;
+    private final boolean[] active;
+
+    private PacketTranslator(int sourceVersion, int[][] ids, PacketRewriter[][] rewriters, boolean[] active) {
+        this.sourceVersion = sourceVersion;
+        this.ids = ids;
+        this.rewriters = rewriters;
+        this.active = active;
+    }
+
+    public static Builder builder(int sourceVersion) {
+        return new Builder(sourceVersion);
+    }
+
+    public int sourceVersion() {
+        return sourceVersion;
+    }
+
+    // 这个方向上是否有任何需要处理的数据包
+    public boolean isActive(int direction) {
+        return active[direction];
+    }
+
+    // 转换一个完整的数据包（包头 + 内容）。不需要转换时返回 packet 本身；
+    // 返回不同的缓冲区时 packet 已被释放
+    public ByteBuf translate(int direction, ByteBuf packet, ByteBufAllocator alloc) throws Exception {
+        if (!active[direction]) {
+            return packet;
+        }
+        int start = packet.readerIndex();
+        int end = packet.writerIndex();
+
+        // 数据包头是 varint：低 10 位为数据包 ID，其余为子客户端 ID
+        int header = 0;
+        int shift = 0;
+        int index = start;
+        byte b;
+        do {
+            if (index >= end || shift >= 35) {
+                return packet;
+            }
+            b = packet.getByte(index++);
+            header |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        int packetId = header & PACKET_ID_MASK;
+        int targetId = ids[direction][packetId];
+        PacketRewriter rewriter = rewriters[direction][packetId];
+        if (targetId == packetId && rewriter == null) {
+            return packet;
+        }
+
+        ByteBuf out = packet;
+        if (packet.isReadOnly()) {
+            // 共享的缓存副本不能原地修改
+            out = alloc.directBuffer(end - start).writeBytes(packet, start, end - start);
+            packet.release();
+            index = out.readerIndex() + (index - start);
+        }
+
+        if (targetId != packetId) {
+            int targetHeader = (header & ~PACKET_ID_MASK) | targetId;
+            int headerLength = index - out.readerIndex();
+            int targetLength = PacketRewriters.varIntLength(targetHeader);
+            if (targetLength == headerLength) {
+                PacketRewriters.setVarInt(out, out.readerIndex(), targetHeader);
+            } else {
+                int bodyLength = out.writerIndex() - index;
+                ByteBuf resized = alloc.directBuffer(targetLength + bodyLength);
+                PacketRewriters.writeVarInt(resized, targetHeader);
+                resized.writeBytes(out, index, bodyLength);
+                out.release();
+                out = resized;
+                index = out.readerIndex() + targetLength;
+            }
+        }
+
+        if (rewriter != null) {
+            ByteBuf rewritten = rewriter.rewrite(out, index, alloc);
+            if (rewritten != out) {
+                out.release();
+                out = rewritten;
+            }
+        }
+        return out;
+    }
+
+    public static final class Builder {
+        private final int sourceVersion;
+        private final int[][] ids = new int[2][PACKET_IDS];
+        private final PacketRewriter[][] rewriters = new PacketRewriter[2][PACKET_IDS];
+
+        private Builder(int sourceVersion) {
+            this.sourceVersion = sourceVersion;
+            for (int[] table : ids) {
+                for (int id = 0; id < PACKET_IDS; id++) {
+                    table[id] = id;
+                }
+            }
+        }
+
+        // 数据包在这个方向上的 ID 从 fromId 改为 toId
+        public Builder remapId(int direction, int fromId, int toId) {
+            ids[direction][fromId & PACKET_ID_MASK] = toId & PACKET_ID_MASK;
+            return this;
+        }
+
+        // 登记字段改写器。packetId 为转换前的 ID，rewriter 看到的是 ID 已经转换后的数据包
+        public Builder rewrite(int direction, int packetId, PacketRewriter rewriter) {
+            rewriters[direction][packetId & PACKET_ID_MASK] = rewriter;
+            return this;
+        }
+
+        public PacketTranslator build() {
+            boolean[] active = new boolean[2];
+            for (int direction = 0; direction < 2; direction++) {
+                for (int id = 0; id < PACKET_IDS; id++) {
+                    if (ids[direction][id] != id || rewriters[direction][id] != null) {
+                        active[direction] = true;
+                        break;
+                    }
+                }
+            }
+            int[][] idsCopy = { Arrays.copyOf(ids[0], PACKET_IDS), Arrays.copyOf(ids[1], PACKET_IDS) };
+            PacketRewriter[][] rewritersCopy = { rewriters[0].clone(), rewriters[1].clone() };
+            return new PacketTranslator(sourceVersion, idsCopy, rewritersCopy, active);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+
+// 协议库数据包包装和批量包装的访问方法，按类型缓存，类型不匹配的字段为 null。
+// 解码前和编码后的出站消息可能是 ByteBuf、单个数据包包装或批量包装
+final class PacketWrappers {
+    private static final ClassValue<PacketWrappers> CACHE = new ClassValue<>() {
+        @Override
+        protected PacketWrappers computeValue(Class<?> type) {
+            return create(type);
+        }
+    };
+
+    private static final PacketWrappers NONE = new PacketWrappers(null, null, null, null, null, null);
+
+    final MethodHandle packets;
+    final MethodHandle packet;
+    final MethodHandle getPacketBuffer;
+    final MethodHandle setPacketBuffer;
+    final MethodHandle senderSubClientId;
+    final MethodHandle targetSubClientId;
+
+    private PacketWrappers(MethodHandle packets, MethodHandle packet, MethodHandle getPacketBuffer,
+                          MethodHandle setPacketBuffer, MethodHandle senderSubClientId, MethodHandle targetSubClientId) {
+        this.packets = packets;
+        this.packet = packet;
+        this.getPacketBuffer = getPacketBuffer;
+        this.setPacketBuffer = setPacketBuffer;
+        this.senderSubClientId = senderSubClientId;
+        this.targetSubClientId = targetSubClientId;
+    }
+
+    static PacketWrappers of(Class<?> type) {
+        return CACHE.get(type);
+    }
+
+    private static PacketWrappers create(Class<?> type) {
+        if (ByteBuf.class.isAssignableFrom(type)) {
+            return NONE;
+        }
+        MethodHandle packets = find(type, "getPackets", List.class);
+        if (packets != null) {
+            return new PacketWrappers(packets, null, null, null, null, null);
+        }
+        MethodHandle packet = find(type, "getPacket", Object.class);
+        MethodHandle getPacketBuffer = find(type, "getPacketBuffer", ByteBuf.class);
+        MethodHandle setPacketBuffer = null;
+        try {
+            setPacketBuffer = MethodHandles.publicLookup()
+                    .findVirtual(type, "setPacketBuffer", MethodType.methodType(void.class, ByteBuf.class))
+                    .asType(MethodType.methodType(void.class, Object.class, ByteBuf.class));
+        } catch (ReflectiveOperationException e) {
+            // 不是数据包包装
+        }
+        if (packet == null || getPacketBuffer == null || setPacketBuffer == null) {
+            return NONE;
+        }
+        return new PacketWrappers(null, packet, getPacketBuffer, setPacketBuffer,
+                find(type, "getSenderSubClientId", int.class), find(type, "getTargetSubClientId", int.class));
+    }
+
+    // 查找无参的公开方法，返回值转换为 returnType
+    private static MethodHandle find(Class<?> type, String name, Class<?> returnType) {
+        try {
+            Method method = type.getMethod(name);
+            boolean compatible = returnType.isPrimitive()
+                    ? method.getReturnType() == returnType
+                    : returnType.isAssignableFrom(method.getReturnType());
+            if (!compatible) {
+                return null;
+            }
+            return MethodHandles.publicLookup().unreflect(method)
+                    .asType(MethodType.methodType(returnType, Object.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    List<?> packets(Object wrapper) {
+        try {
+            return (List<?>) packets.invokeExact(wrapper);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    Object packet(Object wrapper) {
+        try {
+            return (Object) packet.invokeExact(wrapper);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    ByteBuf packetBuffer(Object wrapper) {
+        try {
+            return (ByteBuf) getPacketBuffer.invokeExact(wrapper);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    void setPacketBuffer(Object wrapper, ByteBuf buffer) {
+        try {
+            setPacketBuffer.invokeExact(wrapper, buffer);
+        } catch (Throwable t) {
+            buffer.release();
+        }
+    }
+
+    // 编码结果的包头中含有子客户端 ID，只缓存主客户端的数据包
+    boolean isMainClient(Object wrapper) {
+        try {
+            return (senderSubClientId == null || (int) senderSubClientId.invokeExact(wrapper) == 0)
+                    && (targetSubClientId == null || (int) targetSubClientId.invokeExact(wrapper) == 0);
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+}
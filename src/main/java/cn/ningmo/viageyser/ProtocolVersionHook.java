@@ -5,13 +5,61 @@ import org.geysermc.geyser.GeyserImpl;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Logger;
 
 public class ProtocolVersionHook {
+    // 钩子方案缓存中使用的策略名和键名
+    private static final String STRATEGY_NETWORK_HANDLER = "network-handler";
+    private static final String STRATEGY_GAME_PROTOCOL = "game-protocol";
+    private static final String STRATEGY_CONNECTION_HANDLER = "connection-handler";
+    private static final String STRATEGY_BEDROCK_PROTOCOL = "bedrock-protocol";
+    private static final String STRATEGY_SESSION_MANAGER = "session-manager";
+    private static final String PLAN_BEDROCK_PROTOCOL_CLASS = "bedrock-protocol.class";
+    private static final String PLAN_CONNECTION_HANDLER_CLASS = "connection-handler.class";
+    private static final String PLAN_CODEC_CLASS = "bedrock-codec.class";
+    private static final String PLAN_CODEC_LOOKUP_FIELD = "bedrock-codec.lookup-field";
+    private static final String PLAN_GEYSER_FIELDS = "geyser-instance-fields";
+    // 被拒绝的客户端改写成这个版本，Geyser 找不到对应的编解码器会直接断开连接
+    private static final int REJECTED_PROTOCOL_VERSION = 0;
+
     private final Logger logger;
-    private int minProtocolVersion = 400; // 默认值
-    private int maxProtocolVersion = -1;  // 默认不限制
-    private boolean debug = false;
+    private volatile int minProtocolVersion = 400; // 默认值
+    private volatile int maxProtocolVersion = -1;  // 默认不限制
+    private DebugLog debugLog = DebugLog.disabled();
+    private volatile LoginPacketAccessor loginPacketAccessor;
+    private volatile CodecRegistry codecRegistry;
+    private volatile CodecCache codecCache;
+    // 按需模式下创建编解码器的后台线程，登录路径上不等待
+    private volatile java.util.concurrent.ExecutorService codecLoader;
+    private volatile IntCodecTable codecTable;
+    private volatile java.util.Map<Object, Object> codecLookup;
+    private boolean lazyCodecs = false;   // 默认共享编解码器
+    private HookPlanCache planCache;
+    private int codecCacheSize = 32;
+    private final HookMetrics metrics = new HookMetrics();
+    private boolean framePatching = false; // 默认在解码后改写
+    private volatile boolean framePatchActive;
+    // 数据包处理器的委托类同时拦截 RequestNetworkSettings
+    private volatile boolean networkSettingsIntercepted;
+    private volatile VersionAdmission admission;
+    private StaticPacketCache staticPacketCache;
+    private volatile ChunkPayloadCache chunkPayloadCache;
+    private boolean compressionStage = true;
+    private volatile MappingPacks mappingPacks = MappingPacks.empty();
+    private java.util.List<Integer> prewarmVersions = java.util.List.of();
+    // 按客户端协议版本索引的数据包转换处理器，写时复制。其他插件登记的优先于映射包生成的
+    private volatile PacketTranslationHandler[] translationHandlers = new PacketTranslationHandler[0];
+    private volatile PacketTranslationHandler[] mappingPackHandlers = new PacketTranslationHandler[0];
+    // 提交阶段修改过的目标，重新加载协议版本时只对它们做增量修改
+    private HookPlan.GameProtocolTarget gameProtocolTarget;
+    private HookPlan.CodecLookupTarget codecLookupTarget;
+    private HookPlan.FieldWriteGroup committedFieldWrites;
+    // 被修改过的版本字段的原始值
+    private final java.util.List<HookPlan.FieldWrite> fieldOriginals = new java.util.ArrayList<>();
+    private final java.util.Map<Integer, Object> materializedCodecs = new java.util.HashMap<>();
+    private final java.util.Set<Integer> addedLookupVersions = new java.util.HashSet<>();
 
     public ProtocolVersionHook(Logger logger) {
         this.logger = logger;
@@ -25,8 +73,207 @@ public class ProtocolVersionHook {
         this.maxProtocolVersion = maxProtocolVersion;
     }
 
-    public void setDebug(boolean debug) {
-        this.debug = debug;
+    // 热点路径和探测时的逐条输出使用的异步日志，由插件负责关闭
+    void setDebugLog(DebugLog debugLog) {
+        this.debugLog = debugLog;
+    }
+
+    public void setLazyCodecs(boolean lazyCodecs) {
+        this.lazyCodecs = lazyCodecs;
+    }
+
+    public void setCodecCacheSize(int codecCacheSize) {
+        this.codecCacheSize = codecCacheSize;
+    }
+
+    void setPlanCache(HookPlanCache planCache) {
+        this.planCache = planCache;
+    }
+
+    public void setFramePatching(boolean framePatching) {
+        this.framePatching = framePatching;
+    }
+
+    void setAdmission(VersionAdmission admission) {
+        this.admission = admission;
+    }
+
+    // 开启后按协议版本缓存登录时发送的静态数据包的编码结果
+    void setStaticPacketCaching(boolean enabled) {
+        this.staticPacketCache = enabled ? new StaticPacketCache(metrics) : null;
+    }
+
+    // 映射包转换区块时同版本玩家共享的转换结果缓存，maxBytes 为 0 时不缓存。需要在 setMappingPacks 之前设置
+    void setChunkCache(long maxBytes, int maxEntries) {
+        this.chunkPayloadCache = maxBytes > 0 ? new ChunkPayloadCache(maxBytes, maxEntries, metrics) : null;
+    }
+
+    // 开启后 1.19.30 到 1.20.50 的客户端使用不带算法字节的压缩处理器
+    void setCompressionStage(boolean enabled) {
+        this.compressionStage = enabled;
+    }
+
+    // 设置映射包，并为每个映射包的版本登记方块运行时 ID 转换（见 BlockIdRewriters）。
+    // 整体替换上一次由映射包生成的转换表，移除的映射包不再转换之后登录的连接
+    synchronized void setMappingPacks(MappingPacks mappingPacks) {
+        // 映射变了，缓存的区块转换结果全部作废
+        ChunkPayloadCache chunks = chunkPayloadCache;
+        if (chunks != null) {
+            chunks.clear();
+        }
+        PacketTranslationHandler[] handlers = new PacketTranslationHandler[0];
+        for (MappingPack pack : mappingPacks.all()) {
+            PacketTranslator translator = BlockIdRewriters.translator(pack, chunks);
+            if (translator != null) {
+                handlers = withTranslator(handlers, translator);
+            }
+        }
+        this.mappingPacks = mappingPacks;
+        mappingPackHandlers = handlers;
+    }
+
+    // 登记一个客户端版本的数据包转换表，替换该版本已有的转换表，只对之后登录的连接生效
+    synchronized void registerTranslator(PacketTranslator translator) {
+        translationHandlers = withTranslator(translationHandlers, translator);
+    }
+
+    private static PacketTranslationHandler[] withTranslator(PacketTranslationHandler[] handlers, PacketTranslator translator) {
+        int version = translator.sourceVersion();
+        if (version < 0) {
+            return handlers;
+        }
+        PacketTranslationHandler[] updated = java.util.Arrays.copyOf(handlers, Math.max(handlers.length, version + 1));
+        updated[version] = new PacketTranslationHandler(translator);
+        return updated;
+    }
+
+    // 客户端协议版本对应的转换处理器，没有时返回 null
+    PacketTranslationHandler translationHandler(int version) {
+        PacketTranslationHandler[] registered = translationHandlers;
+        if (version >= 0 && version < registered.length && registered[version] != null) {
+            return registered[version];
+        }
+        PacketTranslationHandler[] fromPacks = mappingPackHandlers;
+        return version >= 0 && version < fromPacks.length ? fromPacks[version] : null;
+    }
+
+    // 连接发来 RequestNetworkSettings 之后，按原始协议版本决定是否替换协议库的压缩处理器
+    private void onNetworkSettings(io.netty.channel.Channel channel) {
+        if (compressionStage && CompressionStage.isNeeded(SessionProtocolVersions.get(channel))) {
+            CompressionStage.watch(channel.pipeline(), debugLog);
+        }
+    }
+
+    // 连接发来 Login 之后加入按版本工作的处理器
+    private void onLogin(io.netty.channel.Channel channel) {
+        StaticPacketCache packetCache = staticPacketCache;
+        if (packetCache != null) {
+            packetCache.addTo(channel.pipeline());
+        }
+        PacketTranslationHandler handler = translationHandler(SessionProtocolVersions.get(channel));
+        if (handler != null) {
+            handler.addTo(channel.pipeline());
+        }
+    }
+
+    // 源协议版本的方块和物品运行时 ID 映射，没有映射包时返回 null
+    MappingPack getMappingPack(int sourceVersion) {
+        return mappingPacks.forVersion(sourceVersion);
+    }
+
+    // 启动时要预热的常见版本，在第一次提交钩子时处理
+    void setPrewarmVersions(java.util.List<Integer> versions) {
+        this.prewarmVersions = java.util.List.copyOf(versions);
+    }
+
+    // 预热常见版本：按需模式下提前创建编解码器，并把映射包读入内存。在安装登录拦截之前调用，
+    // 钩子生效后的第一批登录直接命中；不在列表中的版本仍在第一次登录时创建。返回预热的版本数。
+    // 静态数据包不预热：它们的内容由 Geyser 在会话中构建，只能在第一次发送时捕获
+    private int prewarm(HookPlan.GameProtocolTarget target, java.util.List<Integer> versions) {
+        CodecRegistry registry = target != null ? target.registry : codecRegistry;
+        if (lazyCodecs && target != null && codecCache == null) {
+            codecCache = createCodecCache(target.codecsList, target.codecFactory);
+        }
+        CodecCache cache = codecCache;
+        int warmed = 0;
+        int preloaded = 0;
+        for (int version : versions) {
+            if (registry != null && !registry.contains(version)) {
+                continue;
+            }
+            boolean touched = false;
+            // 缓存容量有限，预热的编解码器不超过一半，给其余版本留出位置
+            if (cache != null && registry != null && registry.targetVersion(version) != version
+                    && preloaded < cache.capacity() / 2) {
+                try {
+                    if (cache.preload(version)) {
+                        preloaded++;
+                        touched = true;
+                    }
+                } catch (Throwable t) {
+                    debugLog.warn(DebugLog.Category.CODEC, null, version, () -> "预热编解码器失败: " + t.getMessage(), null);
+                }
+            }
+            MappingPack pack = mappingPacks.forVersion(version);
+            if (pack != null) {
+                pack.prefault();
+                touched = true;
+            }
+            if (touched) {
+                warmed++;
+            }
+        }
+        return warmed;
+    }
+
+    // 预热时提前建立的按需缓存用不上（只能逐版本创建编解码器）时，淘汰其中的编解码器并停止加载线程
+    private void discardCodecCache() {
+        CodecCache cache = codecCache;
+        if (cache == null) {
+            return;
+        }
+        cache.retain(version -> false);
+        codecCache = null;
+        java.util.concurrent.ExecutorService loader = codecLoader;
+        if (loader != null) {
+            loader.shutdownNow();
+            codecLoader = null;
+        }
+    }
+
+    // 插件禁用时释放缓存的编码结果和区块数据，停止编解码器加载线程
+    void shutdown() {
+        StaticPacketCache cache = staticPacketCache;
+        if (cache != null) {
+            cache.clear();
+        }
+        ChunkPayloadCache chunks = chunkPayloadCache;
+        if (chunks != null) {
+            chunks.clear();
+        }
+        java.util.concurrent.ExecutorService loader = codecLoader;
+        if (loader != null) {
+            loader.shutdownNow();
+        }
+    }
+
+    HookMetrics getMetrics() {
+        return metrics;
+    }
+
+    // 判断 Geyser 是否已经启动完成，可以安装钩子
+    public boolean isGeyserReady() {
+        GeyserImpl geyser = GeyserImpl.getInstance();
+        if (geyser == null || geyser.isShuttingDown()) {
+            return false;
+        }
+        try {
+            Object bootstrap = getFieldValue(geyser, "bootstrap");
+            return bootstrap != null && getFieldValue(bootstrap, "bedrockServer") != null;
+        } catch (Exception e) {
+            // 字段结构不同，无法判断时直接尝试应用钩子
+            return true;
+        }
     }
 
     public boolean applyHook() {
@@ -38,27 +285,36 @@ public class ProtocolVersionHook {
                 return false;
             }
 
-            if (debug) {
-                logger.info("开始应用协议版本钩子...");
-            }
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "开始应用协议版本钩子...");
 
-            // 尝试多种可能的方法
-            boolean success = false;
-            
-            // 首先尝试修改网络处理器
-            success = tryModifyNetworkHandler() || success;
-            
-            // 然后尝试修改 GameProtocol 类
-            success = tryModifyGameProtocol() || success;
-            
-            // 尝试修改连接处理器中的版本检查
-            success = tryModifyConnectionHandler() || success;
+            // Geyser 没有升级时直接使用上次成功的方案
+            HookPlanCache.Plan cachedPlan = planCache != null ? planCache.load() : null;
+            if (cachedPlan != null) {
+                String strategies = String.join(", ", cachedPlan.strategies());
+                debugLog.log(DebugLog.Category.DISCOVERY, () -> "使用缓存的钩子方案: " + strategies);
+            }
             
-            // 尝试修改 BedrockProtocol 类中的协议版本常量
-            success = tryModifyBedrockProtocol() || success;
+            // 类文件索引只在本次探测期间使用，结束后立即解除映射
+            HookPlanCache.Plan committed;
+            try (GeyserClassIndex classIndex = openClassIndex()) {
+                committed = commit(discover(geyser, cachedPlan, classIndex));
+                if (cachedPlan != null && !committed.strategies().containsAll(cachedPlan.strategies())) {
+                    // 缓存方案中有策略失败（Geyser 内部的类名或字段名变了），删除方案文件，
+                    // 完整探测一次，只提交还没有成功的策略，已经生效的修改不再重复执行
+                    logger.info("缓存的钩子方案已部分失效，重新完整探测");
+                    planCache.invalidate();
+                    cachedPlan = null;
+                    HookPlan remaining = withoutCommitted(discover(geyser, null, classIndex), committed);
+                    if (!remaining.isEmpty() || committed.strategies().isEmpty()) {
+                        committed.putAll(commit(remaining));
+                    }
+                }
+            }
             
-            // 尝试修改会话管理器中的版本检查逻辑
-            success = tryModifySessionManager(geyser) || success;
+            boolean success = !committed.strategies().isEmpty();
+            if (success && planCache != null && cachedPlan == null) {
+                planCache.save(committed);
+            }
             
             return success;
         } catch (Exception e) {
@@ -68,7 +324,202 @@ public class ProtocolVersionHook {
         }
     }
     
-    private boolean tryModifyBedrockProtocol() {
+    // 探测阶段：各个策略只做类加载和反射查找，互不依赖，在 fork-join 线程池上并行执行。
+    // known 不为空时只探测上次成功的策略，并只尝试记录下来的类名和字段名
+    private HookPlan discover(GeyserImpl geyser, HookPlanCache.Plan known, GeyserClassIndex index) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        ForkJoinTask<HookPlan.NetworkHandlerTarget> networkHandler =
+                fork(pool, known, STRATEGY_NETWORK_HANDLER, () -> discoverNetworkHandler(geyser));
+        ForkJoinTask<HookPlan.GameProtocolTarget> gameProtocol =
+                fork(pool, known, STRATEGY_GAME_PROTOCOL, () -> discoverGameProtocol(index));
+        ForkJoinTask<HookPlan.CodecLookupTarget> codecLookup =
+                fork(pool, known, STRATEGY_CONNECTION_HANDLER, () -> discoverConnectionHandler(known, index));
+        ForkJoinTask<java.util.List<HookPlan.FieldWriteGroup>> fieldWrites =
+                fork(pool, known, STRATEGY_BEDROCK_PROTOCOL, () -> discoverBedrockProtocol(geyser, known, index));
+        ForkJoinTask<Boolean> sessionManager =
+                fork(pool, known, STRATEGY_SESSION_MANAGER, () -> discoverSessionManager(geyser));
+        
+        HookPlan plan = new HookPlan(join(networkHandler), join(gameProtocol), join(codecLookup), join(fieldWrites));
+        join(sessionManager);
+        return plan;
+    }
+    
+    // 去掉已经提交成功的策略对应的目标
+    private static HookPlan withoutCommitted(HookPlan plan, HookPlanCache.Plan committed) {
+        return new HookPlan(
+                committed.succeeded(STRATEGY_NETWORK_HANDLER) ? null : plan.networkHandler,
+                committed.succeeded(STRATEGY_GAME_PROTOCOL) ? null : plan.gameProtocol,
+                committed.succeeded(STRATEGY_CONNECTION_HANDLER) ? null : plan.codecLookup,
+                committed.succeeded(STRATEGY_BEDROCK_PROTOCOL) ? java.util.List.of() : plan.fieldWrites);
+    }
+    
+    private <T> ForkJoinTask<T> fork(ForkJoinPool pool, HookPlanCache.Plan known, String strategy, java.util.concurrent.Callable<T> task) {
+        if (known != null && !known.succeeded(strategy)) {
+            return null;
+        }
+        return pool.submit(task);
+    }
+    
+    private <T> T join(ForkJoinTask<T> task) {
+        if (task == null) {
+            return null;
+        }
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            logger.warning("探测钩子目标时出错: " + e.getMessage());
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", e);
+            return null;
+        }
+    }
+    
+    // 提交阶段：按固定顺序执行所有修改，每个目标只修改一次。返回成功的策略及其类名、字段名
+    private synchronized HookPlanCache.Plan commit(HookPlan plan) {
+        HookPlanCache.Plan committed = new HookPlanCache.Plan();
+        if (plan.isEmpty()) {
+            logger.warning("无法找到或修改任何协议版本相关的类或字段");
+            return committed;
+        }
+        
+        // 先发布登录路径要查询的注册表，再安装登录拦截
+        if (plan.gameProtocol != null) {
+            codecRegistry = plan.gameProtocol.registry;
+        }
+        if (plan.codecLookup != null) {
+            codecTable = plan.codecLookup.table;
+        }
+        
+        // 预热在登录拦截安装之前完成，只做一次
+        if (!prewarmVersions.isEmpty()) {
+            java.util.List<Integer> versions = prewarmVersions;
+            prewarmVersions = java.util.List.of();
+            long start = System.nanoTime();
+            int warmed = prewarm(plan.gameProtocol, versions);
+            logger.info("已预热 " + warmed + " 个常见协议版本 " + versions + "，耗时 "
+                    + (System.nanoTime() - start) / 1_000_000 + " 毫秒");
+        }
+        
+        if (plan.networkHandler != null && commitNetworkHandler(plan.networkHandler)) {
+            committed.markSucceeded(STRATEGY_NETWORK_HANDLER);
+        }
+        
+        if (plan.gameProtocol != null && commitGameProtocol(plan.gameProtocol)) {
+            committed.markSucceeded(STRATEGY_GAME_PROTOCOL);
+            gameProtocolTarget = plan.gameProtocol;
+        }
+        
+        if (plan.codecLookup != null && commitCodecLookup(plan.codecLookup)) {
+            codecLookupTarget = plan.codecLookup;
+            committed.markSucceeded(STRATEGY_CONNECTION_HANDLER);
+            committed.put(PLAN_CONNECTION_HANDLER_CLASS, plan.codecLookup.handlerClassName);
+            committed.put(PLAN_CODEC_CLASS, plan.codecLookup.codecClassName);
+            committed.put(PLAN_CODEC_LOOKUP_FIELD, plan.codecLookup.lookupFieldName);
+        }
+        
+        for (HookPlan.FieldWriteGroup group : plan.fieldWrites) {
+            if (commitFieldWrites(group)) {
+                committedFieldWrites = group;
+                committed.markSucceeded(STRATEGY_BEDROCK_PROTOCOL);
+                committed.put(PLAN_BEDROCK_PROTOCOL_CLASS, group.source);
+                break;
+            }
+        }
+        if (!plan.fieldWrites.isEmpty() && !committed.succeeded(STRATEGY_BEDROCK_PROTOCOL)) {
+            logger.warning("无法找到或修改任何协议版本相关的类或字段");
+        }
+        
+        return committed;
+    }
+    
+    // 重新加载协议版本范围和准入表，不重新探测，也不会再次包装数据包处理器。
+    // 登录路径读取的注册表和准入表整体替换；Geyser 的编解码器列表和 CODEC_LOOKUP 只增删变化的版本
+    synchronized void reload(int newMinVersion, int newMaxVersion, VersionAdmission newAdmission) {
+        minProtocolVersion = newMinVersion;
+        maxProtocolVersion = newMaxVersion;
+        admission = newAdmission;
+        
+        // 协议版本映射可能改变，按版本缓存的编码结果全部作废
+        StaticPacketCache packetCache = staticPacketCache;
+        if (packetCache != null) {
+            packetCache.clear();
+        }
+        
+        HookPlan.GameProtocolTarget gameProtocol = gameProtocolTarget;
+        if (gameProtocol != null) {
+            try {
+                CodecRegistry registry = buildRegistry(gameProtocol.nativeCodecs, gameProtocol.defaultCodec,
+                        gameProtocol.defaultVersion, newMinVersion, newMaxVersion);
+                codecRegistry = registry;
+                
+                CodecCache cache = codecCache;
+                if (!rewritesBeforeLookup()) {
+                    syncMaterializedCodecs(gameProtocol, registry);
+                } else if (cache != null) {
+                    int evicted = cache.retain(registry::contains);
+                    if (evicted > 0) {
+                        debugLog.log(DebugLog.Category.CODEC, () -> "从编解码器缓存中移除了 " + evicted + " 个不再支持的版本");
+                    }
+                }
+            } catch (Throwable t) {
+                logger.warning("重新建立 GameProtocol 协议版本注册表失败: " + t.getMessage());
+                debugLog.warn(DebugLog.Category.CODEC, () -> "异常堆栈", t);
+            }
+        }
+        
+        HookPlan.CodecLookupTarget lookup = codecLookupTarget;
+        if (lookup != null && !rewritesBeforeLookup()) {
+            syncLookupAdditions(lookup);
+        }
+        
+        HookPlan.FieldWriteGroup fieldWrites = committedFieldWrites;
+        if (fieldWrites != null) {
+            // 先恢复字段的原始值，再按新的范围重新收集：没有类文件索引时按字段当前值判断，
+            // 不恢复就会拿上次写入的值做判断。新范围不需要写入的字段保持原始值
+            restoreFieldOriginals();
+            HookPlan.FieldWriteGroup rebuilt = collectFieldWriteGroup(fieldWrites.source);
+            if (rebuilt != null) {
+                commitFieldWrites(rebuilt);
+                committedFieldWrites = rebuilt;
+            }
+        }
+        
+        logger.info("已重新加载协议版本范围: " + newMinVersion + " - " + (newMaxVersion > 0 ? newMaxVersion : "不限制"));
+    }
+    
+    // 为 Geyser 所在的 jar 建立类文件索引，失败时返回 null，探测退回纯反射
+    private GeyserClassIndex openClassIndex() {
+        try {
+            long start = System.nanoTime();
+            GeyserClassIndex index = GeyserClassIndex.open(GeyserImpl.class);
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "已索引 Geyser jar 中的 " + index.classCount() + " 个类，耗时 "
+                        + (System.nanoTime() - start) / 1_000_000 + " 毫秒");
+            return index;
+        } catch (Exception | LinkageError e) {
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "无法建立 Geyser 类文件索引，使用反射探测: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // 按名称查找类但不初始化。Geyser 自己的类都在它的 jar 中，索引里没有时直接跳过，不再尝试加载
+    private Class<?> findClass(String className, GeyserClassIndex index) {
+        if (index != null && className.startsWith("org.geysermc.") && !index.contains(className)) {
+            return null;
+        }
+        try {
+            return Class.forName(className, false, ProtocolVersionHook.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+    
+    // 有缓存方案时只返回记录下来的候选项
+    private static String[] candidates(HookPlanCache.Plan known, String key, String[] all) {
+        String value = known == null ? null : known.get(key);
+        return value == null ? all : new String[] { value };
+    }
+    
+    private java.util.List<HookPlan.FieldWriteGroup> discoverBedrockProtocol(GeyserImpl geyser, HookPlanCache.Plan known, GeyserClassIndex index) {
+        java.util.List<HookPlan.FieldWriteGroup> groups = new java.util.ArrayList<>();
         try {
             // 尝试找到可能的类路径
             String[] possibleClassPaths = {
@@ -86,208 +537,306 @@ public class ProtocolVersionHook {
             };
             
             // 尝试查找类
-            Class<?> bedrockProtocolClass = null;
-            for (String path : possibleClassPaths) {
+            for (String path : candidates(known, PLAN_BEDROCK_PROTOCOL_CLASS, possibleClassPaths)) {
+                if (PLAN_GEYSER_FIELDS.equals(path)) {
+                    break;
+                }
+                Class<?> bedrockProtocolClass = findClass(path, index);
+                if (bedrockProtocolClass == null) {
+                    // 继续尝试下一个路径
+                    continue;
+                }
                 try {
-                    bedrockProtocolClass = Class.forName(path);
-                    if (debug) {
-                        logger.info("找到可能的协议类: " + path);
-                    }
+                    debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到可能的协议类: " + path);
                     
-                    // 尝试修改这个类中的版本字段
-                    boolean modified = tryModifyClassFields(bedrockProtocolClass);
-                    if (modified) {
-                        logger.info("成功修改 " + path + " 中的版本信息");
-                        return true;
-                    }
-                } catch (ClassNotFoundException ignored) {
-                    // 继续尝试下一个路径
-                } catch (Exception e) {
-                    if (debug) {
-                        logger.warning("尝试修改 " + path + " 时出错: " + e.getMessage());
-                        e.printStackTrace();
+                    // 收集这个类中需要修改的版本字段
+                    java.util.List<HookPlan.FieldWrite> writes = new java.util.ArrayList<>();
+                    collectClassFieldWrites(bedrockProtocolClass, writes, index);
+                    if (!writes.isEmpty()) {
+                        groups.add(new HookPlan.FieldWriteGroup(path, writes));
                     }
+                } catch (Exception | LinkageError e) {
+                    debugLog.warn(DebugLog.Category.DISCOVERY, () -> "尝试修改 " + path + " 时出错: " + e.getMessage(), e);
                 }
             }
             
-            // 如果没有找到任何类，尝试直接查找和修改 Geyser 实例中的字段
-            if (debug) {
-                logger.info("尝试直接在 Geyser 实例中查找协议版本字段");
-            }
+            // 尝试直接查找 Geyser 实例中的字段
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "尝试直接在 Geyser 实例中查找协议版本字段");
             
-            GeyserImpl geyser = GeyserImpl.getInstance();
-            if (geyser != null) {
-                boolean modified = tryModifyGeyserFields(geyser);
-                if (modified) {
-                    return true;
-                }
+            java.util.List<HookPlan.FieldWrite> geyserWrites = new java.util.ArrayList<>();
+            collectGeyserFieldWrites(geyser, geyserWrites, index);
+            if (!geyserWrites.isEmpty()) {
+                groups.add(new HookPlan.FieldWriteGroup(PLAN_GEYSER_FIELDS, geyserWrites));
             }
-            
-            logger.warning("无法找到或修改任何协议版本相关的类或字段");
-            return false;
         } catch (Exception e) {
             logger.warning("修改 BedrockProtocol 失败: " + e.getMessage());
-            if (debug) {
-                e.printStackTrace();
-            }
-            return false;
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", e);
         }
+        return groups;
     }
     
-    private boolean tryModifyClassFields(Class<?> clazz) throws Exception {
-        boolean modified = false;
-        
+    private void collectClassFieldWrites(Class<?> clazz, java.util.List<HookPlan.FieldWrite> writes, GeyserClassIndex index) {
         // 尝试修改各种可能的字段名
-        String[] versionFields = {
+        java.util.Set<String> versionFields = java.util.Set.of(
             "MINIMUM_PROTOCOL_VERSION", "MIN_PROTOCOL_VERSION", 
             "BEDROCK_PROTOCOL_VERSION", "PROTOCOL_VERSION",
             "CURRENT_PROTOCOL_VERSION", "SUPPORTED_PROTOCOL_VERSION",
             "LATEST_PROTOCOL_VERSION", "BEDROCK_MINIMUM_VERSION",
             "MINIMUM_VERSION", "LOWEST_PROTOCOL_VERSION"
-        };
-        
-        // 获取类中的所有字段
-        Field[] allFields = clazz.getDeclaredFields();
-        if (debug) {
-            logger.info("类 " + clazz.getName() + " 中的字段:");
-            for (Field field : allFields) {
-                logger.info("  - " + field.getName() + " (" + field.getType().getName() + ")");
-            }
-        }
+        );
+        java.util.Set<String> maxVersionFields = java.util.Set.of(
+            "MAXIMUM_PROTOCOL_VERSION", "MAX_PROTOCOL_VERSION",
+            "HIGHEST_PROTOCOL_VERSION", "LATEST_PROTOCOL_VERSION"
+        );
         
-        // 尝试修改指定名称的字段
-        for (String fieldName : versionFields) {
-            try {
-                Field field = clazz.getDeclaredField(fieldName);
-                if (field.getType() == int.class || field.getType() == Integer.class) {
-                    modified = modifyStaticIntField(field, minProtocolVersion) || modified;
-                    if (debug && modified) {
-                        logger.info("成功修改字段 " + fieldName + " 为 " + minProtocolVersion);
+        // 类在 Geyser jar 中时按索引里的名称和编译期常量值选择字段，只对选中的字段做反射，
+        // 不读取字段值，也就不会加载并初始化这个类。没有常量值的字段只按上面列出的名称选择
+        GeyserClassIndex.ClassInfo info = index != null ? index.find(clazz.getName()) : null;
+        if (info != null) {
+            String className = clazz.getName();
+            for (GeyserClassIndex.FieldInfo fieldInfo : info.fields) {
+                if (!fieldInfo.isStatic() || !fieldInfo.isInt() || !isVersionFieldName(fieldInfo.name)) {
+                    continue;
+                }
+                Integer constant = fieldInfo.constantValue;
+                debugLog.log(DebugLog.Category.DISCOVERY, () -> "类 " + className + " 中的协议版本字段: " + fieldInfo.name
+                        + (constant != null ? " = " + constant : ""));
+                java.util.List<Integer> values = new java.util.ArrayList<>(2);
+                if (versionFields.contains(fieldInfo.name)) {
+                    values.add(minProtocolVersion);
+                }
+                if (maxProtocolVersion > 0 && maxVersionFields.contains(fieldInfo.name)) {
+                    values.add(maxProtocolVersion);
+                }
+                if (constant != null) {
+                    values.addAll(versionWrites(fieldInfo.name, constant));
+                }
+                if (values.isEmpty()) {
+                    continue;
+                }
+                try {
+                    Field field = clazz.getDeclaredField(fieldInfo.name);
+                    for (int value : values) {
+                        writes.add(new HookPlan.FieldWrite(field, null, value));
                     }
+                } catch (NoSuchFieldException ignored) {
+                    // 索引与运行时的类不一致，跳过
                 }
-            } catch (NoSuchFieldException ignored) {
-                // 继续尝试下一个字段
             }
+            return;
         }
         
-        // 如果设置了最大协议版本限制
-        if (maxProtocolVersion > 0) {
-            String[] maxVersionFields = {
-                "MAXIMUM_PROTOCOL_VERSION", "MAX_PROTOCOL_VERSION",
-                "HIGHEST_PROTOCOL_VERSION", "LATEST_PROTOCOL_VERSION"
-            };
+        // 没有索引时只能反射读取字段值，类会在这里初始化
+        java.util.List<Field> fields = versionIntFields(clazz, true, null);
+        String className = clazz.getName();
+        debugLog.log(DebugLog.Category.DISCOVERY, () -> "类 " + className + " 中的协议版本字段: " + fields.size() + " 个");
+        for (Field field : fields) {
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "  - " + field.getName() + " (" + field.getType().getName() + ")");
+        }
+        
+        for (Field field : fields) {
+            // 尝试修改指定名称的字段
+            if (versionFields.contains(field.getName())) {
+                writes.add(new HookPlan.FieldWrite(field, null, minProtocolVersion));
+            }
             
-            for (String fieldName : maxVersionFields) {
-                try {
-                    Field field = clazz.getDeclaredField(fieldName);
-                    if (field.getType() == int.class || field.getType() == Integer.class) {
-                        modified = modifyStaticIntField(field, maxProtocolVersion) || modified;
-                        if (debug && modified) {
-                            logger.info("成功修改字段 " + fieldName + " 为 " + maxProtocolVersion);
-                        }
-                    }
-                } catch (NoSuchFieldException ignored) {
-                    // 继续尝试下一个字段
+            // 如果设置了最大协议版本限制
+            if (maxProtocolVersion > 0 && maxVersionFields.contains(field.getName())) {
+                writes.add(new HookPlan.FieldWrite(field, null, maxProtocolVersion));
+            }
+            
+            // 尝试查找任何看起来像协议版本的整数常量字段
+            try {
+                field.setAccessible(true);
+                for (int value : versionWrites(field.getName(), field.getInt(null))) {
+                    writes.add(new HookPlan.FieldWrite(field, null, value));
                 }
+            } catch (Exception e) {
+                debugLog.warn(DebugLog.Category.DISCOVERY, () -> "尝试读取字段 " + field.getName() + " 时出错: " + e.getMessage(), null);
             }
         }
+    }
+    
+    // 按字段名和当前值判断疑似最小、最大版本字段，返回要写入的值
+    private java.util.List<Integer> versionWrites(String fieldName, int value) {
+        String name = fieldName.toUpperCase();
+        java.util.List<Integer> values = new java.util.ArrayList<>(1);
         
-        // 尝试查找和修改任何看起来像协议版本的整数常量字段
-        for (Field field : allFields) {
-            String name = field.getName().toUpperCase();
-            if ((name.contains("PROTOCOL") || name.contains("VERSION")) && 
-                (field.getType() == int.class || field.getType() == Integer.class)) {
-                try {
-                    field.setAccessible(true);
-                    int value = field.getInt(null);
-                    
-                    // 如果字段名包含 MIN 或 MINIMUM，并且值大于我们的最小值
-                    if ((name.contains("MIN") || name.contains("MINIMUM") || name.contains("LOWEST")) && value > minProtocolVersion) {
-                        modified = modifyStaticIntField(field, minProtocolVersion) || modified;
-                        if (debug) {
-                            logger.info("修改疑似最小版本字段 " + field.getName() + " 从 " + value + " 到 " + minProtocolVersion);
-                        }
-                    }
-                    
-                    // 如果字段名包含 MAX 或 MAXIMUM，并且我们设置了最大值限制
-                    if (maxProtocolVersion > 0 && (name.contains("MAX") || name.contains("MAXIMUM") || name.contains("HIGHEST")) && value < maxProtocolVersion) {
-                        modified = modifyStaticIntField(field, maxProtocolVersion) || modified;
-                        if (debug) {
-                            logger.info("修改疑似最大版本字段 " + field.getName() + " 从 " + value + " 到 " + maxProtocolVersion);
-                        }
-                    }
-                } catch (Exception e) {
-                    if (debug) {
-                        logger.warning("尝试修改字段 " + field.getName() + " 时出错: " + e.getMessage());
+        // 如果字段名包含 MIN 或 MINIMUM，并且值大于我们的最小值
+        if ((name.contains("MIN") || name.contains("MINIMUM") || name.contains("LOWEST")) && value > minProtocolVersion) {
+            values.add(minProtocolVersion);
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "发现疑似最小版本字段 " + fieldName + " = " + value);
+        }
+        
+        // 如果字段名包含 MAX 或 MAXIMUM，并且我们设置了最大值限制
+        if (maxProtocolVersion > 0 && (name.contains("MAX") || name.contains("MAXIMUM") || name.contains("HIGHEST")) && value < maxProtocolVersion) {
+            values.add(maxProtocolVersion);
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "发现疑似最大版本字段 " + fieldName + " = " + value);
+        }
+        return values;
+    }
+    
+    // 名称包含 PROTOCOL 或 VERSION 的 int/Integer 字段。
+    // 类在 Geyser jar 中时直接按索引里的名称和描述符筛选，只对选中的字段做反射；否则退回遍历反射字段
+    private java.util.List<Field> versionIntFields(Class<?> clazz, boolean statics, GeyserClassIndex index) {
+        java.util.List<Field> result = new java.util.ArrayList<>();
+        GeyserClassIndex.ClassInfo info = index != null ? index.find(clazz.getName()) : null;
+        if (info != null) {
+            for (GeyserClassIndex.FieldInfo fieldInfo : info.fields) {
+                if (fieldInfo.isStatic() == statics && fieldInfo.isInt() && isVersionFieldName(fieldInfo.name)) {
+                    try {
+                        result.add(clazz.getDeclaredField(fieldInfo.name));
+                    } catch (NoSuchFieldException ignored) {
+                        // 索引与运行时的类不一致，跳过
                     }
                 }
             }
+            return result;
         }
         
-        return modified;
+        for (Field field : clazz.getDeclaredFields()) {
+            if (java.lang.reflect.Modifier.isStatic(field.getModifiers()) == statics
+                    && (field.getType() == int.class || field.getType() == Integer.class)
+                    && isVersionFieldName(field.getName())) {
+                result.add(field);
+            }
+        }
+        return result;
     }
     
-    private boolean tryModifyGeyserFields(GeyserImpl geyser) {
-        boolean modified = false;
-        
+    private static boolean isVersionFieldName(String name) {
+        String upper = name.toUpperCase();
+        return upper.contains("PROTOCOL") || upper.contains("VERSION");
+    }
+    
+    private void collectGeyserFieldWrites(GeyserImpl geyser, java.util.List<HookPlan.FieldWrite> writes, GeyserClassIndex index) {
         try {
-            // 尝试获取 Geyser 实例中的所有字段
-            Field[] fields = geyser.getClass().getDeclaredFields();
+            // 只取 Geyser 实例中可能包含协议信息的字段
+            java.util.List<Field> fields = new java.util.ArrayList<>();
+            GeyserClassIndex.ClassInfo info = index != null ? index.find(geyser.getClass().getName()) : null;
+            if (info != null) {
+                for (GeyserClassIndex.FieldInfo fieldInfo : info.fields) {
+                    if (!fieldInfo.isStatic() && isGeyserProtocolFieldName(fieldInfo.name)) {
+                        fields.add(geyser.getClass().getDeclaredField(fieldInfo.name));
+                    }
+                }
+            } else {
+                for (Field field : geyser.getClass().getDeclaredFields()) {
+                    if (isGeyserProtocolFieldName(field.getName())) {
+                        fields.add(field);
+                    }
+                }
+            }
             
             for (Field field : fields) {
                 field.setAccessible(true);
-                String name = field.getName().toLowerCase();
-                
-                // 查找可能包含协议信息的字段
-                if (name.contains("protocol") || name.contains("version") || name.contains("translator")) {
-                    Object fieldValue = field.get(geyser);
-                    if (fieldValue != null) {
-                        if (debug) {
-                            logger.info("检查 Geyser 字段: " + field.getName() + " (" + fieldValue.getClass().getName() + ")");
-                        }
-                        
-                        // 递归检查这个字段中的所有字段
-                        modified = tryModifyClassFields(fieldValue.getClass()) || modified;
-                        
-                        // 如果这个字段是一个对象，尝试修改它的字段
-                        if (!fieldValue.getClass().isPrimitive() && !fieldValue.getClass().getName().startsWith("java.lang")) {
-                            Field[] subFields = fieldValue.getClass().getDeclaredFields();
-                            for (Field subField : subFields) {
-                                String subName = subField.getName().toUpperCase();
-                                if ((subName.contains("PROTOCOL") || subName.contains("VERSION")) && 
-                                    (subField.getType() == int.class || subField.getType() == Integer.class)) {
-                                    subField.setAccessible(true);
-                                    int value = subField.getInt(fieldValue);
-                                    
-                                    if (debug) {
-                                        logger.info("  - 子字段: " + subField.getName() + " = " + value);
-                                    }
-                                    
-                                    // 尝试修改这个子字段
-                                    if (subName.contains("MIN") && value > minProtocolVersion) {
-                                        subField.set(fieldValue, minProtocolVersion);
-                                        modified = true;
-                                        logger.info("修改 " + field.getName() + "." + subField.getName() + " 从 " + value + " 到 " + minProtocolVersion);
-                                    }
-                                    
-                                    if (maxProtocolVersion > 0 && subName.contains("MAX") && value < maxProtocolVersion) {
-                                        subField.set(fieldValue, maxProtocolVersion);
-                                        modified = true;
-                                        logger.info("修改 " + field.getName() + "." + subField.getName() + " 从 " + value + " 到 " + maxProtocolVersion);
-                                    }
-                                }
+                Object fieldValue = field.get(geyser);
+                if (fieldValue != null) {
+                    String valueType = fieldValue.getClass().getName();
+                    debugLog.log(DebugLog.Category.DISCOVERY, () -> "检查 Geyser 字段: " + field.getName() + " (" + valueType + ")");
+                    
+                    // 递归检查这个字段中的所有字段
+                    collectClassFieldWrites(fieldValue.getClass(), writes, index);
+                    
+                    // 如果这个字段是一个对象，尝试修改它的字段
+                    if (!fieldValue.getClass().isPrimitive() && !fieldValue.getClass().getName().startsWith("java.lang")) {
+                        for (Field subField : versionIntFields(fieldValue.getClass(), false, index)) {
+                            String subName = subField.getName().toUpperCase();
+                            subField.setAccessible(true);
+                            int value = subField.getInt(fieldValue);
+                            
+                            debugLog.log(DebugLog.Category.DISCOVERY, () -> "  - 子字段: " + subField.getName() + " = " + value);
+                            
+                            // 尝试修改这个子字段
+                            if (subName.contains("MIN") && value > minProtocolVersion) {
+                                writes.add(new HookPlan.FieldWrite(subField, fieldValue, minProtocolVersion));
+                            }
+                            
+                            if (maxProtocolVersion > 0 && subName.contains("MAX") && value < maxProtocolVersion) {
+                                writes.add(new HookPlan.FieldWrite(subField, fieldValue, maxProtocolVersion));
                             }
                         }
                     }
                 }
             }
         } catch (Exception e) {
-            if (debug) {
-                logger.warning("尝试修改 Geyser 实例字段时出错: " + e.getMessage());
-                e.printStackTrace();
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "尝试读取 Geyser 实例字段时出错: " + e.getMessage(), e);
+        }
+    }
+    
+    private static boolean isGeyserProtocolFieldName(String name) {
+        String lower = name.toLowerCase();
+        return lower.contains("protocol") || lower.contains("version") || lower.contains("translator");
+    }
+    
+    // 重新加载时按来源重新收集一组字段写入。钩子安装后类文件索引已经释放，这里按反射读取字段当前值
+    private HookPlan.FieldWriteGroup collectFieldWriteGroup(String source) {
+        java.util.List<HookPlan.FieldWrite> writes = new java.util.ArrayList<>();
+        try {
+            if (PLAN_GEYSER_FIELDS.equals(source)) {
+                GeyserImpl geyser = GeyserImpl.getInstance();
+                if (geyser == null) {
+                    return null;
+                }
+                collectGeyserFieldWrites(geyser, writes, null);
+            } else {
+                Class<?> clazz = findClass(source, null);
+                if (clazz == null) {
+                    return null;
+                }
+                collectClassFieldWrites(clazz, writes, null);
             }
+        } catch (Exception | LinkageError e) {
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "重新收集 " + source + " 的版本字段时出错: " + e.getMessage(), e);
+            return null;
+        }
+        return new HookPlan.FieldWriteGroup(source, writes);
+    }
+    
+    // 第一次写入某个字段之前记录它的原始值，重新加载时据此恢复
+    private void recordFieldOriginal(HookPlan.FieldWrite write) throws IllegalAccessException {
+        for (HookPlan.FieldWrite original : fieldOriginals) {
+            if (original.field.equals(write.field) && original.target == write.target) {
+                return;
+            }
+        }
+        write.field.setAccessible(true);
+        fieldOriginals.add(new HookPlan.FieldWrite(write.field, write.target, write.field.getInt(write.target)));
+    }
+    
+    private void restoreFieldOriginals() {
+        for (HookPlan.FieldWrite original : fieldOriginals) {
+            try {
+                if (original.target == null) {
+                    modifyStaticIntField(original.field, original.value);
+                } else {
+                    original.field.set(original.target, original.value);
+                }
+            } catch (Exception e) {
+                debugLog.warn(DebugLog.Category.DISCOVERY, () -> "恢复字段 " + original.field.getName() + " 时出错: " + e.getMessage(), null);
+            }
+        }
+    }
+    
+    private boolean commitFieldWrites(HookPlan.FieldWriteGroup group) {
+        boolean modified = false;
+        for (HookPlan.FieldWrite write : group.writes) {
+            try {
+                recordFieldOriginal(write);
+                if (write.target == null) {
+                    modified = modifyStaticIntField(write.field, write.value) || modified;
+                } else {
+                    write.field.set(write.target, write.value);
+                    modified = true;
+                }
+                debugLog.log(DebugLog.Category.DISCOVERY, () -> "成功修改字段 " + write.field.getName() + " 为 " + write.value);
+            } catch (Exception e) {
+                debugLog.warn(DebugLog.Category.DISCOVERY, () -> "尝试修改字段 " + write.field.getName() + " 时出错: " + e.getMessage(), null);
+            }
+        }
+        if (modified) {
+            logger.info("成功修改 " + group.source + " 中的版本信息");
         }
-        
         return modified;
     }
     
@@ -296,9 +845,7 @@ public class ProtocolVersionHook {
         
         // 获取当前值
         int currentValue = field.getInt(null);
-        if (debug) {
-            logger.info("字段 " + field.getName() + " 当前值: " + currentValue);
-        }
+        debugLog.log(DebugLog.Category.DISCOVERY, () -> "字段 " + field.getName() + " 当前值: " + currentValue);
         
         // 移除 final 修饰符
         try {
@@ -308,9 +855,7 @@ public class ProtocolVersionHook {
         } catch (NoSuchFieldException e) {
             // Java 9+ 不支持直接修改 modifiers 字段
             // 尝试使用 VarHandle 或其他方法
-            if (debug) {
-                logger.info("无法移除 final 修饰符，可能是 Java 9+ 环境");
-            }
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "无法移除 final 修饰符，可能是 Java 9+ 环境");
         }
         
         // 设置新值
@@ -321,7 +866,7 @@ public class ProtocolVersionHook {
         return updatedValue == newValue;
     }
     
-    private boolean tryModifySessionManager(GeyserImpl geyser) {
+    private Boolean discoverSessionManager(GeyserImpl geyser) {
         try {
             // 获取会话管理器
             Object sessionManager = getFieldValue(geyser, "sessionManager");
@@ -331,23 +876,18 @@ public class ProtocolVersionHook {
             }
             
             // 由于我们无法直接修改会话管理器中的方法，这里我们只记录找到了会话管理器
-            if (debug) {
-                logger.info("找到会话管理器: " + sessionManager.getClass().getName());
-            }
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到会话管理器: " + sessionManager.getClass().getName());
             
             // 目前我们不实际修改会话管理器，因为这需要字节码操作
-            // 返回 false 表示此方法未成功修改任何内容
             return false;
         } catch (Exception e) {
             logger.warning("修改会话管理器失败: " + e.getMessage());
-            if (debug) {
-                e.printStackTrace();
-            }
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", e);
             return false;
         }
     }
     
-    private boolean tryModifyConnectionHandler() {
+    private HookPlan.CodecLookupTarget discoverConnectionHandler(HookPlanCache.Plan known, GeyserClassIndex index) {
         try {
             // 尝试找到连接处理器类
             String[] possibleHandlerClasses = {
@@ -356,41 +896,30 @@ public class ProtocolVersionHook {
                 "org.geysermc.geyser.network.session.UpstreamPacketHandler"
             };
             
-            Class<?> handlerClass = null;
-            for (String className : possibleHandlerClasses) {
-                try {
-                    handlerClass = Class.forName(className);
-                    if (debug) {
-                        logger.info("找到连接处理器类: " + className);
-                    }
+            String handlerClassName = null;
+            for (String className : candidates(known, PLAN_CONNECTION_HANDLER_CLASS, possibleHandlerClasses)) {
+                if (findClass(className, index) != null) {
+                    handlerClassName = className;
+                    debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到连接处理器类: " + className);
                     break;
-                } catch (ClassNotFoundException ignored) {
-                    // 继续尝试下一个类名
                 }
             }
             
-            if (handlerClass == null) {
+            if (handlerClassName == null) {
                 logger.warning("无法找到连接处理器类");
-                return false;
+                return null;
             }
             
-            // 尝试查找和修改 BedrockCodec 类
-            boolean modified = tryModifyBedrockCodec();
-            if (modified) {
-                return true;
-            }
-            
-            return false;
+            // 尝试查找 BedrockCodec 类
+            return discoverBedrockCodec(handlerClassName, known, index);
         } catch (Exception e) {
             logger.warning("修改连接处理器失败: " + e.getMessage());
-            if (debug) {
-                e.printStackTrace();
-            }
-            return false;
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", e);
+            return null;
         }
     }
     
-    private boolean tryModifyBedrockCodec() {
+    private HookPlan.CodecLookupTarget discoverBedrockCodec(String handlerClassName, HookPlanCache.Plan known, GeyserClassIndex index) {
         try {
             // 尝试找到 BedrockCodec 类
             String[] possibleCodecClasses = {
@@ -401,52 +930,57 @@ public class ProtocolVersionHook {
             };
             
             Class<?> codecClass = null;
-            for (String className : possibleCodecClasses) {
-                try {
-                    codecClass = Class.forName(className);
-                    if (debug) {
-                        logger.info("找到 BedrockCodec 类: " + className);
-                    }
+            for (String className : candidates(known, PLAN_CODEC_CLASS, possibleCodecClasses)) {
+                codecClass = findClass(className, index);
+                if (codecClass != null) {
+                    debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到 BedrockCodec 类: " + className);
                     break;
-                } catch (ClassNotFoundException ignored) {
-                    // 继续尝试下一个类名
                 }
             }
             
             if (codecClass == null) {
                 logger.warning("无法找到 BedrockCodec 类");
-                return false;
+                return null;
             }
             
             // 尝试获取 CODEC_LOOKUP 字段
+            GeyserClassIndex.ClassInfo codecInfo = index != null ? index.find(codecClass.getName()) : null;
             Field lookupField = null;
             String[] possibleLookupFields = {
                 "CODEC_LOOKUP", "SUPPORTED_CODECS", "CODECS", "CODEC_BY_VERSION"
             };
             
-            for (String fieldName : possibleLookupFields) {
+            for (String fieldName : candidates(known, PLAN_CODEC_LOOKUP_FIELD, possibleLookupFields)) {
+                if (codecInfo != null && codecInfo.field(fieldName) == null) {
+                    continue;
+                }
                 try {
                     lookupField = codecClass.getDeclaredField(fieldName);
-                    if (debug) {
-                        logger.info("找到 CODEC_LOOKUP 字段: " + fieldName);
-                    }
+                    debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到 CODEC_LOOKUP 字段: " + fieldName);
                     break;
                 } catch (NoSuchFieldException ignored) {
                     // 继续尝试下一个字段名
                 }
             }
             
-            if (lookupField == null) {
+            if (lookupField == null && codecInfo != null) {
+                // 按描述符查找任何看起来像 Map 的静态字段
+                for (GeyserClassIndex.FieldInfo fieldInfo : codecInfo.fields) {
+                    if (fieldInfo.isStatic() && fieldInfo.isMapOrCollection()) {
+                        lookupField = codecClass.getDeclaredField(fieldInfo.name);
+                        debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到可能的 CODEC_LOOKUP 字段: " + fieldInfo.name);
+                        break;
+                    }
+                }
+            } else if (lookupField == null) {
                 // 尝试查找任何看起来像 Map 的静态字段
                 for (Field field : codecClass.getDeclaredFields()) {
                     if (java.lang.reflect.Modifier.isStatic(field.getModifiers()) && 
-                        (field.getType() == java.util.Map.class || 
-                         field.getType().getName().contains("Map") || 
-                         field.getType().getName().contains("Collection"))) {
+                        (java.util.Map.class.isAssignableFrom(field.getType()) || 
+                         java.util.Collection.class.isAssignableFrom(field.getType()) || 
+                         field.getType().isArray())) {
                         lookupField = field;
-                        if (debug) {
-                            logger.info("找到可能的 CODEC_LOOKUP 字段: " + field.getName());
-                        }
+                        debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到可能的 CODEC_LOOKUP 字段: " + field.getName());
                         break;
                     }
                 }
@@ -454,157 +988,335 @@ public class ProtocolVersionHook {
             
             if (lookupField == null) {
                 logger.warning("无法找到 CODEC_LOOKUP 字段");
-                return false;
+                return null;
             }
             
-            // 尝试修改 CODEC_LOOKUP 字段
             lookupField.setAccessible(true);
             Object lookup = lookupField.get(null);
+            if (!(lookup instanceof java.util.Map)) {
+                return null;
+            }
             
-            if (lookup instanceof java.util.Map) {
-                // 使用原始类型避免泛型转换问题
-                @SuppressWarnings("unchecked")
-                java.util.Map<Object, Object> map = (java.util.Map<Object, Object>) lookup;
-                
-                if (debug) {
-                    logger.info("CODEC_LOOKUP 是一个 Map，包含 " + map.size() + " 个条目");
-                    for (Object key : map.keySet()) {
-                        logger.info("  - 协议版本: " + key);
-                    }
-                }
-                
-                // 尝试找到最新的 codec
-                Object latestCodec = null;
-                Integer latestVersion = null;
-                for (Object key : map.keySet()) {
-                    if (key instanceof Integer) {
-                        int version = (Integer) key;
-                        if (latestVersion == null || version > latestVersion) {
-                            latestVersion = version;
-                            latestCodec = map.get(key);
-                        }
-                    }
-                }
-                
-                if (latestCodec != null && latestVersion != null) {
-                    // 为低版本添加相同的 codec
-                    boolean modified = false;
-                    for (int version = minProtocolVersion; version < latestVersion; version++) {
-                        if (!map.containsKey(version)) {
-                            map.put(version, latestCodec);
-                            if (debug) {
-                                logger.info("添加协议版本 " + version + " 的支持");
-                            }
-                            modified = true;
-                        }
-                    }
-                    
-                    if (modified) {
-                        logger.info("成功修改 BedrockCodec 的 CODEC_LOOKUP，添加了对低版本的支持");
-                        return true;
-                    }
+            // 使用原始类型避免泛型转换问题
+            @SuppressWarnings("unchecked")
+            java.util.Map<Object, Object> map = (java.util.Map<Object, Object>) lookup;
+            
+            // 一次性复制到 int 键的开放寻址表，之后的查找不再装箱。之前由我们添加的版本不计入
+            java.util.Map<Object, Object> source = map;
+            synchronized (this) {
+                if (!addedLookupVersions.isEmpty()) {
+                    source = new java.util.HashMap<>(map);
+                    source.keySet().removeAll(addedLookupVersions);
                 }
             }
+            IntCodecTable table = IntCodecTable.copyOf(source);
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "CODEC_LOOKUP 是一个 Map，包含 " + map.size() + " 个条目，协议版本范围 "
+                        + table.minKey() + " - " + table.maxKey());
             
-            // 尝试查找和修改 GameProtocol 类
-            return tryModifyGameProtocol();
+            return new HookPlan.CodecLookupTarget(handlerClassName, codecClass.getName(), lookupField.getName(), map, table);
         } catch (Exception e) {
             logger.warning("修改 BedrockCodec 失败: " + e.getMessage());
-            if (debug) {
-                e.printStackTrace();
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", e);
+            return null;
+        }
+    }
+    
+    private boolean commitCodecLookup(HookPlan.CodecLookupTarget target) {
+        IntCodecTable table = target.table;
+        java.util.Map<Object, Object> map = target.lookup;
+        
+        // 按需创建模式下，编解码器在对应版本的客户端首次连接时才加入 CODEC_LOOKUP
+        if (lazyCodecs && rewritesBeforeLookup()) {
+            codecLookup = map;
+            // 预热时已经创建的编解码器补进 CODEC_LOOKUP
+            CodecCache cache = codecCache;
+            if (cache != null) {
+                cache.forEach(map::put);
             }
-            return false;
+            logger.info("CODEC_LOOKUP 将按需添加低版本编解码器");
+            return true;
+        }
+        
+        // 第一次查找之前就能改写协议版本时，改写路径直接查询这张表，无需往 CODEC_LOOKUP 中逐个写入
+        if (table.size() > 0 && rewritesBeforeLookup()) {
+            logger.info("成功建立 CODEC_LOOKUP 协议版本表，添加了对低版本的支持");
+            return true;
+        }
+        
+        if (table.size() > 0 && syncLookupAdditions(target) > 0) {
+            logger.info("成功修改 BedrockCodec 的 CODEC_LOOKUP，添加了对低版本的支持");
+            return true;
         }
+        return false;
     }
     
-    private boolean tryModifyGameProtocol() {
+    // 让 CODEC_LOOKUP 中由我们添加的版本与 [minProtocolVersion, 最新版本) 一致，只增删变化的部分。
+    // 返回新增的版本数，写入失败时返回 -1
+    private int syncLookupAdditions(HookPlan.CodecLookupTarget target) {
+        IntCodecTable table = target.table;
+        if (table.size() == 0) {
+            return 0;
+        }
+        
+        // 为低版本添加最新的 codec，先在 int 表中筛选，再一次性写入
+        int latestVersion = table.maxKey();
+        Object latestCodec = table.get(latestVersion);
+        java.util.Map<Object, Object> additions = new java.util.HashMap<>();
+        java.util.Set<Integer> wanted = new java.util.HashSet<>();
+        for (int version = minProtocolVersion; version < latestVersion; version++) {
+            if (!table.containsKey(version)) {
+                wanted.add(version);
+                if (!addedLookupVersions.contains(version)) {
+                    additions.put(version, latestCodec);
+                }
+            }
+        }
+        java.util.List<Integer> removals = new java.util.ArrayList<>();
+        for (Integer version : addedLookupVersions) {
+            if (!wanted.contains(version)) {
+                removals.add(version);
+            }
+        }
+        
         try {
-            Class<?> gameProtocolClass = Class.forName("org.geysermc.geyser.network.GameProtocol");
-            if (debug) {
-                logger.info("找到 GameProtocol 类");
+            target.lookup.putAll(additions);
+            for (Integer version : removals) {
+                target.lookup.remove(version);
             }
+        } catch (RuntimeException e) {
+            logger.warning("修改 BedrockCodec 失败: " + e.getMessage());
+            return -1;
+        }
+        addedLookupVersions.retainAll(wanted);
+        for (Object version : additions.keySet()) {
+            addedLookupVersions.add((Integer) version);
+        }
+        debugLog.log(DebugLog.Category.CODEC, () -> "CODEC_LOOKUP 添加了 " + additions.size() + " 个、移除了 " + removals.size() + " 个协议版本");
+        return additions.size();
+    }
+    
+    private HookPlan.GameProtocolTarget discoverGameProtocol(GeyserClassIndex index) {
+        try {
+            Class<?> gameProtocolClass = findClass("org.geysermc.geyser.network.GameProtocol", index);
+            if (gameProtocolClass == null) {
+                throw new ClassNotFoundException("org.geysermc.geyser.network.GameProtocol");
+            }
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到 GameProtocol 类");
             
             // 尝试获取 SUPPORTED_BEDROCK_CODECS 字段
             Field codecsField = gameProtocolClass.getDeclaredField("SUPPORTED_BEDROCK_CODECS");
             codecsField.setAccessible(true);
             
             Object codecs = codecsField.get(null);
-            if (codecs instanceof java.util.List) {
-                @SuppressWarnings("unchecked")
-                java.util.List<Object> codecsList = (java.util.List<Object>) codecs;
-                
-                if (debug) {
-                    logger.info("SUPPORTED_BEDROCK_CODECS 是一个 List，包含 " + codecsList.size() + " 个条目");
-                }
-                
-                // 获取 DEFAULT_BEDROCK_CODEC 字段
-                Field defaultCodecField = gameProtocolClass.getDeclaredField("DEFAULT_BEDROCK_CODEC");
-                defaultCodecField.setAccessible(true);
-                Object defaultCodec = defaultCodecField.get(null);
-                
-                if (defaultCodec != null) {
-                    // 清空列表并添加默认编解码器
-                    codecsList.clear();
-                    codecsList.add(defaultCodec);
-                    
-                    // 获取 BedrockCodec 类
-                    Class<?> bedrockCodecClass = Class.forName("org.cloudburstmc.protocol.bedrock.codec.BedrockCodec");
-                    
-                    // 获取 builder 方法
-                    Method builderMethod = bedrockCodecClass.getMethod("builder");
-                    
-                    // 获取 getProtocolVersion 方法
-                    Method getProtocolVersionMethod = bedrockCodecClass.getMethod("getProtocolVersion");
-                    
-                    // 获取默认编解码器的协议版本
-                    int defaultVersion = (int) getProtocolVersionMethod.invoke(defaultCodec);
-                    
-                    if (debug) {
-                        logger.info("默认编解码器的协议版本: " + defaultVersion);
-                    }
-                    
-                    // 创建一个新的 builder
-                    Object builder = builderMethod.invoke(null);
-                    
-                    // 获取 protocolVersion 方法
-                    Method protocolVersionMethod = builder.getClass().getMethod("protocolVersion", int.class);
-                    
-                    // 获取 build 方法
-                    Method buildMethod = builder.getClass().getMethod("build");
-                    
-                    // 添加所有需要支持的版本
-                    for (int version = minProtocolVersion; version <= defaultVersion; version++) {
-                        // 创建新的 codec
-                        protocolVersionMethod.invoke(builder, version);
-                        Object newCodec = buildMethod.invoke(builder);
-                        
-                        // 添加到列表中
-                        codecsList.add(newCodec);
-                        if (debug) {
-                            logger.info("添加协议版本 " + version + " 的支持");
-                        }
-                    }
-                    
-                    logger.info("成功修改 GameProtocol 的 SUPPORTED_BEDROCK_CODECS，添加了对低版本的支持");
-                    return true;
+            if (!(codecs instanceof java.util.List)) {
+                return null;
+            }
+            
+            @SuppressWarnings("unchecked")
+            java.util.List<Object> codecsList = (java.util.List<Object>) codecs;
+            
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "SUPPORTED_BEDROCK_CODECS 是一个 List，包含 " + codecsList.size() + " 个条目");
+            
+            // 获取 DEFAULT_BEDROCK_CODEC 字段
+            Field defaultCodecField = gameProtocolClass.getDeclaredField("DEFAULT_BEDROCK_CODEC");
+            defaultCodecField.setAccessible(true);
+            Object defaultCodec = defaultCodecField.get(null);
+            if (defaultCodec == null) {
+                return null;
+            }
+            
+            VersionedCodecFactory codecFactory = new VersionedCodecFactory(defaultCodec);
+            int defaultVersion = codecFactory.protocolVersionOf(defaultCodec);
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "默认编解码器的协议版本: " + defaultVersion);
+            
+            // 记录 Geyser 原生支持的版本及其编解码器，跳过之前由我们创建的编解码器
+            java.util.Set<Object> created = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+            synchronized (this) {
+                created.addAll(materializedCodecs.values());
+            }
+            java.util.Map<Integer, Object> nativeCodecs = new java.util.HashMap<>();
+            java.util.List<Object> snapshot;
+            synchronized (codecsList) {
+                snapshot = new java.util.ArrayList<>(codecsList);
+            }
+            for (Object codec : snapshot) {
+                if (!created.contains(codec)) {
+                    nativeCodecs.putIfAbsent(codecFactory.protocolVersionOf(codec), codec);
                 }
             }
+            int minVersion = minProtocolVersion;
+            int maxVersion = maxProtocolVersion;
+            CodecRegistry registry = buildRegistry(nativeCodecs, defaultCodec, defaultVersion, minVersion, maxVersion);
             
-            return false;
-        } catch (Exception e) {
-            logger.warning("修改 GameProtocol 失败: " + e.getMessage());
-            if (debug) {
-                e.printStackTrace();
+            reportRegistryFootprint(registry, codecFactory, defaultVersion, maxVersion > 0 ? maxVersion : defaultVersion);
+            return new HookPlan.GameProtocolTarget(codecsList, defaultCodec, defaultVersion, codecFactory, nativeCodecs, registry);
+        } catch (Throwable t) {
+            logger.warning("修改 GameProtocol 失败: " + t.getMessage());
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", t);
+            return null;
+        }
+    }
+    
+    // Geyser 原生支持的版本各自映射到自己的编解码器，[minVersion, 上限] 中的其余空隙共享默认编解码器
+    private static CodecRegistry buildRegistry(java.util.Map<Integer, Object> nativeCodecs, Object defaultCodec,
+                                               int defaultVersion, int minVersion, int maxVersion) {
+        CodecRegistry.Builder builder = CodecRegistry.builder();
+        for (java.util.Map.Entry<Integer, Object> entry : nativeCodecs.entrySet()) {
+            int version = entry.getKey();
+            builder.add(version, version, entry.getValue(), version);
+        }
+        int upperVersion = maxVersion > 0 ? maxVersion : defaultVersion;
+        builder.fillGaps(minVersion, upperVersion, defaultCodec, defaultVersion);
+        return builder.build();
+    }
+    
+    private boolean commitGameProtocol(HookPlan.GameProtocolTarget target) {
+        CodecRegistry registry = target.registry;
+        
+        // Geyser 第一次查找编解码器之前就能改写协议版本时，空隙中的版本改写到共享编解码器或按需创建，
+        // 不需要预先为每个版本创建编解码器。只拦截了 Login 时不够：1.19.30 起 Geyser 在 RequestNetworkSettings
+        // 就按原始版本查找，找不到会直接断开
+        if (rewritesBeforeLookup()) {
+            if (lazyCodecs && codecCache == null) {
+                codecCache = createCodecCache(target.codecsList, target.codecFactory);
+                logger.info("成功建立 GameProtocol 协议版本区间注册表，低版本编解码器将在首次登录时创建（缓存上限 " + codecCacheSize + "）");
+            } else {
+                logger.info("成功建立 GameProtocol 协议版本区间注册表，添加了对低版本的支持");
             }
+            return true;
+        }
+        
+        // 否则 Geyser 只能按精确版本号查找，只好为空隙中的每个版本创建编解码器
+        discardCodecCache();
+        try {
+            int added = syncMaterializedCodecs(target, registry);
+            logger.info("成功修改 GameProtocol 的 SUPPORTED_BEDROCK_CODECS，添加了 " + added + " 个低版本编解码器");
+            return true;
+        } catch (Throwable t) {
+            logger.warning("修改 GameProtocol 失败: " + t.getMessage());
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", t);
             return false;
         }
     }
     
-    private boolean tryModifyNetworkHandler() {
-        try {
-            // 获取 Geyser 实例
-            GeyserImpl geyser = GeyserImpl.getInstance();
+    // 让 SUPPORTED_BEDROCK_CODECS 中由我们创建的编解码器与注册表的空隙一致，返回新增的数量。
+    // 新的编解码器在锁外创建好，再在列表的锁内一次性完成增删
+    private int syncMaterializedCodecs(HookPlan.GameProtocolTarget target, CodecRegistry registry) throws Throwable {
+        java.util.Set<Integer> wanted = new java.util.HashSet<>();
+        for (int i = 0; i < registry.intervalCount(); i++) {
+            if (registry.intervalCodec(i) != target.defaultCodec) {
+                continue;
+            }
+            for (int version = registry.intervalStart(i); version <= registry.intervalEnd(i); version++) {
+                if (!target.nativeVersions.contains(version)) {
+                    wanted.add(version);
+                }
+            }
+        }
+        
+        java.util.Map<Integer, Object> additions = new java.util.HashMap<>();
+        for (int version : wanted) {
+            if (!materializedCodecs.containsKey(version)) {
+                additions.put(version, target.codecFactory.create(version));
+                debugLog.log(DebugLog.Category.CODEC, null, version, DebugLog.NO_VERSION, () -> "添加协议版本支持");
+            }
+        }
+        java.util.Set<Object> removals = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+        for (java.util.Map.Entry<Integer, Object> entry : materializedCodecs.entrySet()) {
+            if (!wanted.contains(entry.getKey())) {
+                removals.add(entry.getValue());
+            }
+        }
+        
+        synchronized (target.codecsList) {
+            if (!removals.isEmpty()) {
+                target.codecsList.removeIf(removals::contains);
+            }
+            target.codecsList.addAll(additions.values());
+        }
+        materializedCodecs.keySet().retainAll(wanted);
+        materializedCodecs.putAll(additions);
+        if (!removals.isEmpty()) {
+            debugLog.log(DebugLog.Category.CODEC, () -> "移除了 " + removals.size() + " 个不再支持的协议版本");
+        }
+        return additions.size();
+    }
+    
+    // 创建按需编解码器缓存，新建的编解码器加入 Geyser 的列表，被淘汰时再移除
+    private CodecCache createCodecCache(java.util.List<Object> codecsList, VersionedCodecFactory codecFactory) {
+        java.util.concurrent.ExecutorService loader = java.util.concurrent.Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ViaGeyser-CodecLoader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        codecLoader = loader;
+        return new CodecCache(codecCacheSize, codecFactory::create, new CodecCache.Listener() {
+            @Override
+            public void onLoad(int version, Object codec) {
+                synchronized (codecsList) {
+                    codecsList.add(codec);
+                }
+                java.util.Map<Object, Object> lookup = codecLookup;
+                if (lookup != null) {
+                    lookup.put(version, codec);
+                }
+                debugLog.log(DebugLog.Category.CODEC, null, version, DebugLog.NO_VERSION, () -> "按需创建编解码器");
+            }
             
+            @Override
+            public void onEvict(int version, Object codec) {
+                synchronized (codecsList) {
+                    codecsList.removeIf(existing -> existing == codec);
+                }
+                java.util.Map<Object, Object> lookup = codecLookup;
+                if (lookup != null) {
+                    lookup.remove(version, codec);
+                }
+                debugLog.log(DebugLog.Category.CODEC, null, version, DebugLog.NO_VERSION, () -> "淘汰编解码器");
+            }
+        }, loader);
+    }
+    
+    // 报告区间注册表与旧的逐版本创建方式的内存占用对比
+    private void reportRegistryFootprint(CodecRegistry registry, VersionedCodecFactory codecFactory, int defaultVersion, int upperVersion) {
+        long perCodecBytes = measureAllocatedBytes(() -> {
+            try {
+                return codecFactory.create(defaultVersion);
+            } catch (Throwable t) {
+                return null;
+            }
+        });
+        int legacyCodecs = Math.max(0, upperVersion - minProtocolVersion + 1);
+        
+        String perCodec = perCodecBytes < 0 ? "未知" : String.valueOf(perCodecBytes / 1024);
+        String legacyTotal = perCodecBytes < 0 ? "未知" : String.valueOf(perCodecBytes * legacyCodecs / 1024);
+        logger.info("协议版本注册表: " + registry.intervalCount() + " 个区间覆盖 " + registry.versionCount()
+                + " 个版本，共享 " + registry.sharedCodecCount() + " 个编解码器，注册表约 " + registry.estimatedFootprint() + " 字节");
+        logger.info("旧方式需要创建 " + legacyCodecs + " 个编解码器，每个约 " + perCodec + " KB，共约 " + legacyTotal + " KB");
+    }
+    
+    // 测量当前线程执行任务时分配的字节数，JVM 不支持时返回 -1
+    private static long measureAllocatedBytes(java.util.concurrent.Callable<?> task) {
+        java.lang.management.ThreadMXBean threadBean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        try {
+            long before = allocationBean.getCurrentThreadAllocatedBytes();
+            Object result = task.call();
+            long after = allocationBean.getCurrentThreadAllocatedBytes();
+            return result == null ? -1 : after - before;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+    
+    private HookPlan.NetworkHandlerTarget discoverNetworkHandler(GeyserImpl geyser) {
+        try {
             // 获取 bootstrap 字段
             Field bootstrapField = geyser.getClass().getDeclaredField("bootstrap");
             bootstrapField.setAccessible(true);
@@ -615,109 +1327,263 @@ public class ProtocolVersionHook {
             bedrockServerField.setAccessible(true);
             Object bedrockServer = bedrockServerField.get(bootstrap);
             
-            if (bedrockServer != null) {
-                if (debug) {
-                    logger.info("找到 BedrockServer 实例: " + bedrockServer.getClass().getName());
+            if (bedrockServer == null) {
+                return null;
+            }
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到 BedrockServer 实例: " + bedrockServer.getClass().getName());
+            
+            // 获取 BedrockServer 的 packetHandler 字段
+            Field packetHandlerField = bedrockServer.getClass().getDeclaredField("packetHandler");
+            packetHandlerField.setAccessible(true);
+            Object originalHandler = packetHandlerField.get(bedrockServer);
+            if (originalHandler == null) {
+                return null;
+            }
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "找到原始数据包处理器: " + originalHandler.getClass().getName());
+            
+            // 已经包装过的处理器不再重复包装
+            boolean alreadyWrapped = HandlerDelegateFactory.isDelegate(originalHandler);
+            
+            // 一次性解析登录和 RequestNetworkSettings 数据包的字段句柄和默认协议版本
+            java.util.List<Class<?>> loginPacketTypes = new java.util.ArrayList<>();
+            boolean networkSettings = false;
+            for (Method method : HandlerDelegateFactory.collectMethods(HandlerDelegateFactory.collectInterfaces(originalHandler.getClass()))) {
+                if (HandlerDelegateFactory.isInterceptedMethod(method)) {
+                    loginPacketTypes.add(method.getParameterTypes()[0]);
                 }
-                
-                // 创建一个自定义的 PacketHandler
-                createCustomPacketHandler(bedrockServer);
-                
-                logger.info("成功安装自定义数据包处理器");
-                return true;
+                networkSettings |= HandlerDelegateFactory.isNetworkSettingsMethod(method);
+            }
+            LoginPacketAccessor accessor;
+            try {
+                accessor = LoginPacketAccessor.create(loginPacketTypes);
+            } catch (Throwable t) {
+                throw new IllegalStateException("无法解析登录数据包访问器: " + t.getMessage(), t);
             }
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "默认编解码器的协议版本: " + accessor.getDefaultProtocolVersion());
             
-            return false;
+            // 已有的委托可能来自只拦截登录的旧版本，按不拦截 RequestNetworkSettings 处理
+            return new HookPlan.NetworkHandlerTarget(bedrockServer, packetHandlerField, originalHandler, accessor,
+                    alreadyWrapped, networkSettings && !alreadyWrapped);
         } catch (Exception e) {
             logger.warning("修改网络处理器失败: " + e.getMessage());
-            if (debug) {
-                e.printStackTrace();
-            }
-            return false;
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", e);
+            return null;
         }
     }
     
-    private void createCustomPacketHandler(Object bedrockServer) throws Exception {
-        // 获取 BedrockServer 的 packetHandler 字段
-        Field packetHandlerField = bedrockServer.getClass().getDeclaredField("packetHandler");
-        packetHandlerField.setAccessible(true);
-        Object originalHandler = packetHandlerField.get(bedrockServer);
+    private boolean commitNetworkHandler(HookPlan.NetworkHandlerTarget target) {
+        // 先发布访问器，再替换处理器，保证拦截到的第一个登录就能改写
+        LoginPacketAccessor previous = loginPacketAccessor;
+        loginPacketAccessor = target.accessor;
+        networkSettingsIntercepted = target.interceptsNetworkSettings;
         
-        if (originalHandler != null) {
-            if (debug) {
-                logger.info("找到原始数据包处理器: " + originalHandler.getClass().getName());
-            }
-            
-            // 创建一个代理类，包装原始处理器
-            Object proxyHandler = java.lang.reflect.Proxy.newProxyInstance(
-                originalHandler.getClass().getClassLoader(),
-                originalHandler.getClass().getInterfaces(),
-                new java.lang.reflect.InvocationHandler() {
-                    @Override
-                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                        // 如果是处理登录数据包的方法
-                        if (method.getName().contains("Login") && args != null && args.length > 0) {
-                            // 修改协议版本
-                            modifyLoginPacket(args[0]);
-                        }
-                        
-                        // 调用原始方法
-                        return method.invoke(originalHandler, args);
-                    }
-                }
-            );
+        if (target.alreadyWrapped) {
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "数据包处理器已被包装，跳过");
+            return true;
+        }
+        
+        try {
+            // 生成委托类包装原始处理器，只有登录和 RequestNetworkSettings 方法会调用 interceptPacket
+            Object delegateHandler = HandlerDelegateFactory.create(target.originalHandler, this::interceptPacket);
+            debugLog.log(DebugLog.Category.DISCOVERY, () -> "数据包处理器委托类型: " + (java.lang.reflect.Proxy.isProxyClass(delegateHandler.getClass()) ? "Proxy" : "生成的隐藏类"));
             
             // 替换原始处理器
-            packetHandlerField.set(bedrockServer, proxyHandler);
+            target.packetHandlerField.set(target.bedrockServer, delegateHandler);
+            logger.info("成功安装自定义数据包处理器");
+            
+            installFramePatcher(target.bedrockServer, framePatching);
+            return true;
+        } catch (Exception e) {
+            loginPacketAccessor = previous;
+            networkSettingsIntercepted = false;
+            logger.warning("修改网络处理器失败: " + e.getMessage());
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", e);
+            return false;
         }
     }
     
-    private void modifyLoginPacket(Object packet) {
+    // Geyser 第一次按协议版本查找编解码器（1.19.30 起是 RequestNetworkSettings，更早是 Login）之前能否改写协议版本。
+    // 数据包处理器拦截了 RequestNetworkSettings，或者启用了解码前改写时为 true
+    private boolean rewritesBeforeLookup() {
+        return loginPacketAccessor != null && (networkSettingsIntercepted || framePatchActive);
+    }
+    
+    // 1.19.30 起的客户端先发 RequestNetworkSettings，被拒绝时已经在那里记过一次，Login 不再重复计数
+    private static boolean countsRejection(int originalVersion, boolean login) {
+        return !login || originalVersion < CompressionStage.NEGOTIATION_VERSION;
+    }
+    
+    // 在 Bedrock 服务端的流水线中安装字节级处理器，记录每个连接的原始协议版本。
+    // rewrite 为 true 时同时在解码前改写协议版本，失败时保留解码后改写
+    private void installFramePatcher(Object bedrockServer, boolean rewrite) {
         try {
-            if (packet != null) {
-                if (debug) {
-                    logger.info("拦截到登录数据包: " + packet.getClass().getName());
+            ProtocolVersionPatcher.VersionRewriter rewriter = rewrite
+                    ? this::rewriteFrameVersion
+                    : (originalVersion, login, channel) -> originalVersion;
+            int channels = new ProtocolVersionPatcher(rewriter, this::onNetworkSettings, this::onLogin).install(bedrockServer);
+            if (channels == 0) {
+                logger.warning("找不到 Bedrock 服务端的 Channel，无法记录原始协议版本" + (rewrite ? "，也无法在解码前改写" : ""));
+                return;
+            }
+            if (!rewrite) {
+                debugLog.log(DebugLog.Category.DISCOVERY, () -> "已在 " + channels + " 个 Bedrock 服务端 Channel 上记录原始协议版本");
+                return;
+            }
+            framePatchActive = true;
+            logger.info("已在 " + channels + " 个 Bedrock 服务端 Channel 上启用解码前的协议版本改写");
+        } catch (Exception | LinkageError e) {
+            logger.warning("安装字节级协议版本改写失败: " + e.getMessage());
+            debugLog.warn(DebugLog.Category.DISCOVERY, () -> "异常堆栈", e);
+        }
+    }
+    
+    // 字节级改写的回调，在 Netty 事件循环上执行，返回要写回数据包的协议版本。
+    // 准入表不依赖登录数据包访问器，先于其他检查执行
+    int rewriteFrameVersion(int originalVersion, boolean login, io.netty.channel.Channel channel) {
+        long start = System.nanoTime();
+        if (login) {
+            metrics.recordLogin(originalVersion);
+        }
+        try {
+            if (!admits(originalVersion)) {
+                // 每个连接只记一次：连接上已经记录过协议版本，说明先发来的 RequestNetworkSettings 已经计过数
+                boolean first = channel == null ? countsRejection(originalVersion, login)
+                        : SessionProtocolVersions.get(channel) == SessionProtocolVersions.UNKNOWN;
+                if (first) {
+                    metrics.recordRejected();
                 }
-                
-                // 获取 protocolVersion 字段
-                Field protocolVersionField = packet.getClass().getDeclaredField("protocolVersion");
-                protocolVersionField.setAccessible(true);
-                int originalVersion = protocolVersionField.getInt(packet);
-                
-                if (debug) {
-                    logger.info("原始协议版本: " + originalVersion);
+                debugLog.log(DebugLog.Category.LOGIN, channel, originalVersion, REJECTED_PROTOCOL_VERSION, () -> "准入表拒绝");
+                return REJECTED_PROTOCOL_VERSION;
+            }
+            
+            LoginPacketAccessor accessor = loginPacketAccessor;
+            if (accessor == null) {
+                return originalVersion;
+            }
+            int targetVersion = resolveTargetVersion(originalVersion, accessor);
+            if (targetVersion < 0 || targetVersion == originalVersion) {
+                return originalVersion;
+            }
+
+            // 按需创建模式下编解码器已经建好时保留原始版本；
+            // 还没建好时后台开始创建，这次连接先改写到共享编解码器，不在事件循环上等待
+            CodecCache cache = codecCache;
+            if (cache != null && cache.getIfLoaded(originalVersion) != null) {
+                targetVersion = originalVersion;
+            }
+            if (login) {
+                metrics.recordRewrite(System.nanoTime() - start);
+            }
+            debugLog.log(DebugLog.Category.LOGIN, channel, originalVersion, targetVersion,
+                    login ? () -> "解码前改写 Login" : () -> "解码前改写 RequestNetworkSettings");
+            return targetVersion;
+        } catch (Throwable t) {
+            metrics.recordFailure();
+            debugLog.warn(DebugLog.Category.LOGIN, channel, originalVersion, () -> "改写协议版本失败", t);
+            return originalVersion;
+        }
+    }
+    
+    // 数据包处理器收到 Login 或 RequestNetworkSettings 时、交给 Geyser 之前调用
+    private void interceptPacket(Object packet) {
+        LoginPacketAccessor accessor = loginPacketAccessor;
+        if (packet == null || accessor == null) {
+            return;
+        }
+        if (framePatchActive) {
+            // 协议版本已经在解码前改写过
+            return;
+        }
+
+        long start = System.nanoTime();
+        // 处理器层面拿不到 Channel，日志中的会话字段用数据包对象的标识
+        try {
+            if (!accessor.supports(packet)) {
+                String packetType = packet.getClass().getName();
+                debugLog.warn(DebugLog.Category.LOGIN, packet, DebugLog.NO_VERSION,
+                        () -> "数据包 " + packetType + " 中没有 protocolVersion 字段", null);
+                return;
+            }
+
+            boolean login = accessor.isLogin(packet);
+            int originalVersion = accessor.getProtocolVersion(packet);
+            if (login) {
+                metrics.recordLogin(originalVersion);
+            }
+
+            // 准入表在 Geyser 建立会话之前拒绝不允许的版本
+            if (!admits(originalVersion)) {
+                accessor.setProtocolVersion(packet, REJECTED_PROTOCOL_VERSION);
+                if (countsRejection(originalVersion, login)) {
+                    metrics.recordRejected();
                 }
-                
-                // 获取 GameProtocol 类
-                Class<?> gameProtocolClass = Class.forName("org.geysermc.geyser.network.GameProtocol");
-                
-                // 获取 DEFAULT_BEDROCK_CODEC 字段
-                Field defaultCodecField = gameProtocolClass.getDeclaredField("DEFAULT_BEDROCK_CODEC");
-                defaultCodecField.setAccessible(true);
-                Object defaultCodec = defaultCodecField.get(null);
-                
-                // 获取 BedrockCodec 类
-                Class<?> bedrockCodecClass = Class.forName("org.cloudburstmc.protocol.bedrock.codec.BedrockCodec");
-                
-                // 获取 getProtocolVersion 方法
-                Method getProtocolVersionMethod = bedrockCodecClass.getMethod("getProtocolVersion");
-                
-                // 获取默认编解码器的协议版本
-                int defaultVersion = (int) getProtocolVersionMethod.invoke(defaultCodec);
-                
-                // 修改协议版本
-                protocolVersionField.setInt(packet, defaultVersion);
-                
-                if (debug) {
-                    logger.info("修改后的协议版本: " + defaultVersion);
+                debugLog.log(DebugLog.Category.LOGIN, packet, originalVersion, REJECTED_PROTOCOL_VERSION, () -> "准入表拒绝");
+                return;
+            }
+
+            int targetVersion = resolveTargetVersion(originalVersion, accessor);
+            if (targetVersion < 0 || targetVersion == originalVersion) {
+                // 不在支持范围内或 Geyser 原生支持，保持不变
+                debugLog.log(DebugLog.Category.LOGIN, packet, originalVersion, originalVersion, () -> "原生版本或不在范围内，保持不变");
+                return;
+            }
+
+            // 按需创建模式：原始版本的编解码器已经建好时，Geyser 可以直接按原始版本号找到，无需改写；
+            // 还没建好时后台开始创建，这次先改写到共享编解码器
+            CodecCache cache = codecCache;
+            if (cache != null && cache.getIfLoaded(originalVersion) != null) {
+                if (login) {
+                    metrics.recordRewrite(System.nanoTime() - start);
                 }
+                debugLog.log(DebugLog.Category.LOGIN, packet, originalVersion, originalVersion, () -> "使用按需编解码器，缓存 "
+                        + cache.size() + "/" + cache.capacity() + "，命中 " + cache.hits() + "，未命中 " + cache.misses());
+                return;
             }
-        } catch (Exception e) {
-            if (debug) {
-                logger.warning("修改登录数据包失败: " + e.getMessage());
-                e.printStackTrace();
+            accessor.setProtocolVersion(packet, targetVersion);
+            if (login) {
+                metrics.recordRewrite(System.nanoTime() - start);
             }
+            debugLog.log(DebugLog.Category.LOGIN, packet, originalVersion, targetVersion,
+                    login ? () -> "解码后改写 Login" : () -> "解码后改写 RequestNetworkSettings");
+        } catch (Throwable t) {
+            metrics.recordFailure();
+            debugLog.warn(DebugLog.Category.LOGIN, packet, DebugLog.NO_VERSION, () -> "修改数据包协议版本失败", t);
+        }
+    }
+    
+    // 准入检查。Geyser 原生支持的版本和没有钩子时一样始终放行，除非在拒绝列表中明确列出
+    private boolean admits(int version) {
+        VersionAdmission rules = admission;
+        if (rules == null || rules.allows(version)) {
+            return true;
+        }
+        return isNativeVersion(version) && !rules.denies(version);
+    }
+    
+    // Geyser 自带编解码器的版本：注册表中改写目标就是自身的版本，或者在原始 CODEC_LOOKUP 中
+    private boolean isNativeVersion(int version) {
+        CodecRegistry registry = codecRegistry;
+        if (registry != null) {
+            return registry.targetVersion(version) == version;
+        }
+        IntCodecTable table = codecTable;
+        return table != null && table.containsKey(version);
+    }
+    
+    // 按区间注册表找到目标版本；没有注册表时查 CODEC_LOOKUP 表，空隙中的版本改写到最新的编解码器；
+    // 两者都没有时使用默认编解码器的版本（在钩子安装时已解析）。返回 -1 表示不改写
+    private int resolveTargetVersion(int originalVersion, LoginPacketAccessor accessor) {
+        CodecRegistry registry = codecRegistry;
+        if (registry != null) {
+            return registry.targetVersion(originalVersion);
         }
+        
+        IntCodecTable table = codecTable;
+        if (table != null && table.size() > 0) {
+            return table.targetVersion(originalVersion, minProtocolVersion);
+        }
+        
+        return accessor.getDefaultProtocolVersion();
     }
     
     private Object getFieldValue(Object obj, String fieldName) throws Exception {
@@ -0,0 +1,218 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// 在数据包解码之前直接改写 RequestNetworkSettings 和 Login 中的协议版本。
+// 协议版本紧跟在数据包头之后，是大端序的 int32，原地 setInt 即可，不复制、不分配，也不需要反射修改解码后的对象。
+// 改写前会把原始版本记录到连接上（见 SessionProtocolVersions）；Login 之后不会再出现协议版本，处理器随即移除自身。
+@ChannelHandler.Sharable
+final class ProtocolVersionPatcher extends ChannelInboundHandlerAdapter {
+    static final String NAME = "viageyser-protocol-patcher";
+    private static final String CHILD_LISTENER_NAME = "viageyser-child-listener";
+    // cloudburst 协议库中解码单个数据包的处理器，改写必须发生在它之前
+    private static final String PACKET_CODEC_NAME = "bedrock-packet-codec";
+
+    private static final int LOGIN_ID = 0x01;
+    private static final int REQUEST_NETWORK_SETTINGS_ID = 0xC1;
+    private static final int PACKET_ID_MASK = 0x3FF;
+
+    interface VersionRewriter {
+        // 返回要写回数据包的协议版本，返回原值表示不修改。channel 可能为 null；
+        // 调用时本数据包的原始版本还没有记录到 SessionProtocolVersions
+        int rewrite(int original, boolean login, Channel channel);
+    }
+
+    // 解码前的消息是包装对象时，通过 getPacketBuffer() 取出数据包内容
+    private static final ClassValue<MethodHandle> PACKET_BUFFER = new ClassValue<>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                return MethodHandles.publicLookup()
+                        .findVirtual(type, "getPacketBuffer", MethodType.methodType(ByteBuf.class))
+                        .asType(MethodType.methodType(ByteBuf.class, Object.class));
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+    };
+
+    private final VersionRewriter rewriter;
+    private final Consumer<Channel> settingsListener;
+    private final Consumer<Channel> loginListener;
+    private final ChildListener childListener = new ChildListener();
+
+    ProtocolVersionPatcher(VersionRewriter rewriter) {
+        this(rewriter, null, null);
+    }
+
+    // settingsListener 在连接发来 RequestNetworkSettings 之后、数据包交给协议库之前调用；
+    // loginListener 在连接发来 Login 之后、处理器移除自身时调用。两者都可以为空
+    ProtocolVersionPatcher(VersionRewriter rewriter, Consumer<Channel> settingsListener, Consumer<Channel> loginListener) {
+        this.rewriter = rewriter;
+        this.settingsListener = settingsListener;
+        this.loginListener = loginListener;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        ByteBuf buffer = packetBuffer(msg);
+        int packetId = buffer == null ? -1 : patch(buffer, ctx.channel());
+        if (packetId == LOGIN_ID) {
+            ctx.pipeline().remove(this);
+            if (loginListener != null) {
+                loginListener.accept(ctx.channel());
+            }
+        } else if (packetId == REQUEST_NETWORK_SETTINGS_ID && settingsListener != null) {
+            settingsListener.accept(ctx.channel());
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private static ByteBuf packetBuffer(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return (ByteBuf) msg;
+        }
+        MethodHandle getter = PACKET_BUFFER.get(msg.getClass());
+        if (getter == null) {
+            return null;
+        }
+        try {
+            return (ByteBuf) getter.invokeExact(msg);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    // 原地改写一个数据包，channel 不为 null 时记录原始协议版本。
+    // 返回携带协议版本的数据包 ID，其他数据包返回 -1。读写都用绝对下标，不移动 readerIndex
+    int patch(ByteBuf buffer, Channel channel) {
+        int index = buffer.readerIndex();
+        int end = buffer.writerIndex();
+
+        // 数据包头是 varint：低 10 位为数据包 ID，其余为子客户端 ID
+        int header = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (index >= end || shift >= 35) {
+                return -1;
+            }
+            b = buffer.getByte(index++);
+            header |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        int packetId = header & PACKET_ID_MASK;
+        if (packetId != LOGIN_ID && packetId != REQUEST_NETWORK_SETTINGS_ID) {
+            return -1;
+        }
+        if (end - index < 4) {
+            return -1;
+        }
+
+        int original = buffer.getInt(index);
+        int target = rewriter.rewrite(original, packetId == LOGIN_ID, channel);
+        if (target != original) {
+            buffer.setInt(index, target);
+        }
+        // 改写之后再记录，改写回调可以据此判断这是不是连接上第一个带协议版本的数据包
+        if (channel != null) {
+            SessionProtocolVersions.record(channel, original);
+        }
+        return packetId;
+    }
+
+    // 在 bedrockServer 持有的所有服务端 Channel 上安装监听，之后接入的连接都会加入改写处理器。
+    // 返回安装成功的服务端 Channel 数量
+    int install(Object bedrockServer) throws IllegalAccessException {
+        int installed = 0;
+        for (Channel channel : findServerChannels(bedrockServer)) {
+            ChannelPipeline pipeline = channel.pipeline();
+            if (pipeline.get(CHILD_LISTENER_NAME) == null) {
+                pipeline.addFirst(CHILD_LISTENER_NAME, childListener);
+            }
+            installed++;
+        }
+        return installed;
+    }
+
+    // 在子连接的流水线中插入改写处理器，没有数据包解码器时返回 false
+    boolean addTo(ChannelPipeline pipeline) {
+        if (pipeline.get(NAME) != null) {
+            return true;
+        }
+        if (pipeline.get(PACKET_CODEC_NAME) == null) {
+            return false;
+        }
+        pipeline.addBefore(PACKET_CODEC_NAME, NAME, this);
+        return true;
+    }
+
+    // bedrockServer 中类型为 Channel、ChannelFuture 或它们的数组、集合的字段
+    private static List<Channel> findServerChannels(Object bedrockServer) throws IllegalAccessException {
+        List<Channel> channels = new ArrayList<>();
+        for (Class<?> type = bedrockServer.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                collectChannels(field.get(bedrockServer), channels);
+            }
+        }
+        return channels;
+    }
+
+    private static void collectChannels(Object value, List<Channel> channels) {
+        if (value instanceof Channel) {
+            channels.add((Channel) value);
+        } else if (value instanceof ChannelFuture) {
+            channels.add(((ChannelFuture) value).channel());
+        } else if (value instanceof Object[]) {
+            for (Object element : (Object[]) value) {
+                if (element instanceof Channel || element instanceof ChannelFuture) {
+                    collectChannels(element, channels);
+                }
+            }
+        } else if (value instanceof Iterable) {
+            for (Object element : (Iterable<?>) value) {
+                if (element instanceof Channel || element instanceof ChannelFuture) {
+                    collectChannels(element, channels);
+                }
+            }
+        }
+    }
+
+    // 服务端 Channel 上的监听器。新连接先交给 ServerBootstrapAcceptor 注册，
+    // 注册任务排在子连接的事件循环中，这里排在它之后执行，此时 Geyser 的初始化器已经建好了流水线
+    @ChannelHandler.Sharable
+    private final class ChildListener extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ctx.fireChannelRead(msg);
+            if (msg instanceof Channel) {
+                Channel child = (Channel) msg;
+                try {
+                    child.eventLoop().execute(() -> addTo(child.pipeline()));
+                } catch (IllegalStateException | java.util.concurrent.RejectedExecutionException e) {
+                    // 注册失败或事件循环已关闭，连接不会建立
+                }
+            }
+        }
+    }
+}
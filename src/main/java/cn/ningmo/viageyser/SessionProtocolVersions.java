@@ -0,0 +1,28 @@
+package cn.ningmo.viageyser;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+// 每个连接上报的原始协议版本，保存在 Channel 的属性中，连接关闭后随 Channel 一起回收，不需要额外清理。
+// 写入每个连接只发生一次；查找先用 hasAttr 判断，不会为没有记录的连接创建属性，全程不分配对象
+final class SessionProtocolVersions {
+    static final AttributeKey<Integer> ORIGINAL_VERSION = AttributeKey.valueOf("viageyser-original-protocol-version");
+    static final int UNKNOWN = -1;
+
+    private SessionProtocolVersions() {
+    }
+
+    static void record(Channel channel, int originalVersion) {
+        channel.attr(ORIGINAL_VERSION).set(originalVersion);
+    }
+
+    static int get(Channel channel) {
+        if (channel == null || !channel.hasAttr(ORIGINAL_VERSION)) {
+            return UNKNOWN;
+        }
+        Attribute<Integer> attribute = channel.attr(ORIGINAL_VERSION);
+        Integer version = attribute.get();
+        return version == null ? UNKNOWN : version;
+    }
+}
@@ -0,0 +1,349 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 登录时发送的大型静态数据包（创造物品栏、物品组件、实体标识、生物群系、合成配方）对同一协议版本的所有玩家内容相同。
+// 第一次由协议库正常编码，编码结果复制一份保存；之后同版本的连接直接把只读的共享副本填进数据包包装，
+// 协议库看到已有编码结果就不再编码。缓存项保存数据包字段的快照，字段引用的注册表对象变化后自动失效。
+// 某个类型在同一版本上连续多次不匹配，说明它每个会话都重新构建，之后不再保存也不再比较
+final class StaticPacketCache {
+    static final String LOOKUP_NAME = "viageyser-static-packet-lookup";
+    static final String CAPTURE_NAME = "viageyser-static-packet-capture";
+    private static final String PACKET_CODEC_NAME = "bedrock-packet-codec";
+
+    // StartGamePacket 中有实体 ID、坐标等每个玩家不同的字段，不能共享；
+    // CraftingDataPacket 由 Geyser 按 Java 服务端发来的配方为每个会话重新构建，元素引用永远不同
+    private static final Set<String> STATIC_PACKETS = Set.of(
+            "CreativeContentPacket",
+            "ItemComponentPacket",
+            "AvailableEntityIdentifiersPacket",
+            "BiomeDefinitionListPacket"
+    );
+
+    // 连续不匹配达到这个次数后停用该类型在该版本上的缓存
+    private static final int MAX_MISMATCHES = 3;
+
+    private static final ClassValue<Boolean> IS_STATIC = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return STATIC_PACKETS.contains(type.getSimpleName());
+        }
+    };
+
+    // 数据包的全部实例字段，无法访问时为 null，这种数据包不缓存
+    private static final ClassValue<Field[]> PACKET_FIELDS = new ClassValue<>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            try {
+                for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                    for (Field field : current.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers())) {
+                            field.setAccessible(true);
+                            fields.add(field);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                return null;
+            }
+            return fields.toArray(new Field[0]);
+        }
+    };
+
+    private final Map<Class<?>, Map<Integer, Slot>> slots = new ConcurrentHashMap<>();
+    private final HookMetrics metrics;
+    private final ChannelHandler lookup = new Lookup();
+    private final ChannelHandler capture = new Capture();
+
+    StaticPacketCache(HookMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // 在数据包编解码器两侧加入查找和保存处理器，没有编解码器时不做任何事
+    void addTo(ChannelPipeline pipeline) {
+        if (pipeline.get(PACKET_CODEC_NAME) == null || pipeline.get(LOOKUP_NAME) != null) {
+            return;
+        }
+        // 出站消息从尾部流向头部：先经过查找，再由编解码器编码，最后经过保存
+        pipeline.addAfter(PACKET_CODEC_NAME, LOOKUP_NAME, lookup);
+        pipeline.addBefore(PACKET_CODEC_NAME, CAPTURE_NAME, capture);
+    }
+
+    // 释放所有缓存的编码结果并重新启用停用的类型，已经发出去的共享副本由各自的引用计数负责释放
+    void clear() {
+        for (Map<Integer, Slot> versions : slots.values()) {
+            for (Iterator<Slot> it = versions.values().iterator(); it.hasNext(); ) {
+                Slot slot = it.next();
+                it.remove();
+                slot.disable();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Map<Integer, Slot> versions : slots.values()) {
+            for (Slot slot : versions.values()) {
+                if (slot.entry != null) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    private void visit(Channel channel, Object msg, boolean capturing) {
+        PacketWrappers access = PacketWrappers.of(msg.getClass());
+        if (access.packets != null) {
+            // 批量包装，逐个处理其中的数据包
+            List<?> packets = access.packets(msg);
+            if (packets != null) {
+                for (int i = 0; i < packets.size(); i++) {
+                    Object element = packets.get(i);
+                    if (element != null) {
+                        visit(channel, element, capturing);
+                    }
+                }
+            }
+        } else if (access.packet != null) {
+            if (capturing) {
+                capture(channel, access, msg);
+            } else {
+                substitute(channel, access, msg);
+            }
+        }
+    }
+
+    private void substitute(Channel channel, PacketWrappers access, Object wrapper) {
+        if (access.packetBuffer(wrapper) != null) {
+            return;
+        }
+        Object packet = access.packet(wrapper);
+        if (packet == null || !IS_STATIC.get(packet.getClass()) || !access.isMainClient(wrapper)) {
+            return;
+        }
+        int version = SessionProtocolVersions.get(channel);
+        if (version == SessionProtocolVersions.UNKNOWN) {
+            return;
+        }
+
+        Map<Integer, Slot> versions = slots.get(packet.getClass());
+        Slot slot = versions == null ? null : versions.get(version);
+        Entry entry = slot == null ? null : slot.entry;
+        if (entry == null) {
+            metrics.recordStaticPacket(false, 0);
+            return;
+        }
+        if (!entry.matches(packet)) {
+            if (slot.mismatches.incrementAndGet() >= MAX_MISMATCHES) {
+                slot.disable();
+                metrics.recordStaticPacketDisabled();
+            }
+            metrics.recordStaticPacket(false, 0);
+            return;
+        }
+        slot.mismatches.set(0);
+        ByteBuf shared;
+        try {
+            shared = entry.encoded.retainedDuplicate().asReadOnly();
+        } catch (io.netty.util.IllegalReferenceCountException e) {
+            // 缓存项刚被替换或清空
+            return;
+        }
+        access.setPacketBuffer(wrapper, shared);
+        metrics.recordStaticPacket(true, shared.readableBytes());
+    }
+
+    private void capture(Channel channel, PacketWrappers access, Object wrapper) {
+        ByteBuf buffer = access.packetBuffer(wrapper);
+        // 只读的缓冲区就是查找时填入的共享副本
+        if (buffer == null || buffer.isReadOnly()) {
+            return;
+        }
+        Object packet = access.packet(wrapper);
+        if (packet == null || !IS_STATIC.get(packet.getClass()) || !access.isMainClient(wrapper)) {
+            return;
+        }
+        int version = SessionProtocolVersions.get(channel);
+        if (version == SessionProtocolVersions.UNKNOWN) {
+            return;
+        }
+        Slot slot = slots.computeIfAbsent(packet.getClass(), type -> new ConcurrentHashMap<>())
+                .computeIfAbsent(version, v -> new Slot());
+        if (slot.disabled) {
+            return;
+        }
+        Object[] snapshot = snapshot(packet);
+        if (snapshot == null) {
+            return;
+        }
+
+        int length = buffer.readableBytes();
+        ByteBuf copy = Unpooled.directBuffer(length, length).writeBytes(buffer, buffer.readerIndex(), length);
+        slot.replace(new Entry(snapshot, copy));
+    }
+
+    private static Object[] snapshot(Object packet) {
+        Field[] fields = PACKET_FIELDS.get(packet.getClass());
+        if (fields == null) {
+            return null;
+        }
+        Object[] values = new Object[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                values[i] = fields[i].get(packet);
+            }
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+        return values;
+    }
+
+    // 判断两个字段值编码后是否一定相同。注册表对象按引用比较；
+    // Geyser 每次新建的列表和数组只比较元素引用，元素来自同一个注册表时成立
+    private static boolean sameContent(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof Number || a instanceof String || a instanceof Boolean || a instanceof Character || a instanceof Enum) {
+            return a.equals(b);
+        }
+        if (a instanceof List && b instanceof List) {
+            List<?> left = (List<?>) a;
+            List<?> right = (List<?>) b;
+            if (left.size() != right.size()) {
+                return false;
+            }
+            for (int i = 0; i < left.size(); i++) {
+                if (left.get(i) != right.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof Object[] && b instanceof Object[]) {
+            Object[] left = (Object[]) a;
+            Object[] right = (Object[]) b;
+            if (left.length != right.length) {
+                return false;
+            }
+            for (int i = 0; i < left.length; i++) {
+                if (left[i] != right[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof Collection && b instanceof Collection) {
+            Collection<?> left = (Collection<?>) a;
+            Collection<?> right = (Collection<?>) b;
+            if (left.size() != right.size()) {
+                return false;
+            }
+            Iterator<?> rightIterator = right.iterator();
+            for (Object element : left) {
+                if (element != rightIterator.next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // 一个数据包类型在一个协议版本上的缓存状态。替换和停用在 Slot 上同步，查找只读 volatile 字段
+    private static final class Slot {
+        volatile Entry entry;
+        volatile boolean disabled;
+        // 查找时连续不匹配的次数，命中时归零
+        final AtomicInteger mismatches = new AtomicInteger();
+
+        synchronized void replace(Entry next) {
+            if (disabled) {
+                next.encoded.release();
+                return;
+            }
+            Entry previous = entry;
+            entry = next;
+            if (previous != null) {
+                previous.encoded.release();
+            }
+        }
+
+        synchronized void disable() {
+            disabled = true;
+            Entry previous = entry;
+            entry = null;
+            if (previous != null) {
+                previous.encoded.release();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Object[] snapshot;
+        final ByteBuf encoded;
+
+        Entry(Object[] snapshot, ByteBuf encoded) {
+            this.snapshot = snapshot;
+            this.encoded = encoded;
+        }
+
+        boolean matches(Object packet) {
+            Field[] fields = PACKET_FIELDS.get(packet.getClass());
+            if (fields == null || fields.length != snapshot.length) {
+                return false;
+            }
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    if (!sameContent(fields[i].get(packet), snapshot[i])) {
+                        return false;
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private final class Lookup extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            visit(ctx.channel(), msg, false);
+            ctx.write(msg, promise);
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private final class Capture extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            visit(ctx.channel(), msg, true);
+            ctx.write(msg, promise);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package cn.ningmo.viageyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 协议版本准入表。
+// 配置中的区间、允许列表和拒绝列表在启动时编译成 long[] 位图，登录路径上一次数组访问即可判断是否放行。
+final class VersionAdmission {
+    private final long[] bits;
+    private final boolean allowAbove; // 超出位图范围的版本是否放行（区间没有上限时）
+    private final int[] denied; // 拒绝列表，有序
+
+    private VersionAdmission(long[] bits, boolean allowAbove, int[] denied) {
+        this.bits = bits;
+        this.allowAbove = allowAbove;
+        this.denied = denied;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    boolean allows(int version) {
+        if (version < 0) {
+            return false;
+        }
+        int word = version >>> 6;
+        if (word >= bits.length) {
+            return allowAbove;
+        }
+        return (bits[word] & (1L << version)) != 0;
+    }
+
+    // 是否在拒绝列表中。Geyser 原生支持的版本不受区间限制，只有明确拒绝时才拦截
+    boolean denies(int version) {
+        return Arrays.binarySearch(denied, version) >= 0;
+    }
+
+    // 最低的放行版本，没有任何放行版本时返回 -1
+    int lowestAllowed() {
+        for (int word = 0; word < bits.length; word++) {
+            if (bits[word] != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits[word]);
+            }
+        }
+        return allowAbove ? bits.length << 6 : -1;
+    }
+
+    // 最高的放行版本，没有上限或没有任何放行版本时返回 -1
+    int highestAllowed() {
+        if (allowAbove) {
+            return -1;
+        }
+        for (int word = bits.length - 1; word >= 0; word--) {
+            if (bits[word] != 0) {
+                return (word << 6) + 63 - Long.numberOfLeadingZeros(bits[word]);
+            }
+        }
+        return -1;
+    }
+
+    int allowedCount() {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    boolean isOpenEnded() {
+        return allowAbove;
+    }
+
+    // 解析 "390-419"、"712" 或 "800-"（没有上限）形式的区间，返回 {起点, 终点}，终点为 -1 表示没有上限
+    static int[] parseRange(String text) {
+        String value = text.trim();
+        try {
+            int dash = value.indexOf('-');
+            if (dash < 0) {
+                int version = Integer.parseInt(value);
+                return new int[] { version, version };
+            }
+            int start = Integer.parseInt(value.substring(0, dash).trim());
+            String endText = value.substring(dash + 1).trim();
+            int end = endText.isEmpty() ? -1 : Integer.parseInt(endText);
+            if (start < 0 || (end >= 0 && end < start)) {
+                throw new IllegalArgumentException("无效的协议版本区间: " + text);
+            }
+            return new int[] { start, end };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的协议版本区间: " + text, e);
+        }
+    }
+
+    static final class Builder {
+        private final List<int[]> ranges = new ArrayList<>();
+        private final List<Integer> denied = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        // 放行 [start, end]，end 为 -1 表示没有上限
+        Builder allowRange(int start, int end) {
+            ranges.add(new int[] { Math.max(0, start), end });
+            return this;
+        }
+
+        Builder allow(int version) {
+            return allowRange(version, version);
+        }
+
+        // 拒绝列表优先于所有放行规则
+        Builder deny(int version) {
+            if (version >= 0) {
+                denied.add(version);
+            }
+            return this;
+        }
+
+        VersionAdmission build() {
+            int limit = 0;
+            boolean openEnded = false;
+            for (int[] range : ranges) {
+                limit = Math.max(limit, Math.max(range[0], range[1]) + 1);
+                openEnded |= range[1] < 0;
+            }
+            for (int version : denied) {
+                limit = Math.max(limit, version + 1);
+            }
+
+            long[] bits = new long[(limit + 63) >>> 6];
+            int top = bits.length << 6;
+            for (int[] range : ranges) {
+                int end = range[1] < 0 ? top - 1 : range[1];
+                for (int version = range[0]; version <= end; version++) {
+                    bits[version >>> 6] |= 1L << version;
+                }
+            }
+            for (int version : denied) {
+                bits[version >>> 6] &= ~(1L << version);
+            }
+            int[] deniedVersions = denied.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+            return new VersionAdmission(bits, openEnded, deniedVersions);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package cn.ningmo.viageyser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+// 登录协议版本的滚动直方图，保存在数据目录中，重启后用来决定预热哪些版本。
+// 旧的计数按 7 天半衰期衰减，最近的流量权重更高，不再出现的版本会逐渐淡出。
+//
+// 文件格式：
+//   # 注释
+//   updated=<毫秒时间戳>
+//   <协议版本>=<衰减后的计数>
+final class VersionHistory {
+    private static final long HALF_LIFE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final String UPDATED_KEY = "updated";
+    // 衰减到这个值以下的版本不再写入文件
+    private static final double MIN_WEIGHT = 0.01;
+
+    private final File file;
+    // 上次保存时的直方图（已衰减到 updatedAt）
+    private final Map<Integer, Double> weights;
+    private long updatedAt;
+    // 上次保存时 HookMetrics 中各版本的累计数，用来计算两次保存之间的增量
+    private final Map<Integer, Long> savedCounts = new HashMap<>();
+    // savedCounts 对应的统计对象，换了对象说明统计从零重新开始
+    private HookMetrics savedFrom;
+
+    private VersionHistory(File file, Map<Integer, Double> weights, long updatedAt) {
+        this.file = file;
+        this.weights = weights;
+        this.updatedAt = updatedAt;
+    }
+
+    // 读取历史文件，文件不存在或损坏时从空直方图开始
+    static VersionHistory load(File file, Logger logger) {
+        Map<Integer, Double> weights = new TreeMap<>();
+        long updatedAt = System.currentTimeMillis();
+        if (!file.isFile()) {
+            return new VersionHistory(file, weights, updatedAt);
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int separator = line.indexOf('=');
+                if (line.isEmpty() || line.startsWith("#") || separator < 0) {
+                    continue;
+                }
+                String key = line.substring(0, separator).trim();
+                String value = line.substring(separator + 1).trim();
+                if (key.equals(UPDATED_KEY)) {
+                    updatedAt = Long.parseLong(value);
+                } else {
+                    weights.put(Integer.parseInt(key), Double.parseDouble(value));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warning("读取协议版本历史失败，将重新统计: " + e.getMessage());
+            weights.clear();
+            updatedAt = System.currentTimeMillis();
+        }
+        return new VersionHistory(file, weights, updatedAt);
+    }
+
+    // 按流量从高到低取版本，直到累计占比达到 coverage 或数量达到 limit；没有历史时返回空列表
+    synchronized List<Integer> topVersions(double coverage, int limit) {
+        List<Map.Entry<Integer, Double>> entries = new ArrayList<>(weights.entrySet());
+        entries.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+        double total = 0;
+        for (Map.Entry<Integer, Double> entry : entries) {
+            total += entry.getValue();
+        }
+        List<Integer> top = new ArrayList<>();
+        double covered = 0;
+        for (Map.Entry<Integer, Double> entry : entries) {
+            if (top.size() >= limit || (total > 0 && covered / total >= coverage)) {
+                break;
+            }
+            top.add(entry.getKey());
+            covered += entry.getValue();
+        }
+        return top;
+    }
+
+    // 把本次运行新增的登录并入直方图并写回文件。可以重复调用，每次只并入上次保存之后的增量
+    synchronized void save(HookMetrics metrics) throws IOException {
+        long now = System.currentTimeMillis();
+        double decay = Math.pow(0.5, Math.max(0, now - updatedAt) / (double) HALF_LIFE_MILLIS);
+        weights.replaceAll((version, weight) -> weight * decay);
+        if (metrics != savedFrom) {
+            savedCounts.clear();
+            savedFrom = metrics;
+        }
+        List<long[]> counts = metrics.versionCounts();
+        if (counts.size() < savedCounts.size()) {
+            // 上次出现过的版本不见了，统计被重置过
+            savedCounts.clear();
+        }
+        for (long[] count : counts) {
+            int version = (int) count[0];
+            long previous = savedCounts.getOrDefault(version, 0L);
+            // 计数比上次保存时少，说明统计被重置过，当前计数全部是重置之后的新登录
+            long delta = count[1] >= previous ? count[1] - previous : count[1];
+            if (delta > 0) {
+                weights.merge(version, (double) delta, Double::sum);
+            }
+            savedCounts.put(version, count[1]);
+        }
+        weights.values().removeIf(weight -> weight < MIN_WEIGHT);
+        updatedAt = now;
+
+        Files.createDirectories(file.getParentFile().toPath());
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("# ViaGeyser 登录协议版本历史，按 7 天半衰期衰减，用于启动时预热" + System.lineSeparator());
+            writer.write(UPDATED_KEY + "=" + updatedAt + System.lineSeparator());
+            for (Map.Entry<Integer, Double> entry : weights.entrySet()) {
+                writer.write(entry.getKey() + "=" + String.format(Locale.ROOT, "%.2f", entry.getValue()) + System.lineSeparator());
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,66 @@
+package cn.ningmo.viageyser;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// 基于默认编解码器创建指定协议版本的编解码器。
+// builder 相关的方法句柄只解析一次，优先使用 toBuilder() 以保留默认编解码器中的数据包定义。
+final class VersionedCodecFactory {
+    private static final MethodType GETTER_TYPE = MethodType.methodType(int.class, Object.class);
+
+    private final Object defaultCodec;
+    private final MethodHandle newBuilder;
+    private final MethodHandle protocolVersion;
+    private final MethodHandle build;
+    private final MethodHandle getProtocolVersion;
+    private final boolean copiesDefinitions;
+
+    VersionedCodecFactory(Object defaultCodec) throws ReflectiveOperationException {
+        this.defaultCodec = defaultCodec;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Class<?> codecClass = defaultCodec.getClass();
+
+        MethodHandle builderHandle;
+        boolean copies;
+        try {
+            builderHandle = lookup.unreflect(codecClass.getMethod("toBuilder"))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            copies = true;
+        } catch (NoSuchMethodException e) {
+            // 旧版本没有 toBuilder()，退回到空的 builder()
+            builderHandle = MethodHandles.dropArguments(
+                    lookup.unreflect(codecClass.getMethod("builder")).asType(MethodType.methodType(Object.class)),
+                    0, Object.class);
+            copies = false;
+        }
+        this.newBuilder = builderHandle;
+        this.copiesDefinitions = copies;
+
+        Class<?> builderClass = codecClass.getMethod(copies ? "toBuilder" : "builder").getReturnType();
+        this.protocolVersion = lookup.unreflect(builderClass.getMethod("protocolVersion", int.class))
+                .asType(MethodType.methodType(Object.class, Object.class, int.class));
+        this.build = lookup.unreflect(builderClass.getMethod("build"))
+                .asType(MethodType.methodType(Object.class, Object.class));
+        this.getProtocolVersion = lookup.unreflect(codecClass.getMethod("getProtocolVersion"))
+                .asType(GETTER_TYPE);
+    }
+
+    Object getDefaultCodec() {
+        return defaultCodec;
+    }
+
+    boolean copiesDefinitions() {
+        return copiesDefinitions;
+    }
+
+    Object create(int version) throws Throwable {
+        Object builder = (Object) newBuilder.invokeExact(defaultCodec);
+        Object versioned = (Object) protocolVersion.invokeExact(builder, version);
+        return (Object) build.invokeExact(versioned == null ? builder : versioned);
+    }
+
+    int protocolVersionOf(Object codec) throws Throwable {
+        return (int) getProtocolVersion.invokeExact(codec);
+    }
+}
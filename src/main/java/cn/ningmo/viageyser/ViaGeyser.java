@@ -1,9 +1,27 @@
 package cn.ningmo.viageyser;
 
+import io.netty.channel.Channel;
+import org.bukkit.command.PluginCommand;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 import org.geysermc.geyser.GeyserImpl;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public class ViaGeyser extends JavaPlugin {
+    // agent 启动时设置的系统属性。agent 在单独的 jar 中，这里不直接引用它的类
+    private static final String AGENT_PROPERTY = "viageyser.agent";
+
+    private ProtocolVersionHook hook;
+    private HookApplier hookApplier;
+    private HookMetrics metrics;
+    private BukkitTask metricsFlushTask;
+    private VersionHistory versionHistory;
+    private DebugLog debugLog;
+    private CompletableFuture<Boolean> hookFuture = CompletableFuture.completedFuture(false);
 
     @Override
     public void onEnable() {
@@ -18,59 +36,264 @@ public class ViaGeyser extends JavaPlugin {
         
         getLogger().info("ViaGeyser 插件正在启动...");
         
-        // 等待 Geyser 完全加载
-        getServer().getScheduler().runTaskLater(this, () -> {
-            try {
-                // 确保 Geyser 已加载
-                if (GeyserImpl.getInstance() == null) {
-                    getLogger().warning("Geyser 尚未加载，无法应用版本钩子");
-                    return;
-                }
-                
-                // 从配置中获取版本设置
-                int minVersion = getConfig().getInt("min-protocol-version", 400);
-                int maxVersion = getConfig().getInt("max-protocol-version", -1);
-                boolean debug = getConfig().getBoolean("debug", false);
-                
-                if (debug) {
-                    getLogger().info("调试模式已启用");
-                    getLogger().info("最低协议版本: " + minVersion);
-                    getLogger().info("最高协议版本: " + (maxVersion == -1 ? "不限制" : maxVersion));
-                }
-                
-                // 应用协议版本钩子
-                ProtocolVersionHook hook = new ProtocolVersionHook(getLogger());
-                hook.setMinProtocolVersion(minVersion);
-                hook.setMaxProtocolVersion(maxVersion);
-                hook.setDebug(debug);
-                
-                boolean success = hook.applyHook();
-                
-                if (success) {
-                    getLogger().info("成功应用 Geyser 协议版本钩子！");
-                } else {
-                    getLogger().warning("应用 Geyser 协议版本钩子失败，请检查日志获取详细信息");
-                    
-                    // 如果第一次尝试失败，再次尝试
-                    getServer().getScheduler().runTaskLater(this, () -> {
-                        getLogger().info("正在重新尝试应用 Geyser 协议版本钩子...");
-                        boolean retrySuccess = hook.applyHook();
-                        if (retrySuccess) {
-                            getLogger().info("成功应用 Geyser 协议版本钩子！");
-                        } else {
-                            getLogger().warning("重新尝试应用 Geyser 协议版本钩子仍然失败");
-                        }
-                    }, 200L); // 再等待 10 秒
-                }
-            } catch (Exception e) {
-                getLogger().severe("启用 ViaGeyser 时发生错误: " + e.getMessage());
-                e.printStackTrace();
+        try {
+            // 从配置中获取版本设置
+            int minVersion = getConfig().getInt("min-protocol-version", 400);
+            int maxVersion = getConfig().getInt("max-protocol-version", -1);
+            boolean debug = getConfig().getBoolean("debug", false);
+            boolean lazyCodecs = "lazy".equalsIgnoreCase(getConfig().getString("codec-mode", "shared"));
+            int codecCacheSize = getConfig().getInt("codec-cache-size", 32);
+            boolean framePatching = getConfig().getBoolean("rewrite-before-decode", false);
+            
+            // 准入规则编译成位图，最低和最高协议版本以编译结果为准
+            VersionAdmission admission = loadAdmission(minVersion, maxVersion);
+            if (admission.lowestAllowed() >= 0) {
+                minVersion = admission.lowestAllowed();
+                maxVersion = admission.highestAllowed();
+            }
+            
+            if (debug) {
+                getLogger().info("调试模式已启用");
+                getLogger().info("最低协议版本: " + minVersion);
+                getLogger().info("最高协议版本: " + (maxVersion == -1 ? "不限制" : maxVersion));
+                getLogger().info("允许的协议版本数: " + admission.allowedCount() + (admission.isOpenEnded() ? "（不限制最高版本）" : ""));
+                getLogger().info("编解码器模式: " + (lazyCodecs ? "按需创建（缓存上限 " + codecCacheSize + "）" : "共享"));
+            }
+            
+            hook = new ProtocolVersionHook(getLogger());
+            hook.setMinProtocolVersion(minVersion);
+            hook.setMaxProtocolVersion(maxVersion);
+            if (debug) {
+                debugLog = DebugLog.start(getLogger(), loadDebugRates());
+                hook.setDebugLog(debugLog);
+            }
+            hook.setLazyCodecs(lazyCodecs);
+            hook.setCodecCacheSize(codecCacheSize);
+            hook.setFramePatching(framePatching);
+            hook.setAdmission(admission);
+            hook.setStaticPacketCaching(getConfig().getBoolean("static-packet-cache", true));
+            hook.setCompressionStage(getConfig().getBoolean("legacy-compression", true));
+            hook.setChunkCache(getConfig().getLong("chunk-cache.max-megabytes", 64) * 1024 * 1024,
+                    getConfig().getInt("chunk-cache.max-entries", 8192));
+            hook.setMappingPacks(loadMappingPacks(getConfig().getBoolean("runtime-id-translation", false)));
+            if (getConfig().getBoolean("cache-hook-plan", true)) {
+                hook.setPlanCache(new HookPlanCache(getLogger(), getDataFolder(), HookPlanCache.computeBuildKey(GeyserImpl.class)));
+            }
+            
+            if (isAgentMode()) {
+                // GameProtocol 已在类加载时被 agent 改写，不再安装反射钩子；协议版本范围以 agent 参数为准。
+                // 登录不经过钩子，没有统计可记，也不读写协议版本历史，否则历史只会衰减
+                getLogger().info("检测到 ViaGeyser agent，跳过运行时钩子");
+                hook = null;
+            } else {
+                metrics = hook.getMetrics();
+                versionHistory = VersionHistory.load(new File(getDataFolder(), "version-history.txt"), getLogger());
+                hook.setPrewarmVersions(prewarmVersions());
+                // 在后台线程等待 Geyser 就绪后应用协议版本钩子，不阻塞主线程
+                hookApplier = new HookApplier(getLogger(), hook);
+                hookFuture = hookApplier.getFuture();
+                hookApplier.start();
+            }
+            
+            // 定期把统计写入数据目录，便于按客户端版本评估容量
+            int flushSeconds = getConfig().getInt("metrics-flush-interval", 300);
+            if (flushSeconds > 0 && metrics != null) {
+                File statsFile = new File(getDataFolder(), "stats.txt");
+                long period = flushSeconds * 20L;
+                metricsFlushTask = getServer().getScheduler().runTaskTimerAsynchronously(this, () -> flushMetrics(statsFile), period, period);
             }
-        }, 100L); // 等待 5 秒确保 Geyser 已完全加载
+            
+            PluginCommand command = getCommand("viageyser");
+            if (command != null) {
+                ViaGeyserCommand executor = new ViaGeyserCommand(this);
+                command.setExecutor(executor);
+                command.setTabCompleter(executor);
+            }
+        } catch (Exception e) {
+            getLogger().severe("启用 ViaGeyser 时发生错误: " + e.getMessage());
+            e.printStackTrace();
+        }
     }
 
     @Override
     public void onDisable() {
+        if (hookApplier != null) {
+            hookApplier.shutdown();
+            hookApplier = null;
+        }
+        if (hook != null) {
+            hook.shutdown();
+            hook = null;
+        }
+        if (debugLog != null) {
+            debugLog.close();
+            debugLog = null;
+        }
+        if (metricsFlushTask != null) {
+            metricsFlushTask.cancel();
+            metricsFlushTask = null;
+            flushMetrics(new File(getDataFolder(), "stats.txt"));
+        } else if (versionHistory != null && metrics != null) {
+            saveVersionHistory();
+        }
         getLogger().info("ViaGeyser 插件已禁用");
     }
-} 
\ No newline at end of file
+
+    // 重新读取配置中的协议版本范围、准入规则和映射包，在后台线程上增量应用到已安装的钩子。
+    // 其他配置项仍需重启后生效。返回 false 表示插件未启用
+    boolean reloadProtocolVersions(Runnable onComplete) {
+        ProtocolVersionHook current = hook;
+        if (current == null) {
+            return false;
+        }
+        
+        reloadConfig();
+        int minVersion = getConfig().getInt("min-protocol-version", 400);
+        int maxVersion = getConfig().getInt("max-protocol-version", -1);
+        VersionAdmission admission = loadAdmission(minVersion, maxVersion);
+        if (admission.lowestAllowed() >= 0) {
+            minVersion = admission.lowestAllowed();
+            maxVersion = admission.highestAllowed();
+        }
+        
+        int newMinVersion = minVersion;
+        int newMaxVersion = maxVersion;
+        boolean idTranslation = getConfig().getBoolean("runtime-id-translation", false);
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            current.setMappingPacks(loadMappingPacks(idTranslation));
+            current.reload(newMinVersion, newMaxVersion, admission);
+            onComplete.run();
+        });
+        return true;
+    }
+
+    // 读取 admission 配置。没有配置区间时使用 min-protocol-version 到 max-protocol-version
+    private VersionAdmission loadAdmission(int minVersion, int maxVersion) {
+        VersionAdmission.Builder builder = VersionAdmission.builder();
+        List<String> ranges = getConfig().getStringList("admission.allowed-ranges");
+        if (ranges.isEmpty()) {
+            builder.allowRange(minVersion, maxVersion);
+        }
+        for (String text : ranges) {
+            try {
+                int[] range = VersionAdmission.parseRange(text);
+                builder.allowRange(range[0], range[1]);
+            } catch (IllegalArgumentException e) {
+                getLogger().warning(e.getMessage());
+            }
+        }
+        for (int version : getConfig().getIntegerList("admission.allowed-versions")) {
+            builder.allow(version);
+        }
+        for (int version : getConfig().getIntegerList("admission.denied-versions")) {
+            builder.deny(version);
+        }
+        return builder.build();
+    }
+
+    // 读取 mappings 文件夹中的映射包，未开启运行时 ID 转换时不加载
+    private MappingPacks loadMappingPacks(boolean enabled) {
+        if (!enabled) {
+            return MappingPacks.empty();
+        }
+        MappingPacks mappingPacks = MappingPacks.load(new File(getDataFolder(), "mappings"), defaultProtocolVersion(), getLogger());
+        if (mappingPacks.size() > 0) {
+            getLogger().warning("已加载 " + mappingPacks.size() + " 个运行时 ID 映射包。运行时 ID 转换是实验性功能，"
+                    + "PlayerAuthInput 中的物品交互、合成配方和其他玩家手中的物品不转换");
+        }
+        return mappingPacks;
+    }
+
+    // Geyser 默认编解码器的协议版本，映射包的目标版本必须与它一致。读取失败时返回 -1，不检查目标版本
+    private int defaultProtocolVersion() {
+        try {
+            return LoginPacketAccessor.resolveDefaultProtocolVersion();
+        } catch (Throwable t) {
+            getLogger().warning("无法读取 Geyser 默认编解码器的协议版本，不检查映射包的目标版本: " + t.getMessage());
+            return -1;
+        }
+    }
+
+    // 读取 debug-rate-limits 中每个类别每秒的日志上限，顺序与 DebugLog.Category 一致，未配置的使用默认值
+    private int[] loadDebugRates() {
+        DebugLog.Category[] categories = DebugLog.Category.values();
+        int[] rates = new int[categories.length];
+        for (int i = 0; i < categories.length; i++) {
+            rates[i] = getConfig().getInt("debug-rate-limits." + categories[i].key, categories[i].defaultRate);
+        }
+        return rates;
+    }
+
+    // 历史上流量最多的版本。钩子在钩子线程上、安装登录拦截之前预热它们，其余版本仍按需创建
+    private List<Integer> prewarmVersions() {
+        if (!getConfig().getBoolean("prewarm.enabled", true)) {
+            return List.of();
+        }
+        return versionHistory.topVersions(getConfig().getDouble("prewarm.coverage", 0.9),
+                getConfig().getInt("prewarm.max-versions", 8));
+    }
+
+    private void flushMetrics(File statsFile) {
+        try {
+            metrics.writeTo(statsFile);
+        } catch (IOException e) {
+            getLogger().warning("写入统计文件失败: " + e.getMessage());
+        }
+        saveVersionHistory();
+    }
+
+    private void saveVersionHistory() {
+        try {
+            versionHistory.save(metrics);
+        } catch (IOException e) {
+            getLogger().warning("写入协议版本历史失败: " + e.getMessage());
+        }
+    }
+
+    HookMetrics getMetrics() {
+        return metrics;
+    }
+
+    // 是否以 java agent 模式运行：GameProtocol 在类加载时已被改写，协议版本范围以 agent 参数为准
+    boolean isAgentMode() {
+        return System.getProperty(AGENT_PROPERTY) != null;
+    }
+
+    // agent 的统计（身份链缓存等）。agent 由系统类加载器加载，只能通过反射读取；没有 agent 时返回空列表
+    List<String> describeAgent() {
+        if (!isAgentMode()) {
+            return List.of();
+        }
+        try {
+            Class<?> cache = Class.forName("cn.ningmo.viageyser.agent.LoginChainCache", false, ClassLoader.getSystemClassLoader());
+            List<String> lines = new java.util.ArrayList<>();
+            for (Object line : (List<?>) cache.getMethod("describe").invoke(null)) {
+                lines.add(String.valueOf(line));
+            }
+            return lines;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return List.of();
+        }
+    }
+
+    // 客户端连接时上报的原始协议版本（改写前），没有记录时返回 -1。
+    // 查找不分配对象，可以在每个数据包上调用
+    public int getOriginalProtocolVersion(Channel channel) {
+        return SessionProtocolVersions.get(channel);
+    }
+
+    // 登记一个客户端版本的数据包转换表，只对之后登录的连接生效。插件未启用或运行在 agent 模式时返回 false
+    public boolean registerPacketTranslator(PacketTranslator translator) {
+        ProtocolVersionHook current = hook;
+        if (current == null) {
+            return false;
+        }
+        current.registerTranslator(translator);
+        return true;
+    }
+
+    // 钩子应用完成后得到结果，true 表示成功；其他插件可以等待它再执行依赖钩子的逻辑
+    public CompletableFuture<Boolean> getHookFuture() {
+        return hookFuture;
+    }
+}
@@ -0,0 +1,79 @@
+package cn.ningmo.viageyser;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// /viageyser 命令
+final class ViaGeyserCommand implements TabExecutor {
+    private static final List<String> SUBCOMMANDS = List.of("stats", "reload");
+
+    private final ViaGeyser plugin;
+
+    ViaGeyserCommand(ViaGeyser plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0) {
+            sender.sendMessage("用法: /" + label + " <stats|reload>");
+            return true;
+        }
+
+        if ("stats".equalsIgnoreCase(args[0])) {
+            HookMetrics metrics = plugin.getMetrics();
+            if (metrics == null && plugin.isAgentMode()) {
+                // agent 模式下登录不经过钩子，只有 agent 自己的统计
+                sender.sendMessage("ViaGeyser 统计（agent 模式）:");
+                for (String line : plugin.describeAgent()) {
+                    sender.sendMessage(line);
+                }
+                return true;
+            }
+            if (metrics == null) {
+                sender.sendMessage("ViaGeyser 未启用，没有统计数据");
+                return true;
+            }
+            sender.sendMessage("ViaGeyser 统计:");
+            for (String line : metrics.describe()) {
+                sender.sendMessage(line);
+            }
+            for (String line : plugin.describeAgent()) {
+                sender.sendMessage(line);
+            }
+            return true;
+        }
+
+        if ("reload".equalsIgnoreCase(args[0])) {
+            if (plugin.isAgentMode()) {
+                // agent 模式下没有运行时钩子，协议版本范围在 JVM 启动时就已写入 GameProtocol
+                sender.sendMessage("ViaGeyser 以 agent 模式运行，协议版本范围由 -javaagent 参数决定，修改后需要重启服务器");
+                return true;
+            }
+            if (!plugin.reloadProtocolVersions(() -> sender.sendMessage("ViaGeyser 协议版本范围已重新加载"))) {
+                sender.sendMessage("ViaGeyser 未启用，无法重新加载");
+            }
+            return true;
+        }
+
+        sender.sendMessage("未知的子命令: " + args[0]);
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> matches = new ArrayList<>();
+        if (args.length == 1) {
+            for (String subcommand : SUBCOMMANDS) {
+                if (subcommand.startsWith(args[0].toLowerCase())) {
+                    matches.add(subcommand);
+                }
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,66 @@
+package cn.ningmo.viageyser.agent;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 被改写后的 GameProtocol 直接调用的静态入口，必须是 public 且不依赖插件中的其他类。
+// 原生版本表在 GameProtocol 初始化完成时登记一次，之后每次查找只做一次二分查找，不分配对象。
+public final class AgentHooks {
+    private static final Logger LOGGER = Logger.getLogger("ViaGeyser");
+
+    private static volatile int minProtocolVersion = 400;
+    private static volatile int maxProtocolVersion = -1;
+
+    // 原生支持的协议版本（升序）和默认编解码器的协议版本
+    private static volatile int[] nativeVersions;
+    private static volatile int defaultVersion = -1;
+
+    private AgentHooks() {
+    }
+
+    static void configure(int minVersion, int maxVersion) {
+        minProtocolVersion = minVersion;
+        maxProtocolVersion = maxVersion;
+    }
+
+    static boolean isRegistered() {
+        return nativeVersions != null;
+    }
+
+    // 在 GameProtocol.<clinit> 的末尾调用，codecs 为 SUPPORTED_BEDROCK_CODECS
+    public static void register(Object codecs, Object defaultCodec) {
+        try {
+            Method getProtocolVersion = defaultCodec.getClass().getMethod("getProtocolVersion");
+            Collection<?> list = codecs instanceof Collection ? (Collection<?>) codecs : List.of();
+            int[] versions = new int[list.size()];
+            int count = 0;
+            for (Object codec : list) {
+                versions[count++] = (int) getProtocolVersion.invoke(codec);
+            }
+            Arrays.sort(versions);
+            defaultVersion = (int) getProtocolVersion.invoke(defaultCodec);
+            nativeVersions = versions;
+            LOGGER.info("agent 已登记 " + versions.length + " 个原生协议版本，默认协议版本 " + defaultVersion);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "agent 无法读取 GameProtocol 的编解码器", e);
+        }
+    }
+
+    // 在 GameProtocol.getBedrockCodec(int) 的开头调用。
+    // 原生版本和范围外的版本保持不变，范围内的其他版本映射到默认编解码器的版本
+    public static int mapVersion(int protocolVersion) {
+        int[] versions = nativeVersions;
+        if (versions == null || Arrays.binarySearch(versions, protocolVersion) >= 0) {
+            return protocolVersion;
+        }
+        int upperVersion = maxProtocolVersion > 0 ? maxProtocolVersion : defaultVersion;
+        if (protocolVersion < minProtocolVersion || protocolVersion > upperVersion) {
+            return protocolVersion;
+        }
+        return defaultVersion;
+    }
+}
@@ -0,0 +1,137 @@
+package cn.ningmo.viageyser.agent;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 在协议库的 EncryptionUtils 加载时，把身份链验证方法改名，
+// 原名位置生成一个包装方法：先查 LoginChainCache，命中直接返回，否则调用原方法并把结果放入缓存。
+// 原方法的代码完全不变，异常照常抛出
+final class EncryptionUtilsTransformer implements ClassFileTransformer {
+    private static final Logger LOGGER = Logger.getLogger("ViaGeyser");
+    static final String ENCRYPTION_UTILS = "org/cloudburstmc/protocol/bedrock/util/EncryptionUtils";
+    private static final String CACHE = "cn/ningmo/viageyser/agent/LoginChainCache";
+    private static final String RENAMED_PREFIX = "viageyser$";
+    // 旧版协议库为 validateChain(List)，新版为 validatePayload(AuthPayload)
+    private static final String[] METHODS = { "validateChain", "validatePayload" };
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (!ENCRYPTION_UTILS.equals(className)) {
+            return null;
+        }
+        try {
+            return rewrite(classfileBuffer);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "agent 改写 EncryptionUtils 失败", e);
+            return null;
+        }
+    }
+
+    static byte[] rewrite(byte[] classfile) {
+        ClassReader reader = new ClassReader(classfile);
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        RewritingVisitor visitor = new RewritingVisitor(writer);
+        reader.accept(visitor, 0);
+        if (visitor.wrapped.isEmpty()) {
+            LOGGER.warning("agent 在 EncryptionUtils 中找不到身份链验证方法");
+            return null;
+        }
+        return writer.toByteArray();
+    }
+
+    private static boolean isTarget(int access, String name, String descriptor) {
+        if ((access & Opcodes.ACC_STATIC) == 0) {
+            return false;
+        }
+        Type[] arguments = Type.getArgumentTypes(descriptor);
+        int returnSort = Type.getReturnType(descriptor).getSort();
+        if (arguments.length != 1 || arguments[0].getSort() != Type.OBJECT || returnSort != Type.OBJECT) {
+            return false;
+        }
+        for (String method : METHODS) {
+            if (method.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class RewritingVisitor extends ClassVisitor {
+        private final List<String[]> wrapped = new ArrayList<>();
+        private final List<String[]> exceptions = new ArrayList<>();
+        private final List<Integer> accesses = new ArrayList<>();
+
+        RewritingVisitor(ClassVisitor next) {
+            super(Opcodes.ASM9, next);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            if (!isTarget(access, name, descriptor)) {
+                return super.visitMethod(access, name, descriptor, signature, exceptions);
+            }
+            wrapped.add(new String[] { name, descriptor, signature });
+            this.exceptions.add(exceptions);
+            accesses.add(access);
+            int renamedAccess = (access & ~(Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) | Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC;
+            return super.visitMethod(renamedAccess, RENAMED_PREFIX + name, descriptor, signature, exceptions);
+        }
+
+        @Override
+        public void visitEnd() {
+            for (int i = 0; i < wrapped.size(); i++) {
+                generateWrapper(accesses.get(i), wrapped.get(i)[0], wrapped.get(i)[1], wrapped.get(i)[2], exceptions.get(i));
+            }
+            super.visitEnd();
+        }
+
+        private void generateWrapper(int access, String name, String descriptor, String signature, String[] exceptions) {
+            String resultType = Type.getReturnType(descriptor).getInternalName();
+            MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+            mv.visitCode();
+
+            // 缓存键带上方法名和描述符，不同验证方法的结果类型不同，不能互相命中
+            String method = name + descriptor;
+
+            // Object cached = LoginChainCache.lookup(input, method); if (cached != null) return (R) cached;
+            Label hit = new Label();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitLdcInsn(method);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, CACHE, "lookup", "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;", false);
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitJumpInsn(Opcodes.IFNONNULL, hit);
+            mv.visitInsn(Opcodes.POP);
+
+            // return (R) LoginChainCache.store(input, method, viageyser$name(input));
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitLdcInsn(method);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, ENCRYPTION_UTILS, RENAMED_PREFIX + name, descriptor, false);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, CACHE, "store", "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)Ljava/lang/Object;", false);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, resultType);
+            mv.visitInsn(Opcodes.ARETURN);
+
+            // 分支目标处局部变量与方法入口相同，栈上是 lookup 的返回值
+            mv.visitLabel(hit);
+            mv.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[] { "java/lang/Object" });
+            mv.visitTypeInsn(Opcodes.CHECKCAST, resultType);
+            mv.visitInsn(Opcodes.ARETURN);
+
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package cn.ningmo.viageyser.agent;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// 在 GameProtocol 加载时改写字节码：
+// getBedrockCodec(int) 开头先经过 AgentHooks.mapVersion，<clinit> 结束前把编解码器列表登记给 AgentHooks。
+// 只在方法开头和 return 前插入直线代码，不改变控制流，原有的栈帧信息可以直接沿用。
+final class GameProtocolTransformer implements ClassFileTransformer {
+    private static final Logger LOGGER = Logger.getLogger("ViaGeyser");
+    static final String GAME_PROTOCOL = "org/geysermc/geyser/network/GameProtocol";
+    private static final String HOOKS = "cn/ningmo/viageyser/agent/AgentHooks";
+    private static final String CODECS_FIELD = "SUPPORTED_BEDROCK_CODECS";
+    private static final String DEFAULT_CODEC_FIELD = "DEFAULT_BEDROCK_CODEC";
+    private static final String LOOKUP_METHOD = "getBedrockCodec";
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (!GAME_PROTOCOL.equals(className)) {
+            return null;
+        }
+        try {
+            return rewrite(classfileBuffer);
+        } catch (RuntimeException e) {
+            // 返回 null 表示保持原样，Geyser 仍能正常启动
+            LOGGER.log(Level.WARNING, "agent 改写 GameProtocol 失败", e);
+            return null;
+        }
+    }
+
+    static byte[] rewrite(byte[] classfile) {
+        ClassReader reader = new ClassReader(classfile);
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        RewritingVisitor visitor = new RewritingVisitor(writer);
+        reader.accept(visitor, 0);
+        if (!visitor.patchedLookup) {
+            LOGGER.warning("agent 在 GameProtocol 中找不到 " + LOOKUP_METHOD + "(int)");
+        }
+        return writer.toByteArray();
+    }
+
+    private static final class RewritingVisitor extends ClassVisitor {
+        // 字段都在方法之前访问，进入 <clinit> 时已经知道两个字段的描述符
+        private String codecsDescriptor;
+        private String defaultCodecDescriptor;
+        private boolean patchedLookup;
+
+        RewritingVisitor(ClassVisitor next) {
+            super(Opcodes.ASM9, next);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            if ((access & Opcodes.ACC_STATIC) != 0) {
+                if (CODECS_FIELD.equals(name)) {
+                    codecsDescriptor = descriptor;
+                } else if (DEFAULT_CODEC_FIELD.equals(name)) {
+                    defaultCodecDescriptor = descriptor;
+                }
+            }
+            return super.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+            boolean isStatic = (access & Opcodes.ACC_STATIC) != 0;
+
+            if (isStatic && LOOKUP_METHOD.equals(name) && descriptor.startsWith("(I)")) {
+                patchedLookup = true;
+                return new MethodVisitor(Opcodes.ASM9, next) {
+                    @Override
+                    public void visitCode() {
+                        super.visitCode();
+                        // protocolVersion = AgentHooks.mapVersion(protocolVersion);
+                        super.visitVarInsn(Opcodes.ILOAD, 0);
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, "mapVersion", "(I)I", false);
+                        super.visitVarInsn(Opcodes.ISTORE, 0);
+                    }
+                };
+            }
+
+            if ("<clinit>".equals(name) && codecsDescriptor != null && defaultCodecDescriptor != null) {
+                return new MethodVisitor(Opcodes.ASM9, next) {
+                    @Override
+                    public void visitInsn(int opcode) {
+                        if (opcode == Opcodes.RETURN) {
+                            // AgentHooks.register(SUPPORTED_BEDROCK_CODECS, DEFAULT_BEDROCK_CODEC);
+                            super.visitFieldInsn(Opcodes.GETSTATIC, GAME_PROTOCOL, CODECS_FIELD, codecsDescriptor);
+                            super.visitFieldInsn(Opcodes.GETSTATIC, GAME_PROTOCOL, DEFAULT_CODEC_FIELD, defaultCodecDescriptor);
+                            super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, "register", "(Ljava/lang/Object;Ljava/lang/Object;)V", false);
+                        }
+                        super.visitInsn(opcode);
+                    }
+                };
+            }
+            return next;
+        }
+    }
+}
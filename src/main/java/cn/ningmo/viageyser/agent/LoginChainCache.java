@@ -0,0 +1,288 @@
+package cn.ningmo.viageyser.agent;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+// 已验证的登录身份链缓存。被改写的 EncryptionUtils 在验证 ES384 签名之前先查这里，
+// 同一条身份链（包含客户端公钥）在有效期内重连时直接返回上次的验证结果。
+// 键是验证方法的名称和描述符加上身份链全部字节的 SHA-256 摘要，validateChain 和 validatePayload 的结果互不混用；
+// 有效期取配置的时长和链中最早的 exp 中较早的一个。
+// 按访问顺序排列的 LinkedHashMap，超出上限时移除最久未使用的条目；每次登录只访问一次，加锁的开销可以忽略
+public final class LoginChainCache {
+    private static volatile long ttlMillis = 600_000;
+    private static volatile int maxEntries = 4096;
+
+    private static final Map<ByteBuffer, Entry> ENTRIES = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder EXPIRED = new LongAdder();
+
+    // lookup 计算出的键留给同一线程对应的 store 使用，避免重复计算摘要。
+    // 两个验证方法可能互相嵌套调用，所以按栈保存；
+    // 原方法抛出异常时不会调用 store，留在栈里的记录由外层的 store 弹出，栈深度超过上限时直接清空
+    private static final ThreadLocal<ArrayDeque<Pending>> PENDING = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final int MAX_PENDING = 8;
+
+    // 每个输入类型的身份链访问方法只查找一次
+    private static final String[] ACCESSORS = { "getChain", "chain", "getToken", "token" };
+    private static final ClassValue<Optional<Method>> ACCESSOR = new ClassValue<>() {
+        @Override
+        protected Optional<Method> computeValue(Class<?> type) {
+            for (String name : ACCESSORS) {
+                Method method;
+                try {
+                    method = type.getMethod(name);
+                } catch (NoSuchMethodException e) {
+                    continue;
+                }
+                try {
+                    // 实现类不是公开类时，公开接口方法也需要放开访问检查
+                    method.setAccessible(true);
+                } catch (RuntimeException e) {
+                    // 模块不开放时照常调用，失败的输入不缓存
+                }
+                return Optional.of(method);
+            }
+            return Optional.empty();
+        }
+    };
+
+    private LoginChainCache() {
+    }
+
+    static void configure(long ttlSeconds, int entries) {
+        ttlMillis = Math.max(0, ttlSeconds) * 1000;
+        maxEntries = Math.max(1, entries);
+    }
+
+    static boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    // 被改写的验证方法开头调用，method 是原方法的名称和描述符。命中时返回缓存的验证结果，否则返回 null
+    public static Object lookup(Object input, String method) {
+        if (ttlMillis <= 0) {
+            return null;
+        }
+        List<String> tokens = tokens(input);
+        if (tokens == null) {
+            return null;
+        }
+        ByteBuffer key = digest(method, tokens);
+        if (key == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    HITS.increment();
+                    return entry.result;
+                }
+                ENTRIES.remove(key);
+                EXPIRED.increment();
+            }
+        }
+        MISSES.increment();
+        ArrayDeque<Pending> pending = PENDING.get();
+        if (pending.size() >= MAX_PENDING) {
+            pending.clear();
+        }
+        pending.push(new Pending(input, method, key, tokens));
+        return null;
+    }
+
+    // 原始验证成功返回后调用，返回 result 本身；验证抛出异常时不会调用，失败的链不会进入缓存
+    public static Object store(Object input, String method, Object result) {
+        ArrayDeque<Pending> stack = PENDING.get();
+        Pending pending = null;
+        // 弹出到与本次调用对应的记录为止，上面残留的是抛出异常的内层调用
+        while (!stack.isEmpty()) {
+            Pending top = stack.pop();
+            if (top.input == input && top.method.equals(method)) {
+                pending = top;
+                break;
+            }
+        }
+        if (pending == null || result == null) {
+            return result;
+        }
+
+        List<String> tokens = pending.tokens;
+        long now = System.currentTimeMillis();
+        long expiresAt = now + ttlMillis;
+        long tokenExpiry = earliestExpiry(tokens);
+        if (tokenExpiry > 0) {
+            expiresAt = Math.min(expiresAt, tokenExpiry);
+        }
+        if (expiresAt <= now) {
+            return result;
+        }
+        synchronized (ENTRIES) {
+            // 最久未使用的一端顺带清掉已过期的条目，超出上限的部分由 removeEldestEntry 移除
+            Iterator<Entry> iterator = ENTRIES.values().iterator();
+            while (iterator.hasNext() && iterator.next().expiresAt <= now) {
+                iterator.remove();
+            }
+            ENTRIES.put(pending.key, new Entry(result, expiresAt));
+        }
+        return result;
+    }
+
+    // 身份链中的所有 JWT。旧版协议库传入 List<String>，新版传入带 getChain() 或 getToken() 的 AuthPayload
+    @SuppressWarnings("unchecked")
+    private static List<String> tokens(Object input) {
+        if (input instanceof List) {
+            for (Object element : (List<?>) input) {
+                if (!(element instanceof String)) {
+                    return null;
+                }
+            }
+            return (List<String>) input;
+        }
+        if (input == null) {
+            return null;
+        }
+        Method method = ACCESSOR.get(input.getClass()).orElse(null);
+        if (method == null) {
+            return null;
+        }
+        try {
+            Object value = method.invoke(input);
+            if (value instanceof String) {
+                return List.of((String) value);
+            }
+            if (value instanceof List) {
+                return tokens(value);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // 无法识别的输入不缓存
+        }
+        return null;
+    }
+
+    private static ByteBuffer digest(String method, List<String> tokens) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(method.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            for (String token : tokens) {
+                digest.update(token.getBytes(StandardCharsets.US_ASCII));
+                digest.update((byte) 0);
+            }
+            return ByteBuffer.wrap(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    // 链中最早的 exp（毫秒），没有 exp 时返回 0
+    private static long earliestExpiry(List<String> tokens) {
+        long earliest = 0;
+        for (String token : tokens) {
+            int first = token.indexOf('.');
+            int second = token.indexOf('.', first + 1);
+            if (first < 0 || second < 0) {
+                continue;
+            }
+            try {
+                String payload = new String(Base64.getUrlDecoder().decode(token.substring(first + 1, second)), StandardCharsets.UTF_8);
+                long exp = readNumber(payload, "\"exp\"");
+                if (exp > 0 && (earliest == 0 || exp * 1000 < earliest)) {
+                    earliest = exp * 1000;
+                }
+            } catch (IllegalArgumentException e) {
+                // 不是合法的 base64，交给原始验证处理
+            }
+        }
+        return earliest;
+    }
+
+    private static long readNumber(String json, String name) {
+        int index = json.indexOf(name);
+        if (index < 0) {
+            return 0;
+        }
+        index = json.indexOf(':', index + name.length());
+        if (index < 0) {
+            return 0;
+        }
+        index++;
+        while (index < json.length() && Character.isWhitespace(json.charAt(index))) {
+            index++;
+        }
+        long value = 0;
+        boolean digits = false;
+        while (index < json.length() && Character.isDigit(json.charAt(index))) {
+            value = value * 10 + (json.charAt(index++) - '0');
+            digits = true;
+        }
+        return digits ? value : 0;
+    }
+
+    // 命中、未命中、过期次数和当前条目数，插件的统计命令通过反射读取
+    public static List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        long hits = HITS.sum();
+        long lookups = hits + MISSES.sum();
+        lines.add("身份链缓存: 命中率 " + (lookups == 0 ? 0 : hits * 100 / lookups) + "%（" + hits + "/" + lookups
+                + "），过期 " + EXPIRED.sum() + "，条目 " + size() + "/" + maxEntries);
+        return lines;
+    }
+
+    static void clear() {
+        synchronized (ENTRIES) {
+            ENTRIES.clear();
+        }
+        PENDING.remove();
+    }
+
+    static int size() {
+        synchronized (ENTRIES) {
+            return ENTRIES.size();
+        }
+    }
+
+    private static final class Pending {
+        final Object input;
+        final String method;
+        final ByteBuffer key;
+        final List<String> tokens;
+
+        Pending(Object input, String method, ByteBuffer key, List<String> tokens) {
+            this.input = input;
+            this.method = method;
+            this.key = key;
+            this.tokens = tokens;
+        }
+    }
+
+    private static final class Entry {
+        final Object result;
+        final long expiresAt;
+
+        Entry(Object result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cn.ningmo.viageyser.agent;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.Field;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// java agent 入口。GameProtocol 加载时直接改写它的字节码，插件检测到 agent 后不再安装任何运行时钩子。
+// 参数形如 min=400,max=-1，适用于 Spigot 和独立版 Geyser。
+// chain-cache 为已验证身份链的缓存时长（秒，0 表示关闭），chain-cache-size 为缓存条目上限：
+//   java -javaagent:ViaGeyser-agent.jar=min=400 -jar Geyser-Standalone.jar
+public final class ViaGeyserAgent {
+    private static final Logger LOGGER = Logger.getLogger("ViaGeyser");
+
+    // 插件通过这个系统属性判断 agent 是否已经生效
+    public static final String ACTIVE_PROPERTY = "viageyser.agent";
+
+    private ViaGeyserAgent() {
+    }
+
+    public static void premain(String args, Instrumentation instrumentation) {
+        install(args, instrumentation);
+    }
+
+    // 运行中附加时 GameProtocol 可能已经加载，需要重新转换并手动登记编解码器
+    public static void agentmain(String args, Instrumentation instrumentation) {
+        install(args, instrumentation);
+        for (Class<?> loaded : instrumentation.getAllLoadedClasses()) {
+            if (LoginChainCache.isEnabled()
+                    && loaded.getName().equals(EncryptionUtilsTransformer.ENCRYPTION_UTILS.replace('/', '.'))) {
+                // 改名和新增方法不能通过重新转换完成，已加载时只能放弃身份链缓存
+                LOGGER.warning("EncryptionUtils 已经加载，身份链缓存需要以 -javaagent 方式启动");
+                continue;
+            }
+            if (!loaded.getName().equals(GameProtocolTransformer.GAME_PROTOCOL.replace('/', '.'))) {
+                continue;
+            }
+            try {
+                instrumentation.retransformClasses(loaded);
+                if (!AgentHooks.isRegistered()) {
+                    Field codecs = loaded.getDeclaredField("SUPPORTED_BEDROCK_CODECS");
+                    Field defaultCodec = loaded.getDeclaredField("DEFAULT_BEDROCK_CODEC");
+                    codecs.setAccessible(true);
+                    defaultCodec.setAccessible(true);
+                    AgentHooks.register(codecs.get(null), defaultCodec.get(null));
+                }
+            } catch (UnmodifiableClassException | ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "agent 无法改写已加载的 GameProtocol", e);
+            }
+        }
+    }
+
+    private static void install(String args, Instrumentation instrumentation) {
+        int minVersion = 400;
+        int maxVersion = -1;
+        long chainCacheSeconds = 600;
+        int chainCacheSize = 4096;
+        if (args != null) {
+            for (String option : args.split(",")) {
+                String[] pair = option.split("=", 2);
+                if (pair.length != 2) {
+                    continue;
+                }
+                try {
+                    if ("min".equals(pair[0].trim())) {
+                        minVersion = Integer.parseInt(pair[1].trim());
+                    } else if ("max".equals(pair[0].trim())) {
+                        maxVersion = Integer.parseInt(pair[1].trim());
+                    } else if ("chain-cache".equals(pair[0].trim())) {
+                        chainCacheSeconds = Long.parseLong(pair[1].trim());
+                    } else if ("chain-cache-size".equals(pair[0].trim())) {
+                        chainCacheSize = Integer.parseInt(pair[1].trim());
+                    }
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("agent 参数无效: " + option);
+                }
+            }
+        }
+
+        AgentHooks.configure(minVersion, maxVersion);
+        instrumentation.addTransformer(new GameProtocolTransformer(), true);
+        LoginChainCache.configure(chainCacheSeconds, chainCacheSize);
+        if (LoginChainCache.isEnabled()) {
+            instrumentation.addTransformer(new EncryptionUtilsTransformer(), false);
+        }
+        System.setProperty(ACTIVE_PROPERTY, "active");
+        LOGGER.info("agent 已启用，协议版本范围 " + minVersion + " - " + (maxVersion > 0 ? maxVersion : "不限制"));
+    }
+}
@@ -0,0 +1,217 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.function.IntUnaryOperator;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+// 按协议库的编码方式拼出数据包内容，检查转换后的 ID 和其余字节
+class BlockIdRewritersTest {
+    private static final ByteBufAllocator ALLOC = ByteBufAllocator.DEFAULT;
+    // 2 → 20000 让 varint 变长，其余 ID 加 100
+    private static final IntUnaryOperator MAPPING = id -> id == 2 ? 20000 : id + 100;
+
+    @TempDir
+    File folder;
+
+    @Test
+    void rewritesChunkPaletteAndLengthPrefix() {
+        ByteBuf payload = Unpooled.buffer();
+        // 版本 9 的子区块，一层，1 位下标，调色板 [5, 2]
+        payload.writeByte(9).writeByte(1).writeByte(0);
+        payload.writeByte(1 << 1 | 1);
+        payload.writeZero(4096 / 32 * 4);
+        signed(payload, 2);
+        signed(payload, 5);
+        signed(payload, 2);
+        // 版本 8 的子区块，一层，位数 0：只有一个调色板条目
+        payload.writeByte(8).writeByte(1);
+        payload.writeByte(1);
+        signed(payload, 7);
+        // 生物群系、边界等后续数据原样保留
+        payload.writeBytes(new byte[] { 0x11, 0x22, 0x33 });
+
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeByte(BlockIdRewriters.LEVEL_CHUNK);
+        signed(packet, -3);
+        signed(packet, 4);
+        signed(packet, 0);
+        unsigned(packet, 2);
+        packet.writeBoolean(false);
+        unsigned(packet, payload.readableBytes());
+        packet.writeBytes(payload);
+
+        ByteBuf out = BlockIdRewriters.levelChunk(packet, 1, ALLOC, MAPPING, 686);
+        int index = 1 + 3 + 1 + 1;
+        int length = PacketRewriters.getVarInt(out, index);
+        index = PacketRewriters.skipVarInt(out, index, out.writerIndex());
+        assertEquals(out.writerIndex() - index, length);
+        index += 3 + 1 + 512;
+        assertEquals(2, zigzag(PacketRewriters.getVarInt(out, index)));
+        index = PacketRewriters.skipVarInt(out, index, out.writerIndex());
+        assertEquals(105, zigzag(PacketRewriters.getVarInt(out, index)));
+        index = PacketRewriters.skipVarInt(out, index, out.writerIndex());
+        assertEquals(20000, zigzag(PacketRewriters.getVarInt(out, index)));
+        index = PacketRewriters.skipVarInt(out, index, out.writerIndex());
+        index += 3;
+        assertEquals(107, zigzag(PacketRewriters.getVarInt(out, index)));
+        index = PacketRewriters.skipVarInt(out, index, out.writerIndex());
+        assertArrayEquals(new byte[] { 0x11, 0x22, 0x33 }, bytes(out, index, out.writerIndex()));
+        out.release();
+        packet.release();
+    }
+
+    @Test
+    void leavesTruncatedChunkUntouched() {
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeByte(BlockIdRewriters.LEVEL_CHUNK);
+        signed(packet, 0);
+        signed(packet, 0);
+        signed(packet, 0);
+        unsigned(packet, 1);
+        packet.writeBoolean(false);
+        unsigned(packet, 100);
+        packet.writeByte(9);
+        byte[] before = bytes(packet, 0, packet.writerIndex());
+        assertSame(packet, BlockIdRewriters.levelChunk(packet, 1, ALLOC, MAPPING, 686));
+        assertArrayEquals(before, bytes(packet, 0, packet.writerIndex()));
+    }
+
+    @Test
+    void rewritesItemBlockIdsInPlace() {
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeByte(BlockIdRewriters.INVENTORY_CONTENT);
+        unsigned(packet, 0);
+        unsigned(packet, 3);
+        item(packet, 300, true, 20000);
+        // 空气只有一个 0 字节
+        packet.writeByte(0);
+        // 不是方块物品，方块 ID 为 0 不转换
+        item(packet, 300, true, 0);
+        int length = packet.readableBytes();
+        ByteBuf out = BlockIdRewriters.inventoryContent(packet, 1, ALLOC, MAPPING);
+        // 20000 → 20100 的 zigzag 编码都是三个字节，原地改写
+        assertSame(packet, out);
+        assertEquals(length, out.readableBytes());
+        assertEquals(20100, zigzag(PacketRewriters.getVarInt(out, blockIdIndex(1 + 2, true))));
+        assertEquals(0, zigzag(PacketRewriters.getVarInt(out, blockIdIndex(1 + 2 + 10 + 1, true))));
+        packet.release();
+    }
+
+    @Test
+    void keepsCrackFaceBits() {
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeByte(BlockIdRewriters.LEVEL_EVENT);
+        signed(packet, 2014);
+        packet.writeZero(12);
+        signed(packet, 40 | 3 << 24);
+        ByteBuf out = BlockIdRewriters.levelEvent(packet, 1, ALLOC, MAPPING);
+        int index = PacketRewriters.skipVarInt(out, 1, out.writerIndex()) + 12;
+        assertEquals(140 | 3 << 24, zigzag(PacketRewriters.getVarInt(out, index)));
+        out.release();
+    }
+
+    @Test
+    void upgradesItemUseTarget() {
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeByte(BlockIdRewriters.INVENTORY_TRANSACTION);
+        signed(packet, 0);
+        unsigned(packet, 2);
+        // 一个世界交互动作：来源、标志、槽位、原物品、新物品
+        unsigned(packet, 1);
+        unsigned(packet, 2);
+        unsigned(packet, 0);
+        unsigned(packet, 0);
+        packet.writeByte(0);
+        packet.writeByte(0);
+        // 动作类型、坐标、面、快捷栏槽位、手中物品、玩家坐标、点击坐标、目标方块
+        unsigned(packet, 0);
+        signed(packet, 1);
+        unsigned(packet, 64);
+        signed(packet, 1);
+        signed(packet, 1);
+        signed(packet, 0);
+        item(packet, 300, true, 2);
+        packet.writeZero(24);
+        unsigned(packet, 2);
+
+        ByteBuf out = BlockIdRewriters.inventoryTransaction(packet, 1, ALLOC, MAPPING, 560);
+        assertEquals(20000, PacketRewriters.getVarInt(out, out.writerIndex() - 3));
+        int end = out.writerIndex() - 3 - 24 - 1;
+        // 手中物品的方块 ID 在用户数据长度之前
+        int blockIndex = end - 3;
+        assertEquals(20000, zigzag(PacketRewriters.getVarInt(out, blockIndex)));
+        out.release();
+    }
+
+    @Test
+    void mappingPackRegistersBothDirections() throws Exception {
+        int[][] tables = new int[MappingPack.BLOCKS_DOWNGRADE + 1][];
+        tables[MappingPack.BLOCKS] = new int[] { 0, 9 };
+        tables[MappingPack.BLOCKS_DOWNGRADE] = new int[] { 0, 8 };
+        MappingPack.write(new File(folder, "560.vgm"), 560, 686, tables, new int[tables.length]);
+        MappingPack pack = MappingPacks.load(folder, 686, Logger.getLogger("test")).forVersion(560);
+        PacketTranslator translator = BlockIdRewriters.translator(pack);
+
+        ByteBuf outbound = Unpooled.buffer();
+        outbound.writeByte(BlockIdRewriters.UPDATE_BLOCK);
+        outbound.writeByte(0).writeByte(0x40).writeByte(0);
+        unsigned(outbound, 1);
+        outbound = translator.translate(PacketTranslator.OUTBOUND, outbound, ALLOC);
+        assertEquals(8, PacketRewriters.getVarInt(outbound, 4));
+        outbound.release();
+
+        ByteBuf inbound = Unpooled.buffer();
+        inbound.writeByte(BlockIdRewriters.MOB_EQUIPMENT);
+        unsigned(inbound, 1);
+        item(inbound, 300, true, 1);
+        inbound.writeZero(3);
+        inbound = translator.translate(PacketTranslator.INBOUND, inbound, ALLOC);
+        assertEquals(9, zigzag(PacketRewriters.getVarInt(inbound, blockIdIndex(2, true))));
+        inbound.release();
+    }
+
+    // 物品：运行时 ID、数量、损害值、[网络 ID]、方块运行时 ID、空的用户数据
+    private static void item(ByteBuf buffer, int id, boolean netId, int blockId) {
+        signed(buffer, id);
+        buffer.writeShortLE(1);
+        unsigned(buffer, 0);
+        if (netId) {
+            buffer.writeBoolean(false);
+        }
+        signed(buffer, blockId);
+        unsigned(buffer, 0);
+    }
+
+    // item(…, 300, netId, …) 写出的方块 ID 的下标，300 的 zigzag 编码占两个字节
+    private static int blockIdIndex(int itemIndex, boolean netId) {
+        return itemIndex + 2 + 2 + 1 + (netId ? 1 : 0);
+    }
+
+    private static void signed(ByteBuf buffer, int value) {
+        PacketRewriters.writeVarInt(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    private static void unsigned(ByteBuf buffer, int value) {
+        PacketRewriters.writeVarInt(buffer, value);
+    }
+
+    private static int zigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static byte[] bytes(ByteBuf buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.getBytes(from, bytes);
+        return bytes;
+    }
+}
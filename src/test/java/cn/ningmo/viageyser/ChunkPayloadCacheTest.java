@@ -0,0 +1,161 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 同一批区块发给多个同版本玩家，检查转换次数、命中统计和容量上限
+class ChunkPayloadCacheTest {
+    private static final ByteBufAllocator ALLOC = ByteBufAllocator.DEFAULT;
+    // 让调色板条目变长，转换结果是新的缓冲区
+    private static final IntUnaryOperator MAPPING = id -> id + 20000;
+
+    private final HookMetrics metrics = new HookMetrics();
+    private int translations;
+
+    @Test
+    void playersShareOneTranslationPerChunk() throws Exception {
+        ChunkPayloadCache cache = new ChunkPayloadCache(1 << 20, 1024, metrics);
+        PacketRewriter rewriter = cache.wrap(560, 686, counting());
+
+        for (int player = 0; player < 5; player++) {
+            for (int x = 0; x < 4; x++) {
+                ByteBuf packet = levelChunk(x, 0, 7);
+                ByteBuf out = rewriter.rewrite(packet, 1, ALLOC);
+                assertEquals(20007, paletteEntry(out));
+                release(packet, out);
+            }
+        }
+        assertEquals(4, translations);
+        assertEquals(16, metrics.chunkHits());
+        assertEquals(4, metrics.chunkMisses());
+        assertTrue(metrics.chunkBytesSaved() > 0);
+        assertEquals(4, cache.size());
+        cache.clear();
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    void changedChunkIsTranslatedAgain() throws Exception {
+        ChunkPayloadCache cache = new ChunkPayloadCache(1 << 20, 1024, metrics);
+        PacketRewriter rewriter = cache.wrap(560, 686, counting());
+
+        ByteBuf first = levelChunk(0, 0, 7);
+        release(first, rewriter.rewrite(first, 1, ALLOC));
+        // 同一区块放下了新方块，调色板变了
+        ByteBuf changed = levelChunk(0, 0, 8);
+        ByteBuf out = rewriter.rewrite(changed, 1, ALLOC);
+        assertEquals(20008, paletteEntry(out));
+        release(changed, out);
+
+        assertEquals(2, translations);
+        assertEquals(1, cache.size());
+        cache.clear();
+    }
+
+    @Test
+    void versionsAndDimensionsAreSeparate() throws Exception {
+        ChunkPayloadCache cache = new ChunkPayloadCache(1 << 20, 1024, metrics);
+        PacketRewriter rewriter560 = cache.wrap(560, 686, counting());
+        PacketRewriter rewriter594 = cache.wrap(594, 686, counting());
+        ByteBuf packet = levelChunk(0, 0, 7);
+        release(packet, rewriter560.rewrite(packet, 1, ALLOC));
+        packet = levelChunk(0, 0, 7);
+        release(packet, rewriter594.rewrite(packet, 1, ALLOC));
+        packet = levelChunk(0, 1, 7);
+        release(packet, rewriter560.rewrite(packet, 1, ALLOC));
+        assertEquals(3, translations);
+        assertEquals(3, cache.size());
+        cache.clear();
+    }
+
+    @Test
+    void staysWithinByteBound() throws Exception {
+        int packetSize = levelChunk(0, 0, 7).readableBytes();
+        ChunkPayloadCache cache = new ChunkPayloadCache(packetSize * 16L * 4, 1 << 16, metrics);
+        PacketRewriter rewriter = cache.wrap(560, 686, counting());
+        for (int x = 0; x < 500; x++) {
+            ByteBuf packet = levelChunk(x, 0, 7);
+            release(packet, rewriter.rewrite(packet, 1, ALLOC));
+        }
+        assertTrue(cache.weight() <= packetSize * 16L * 4 + packetSize * 16L);
+        assertTrue(cache.size() < 500);
+        assertTrue(metrics.describe().stream().anyMatch(line -> line.startsWith("区块缓存")));
+        cache.clear();
+    }
+
+    @Test
+    void remembersChunksThatNeedNoTranslation() throws Exception {
+        ChunkPayloadCache cache = new ChunkPayloadCache(1 << 20, 1024, metrics);
+        PacketRewriter rewriter = cache.wrap(560, 686, (packet, bodyIndex, alloc) -> {
+            translations++;
+            return packet;
+        });
+        for (int i = 0; i < 3; i++) {
+            ByteBuf packet = levelChunk(0, 0, 7);
+            assertSame(packet, rewriter.rewrite(packet, 1, ALLOC));
+            packet.release();
+        }
+        assertEquals(1, translations);
+        assertEquals(0, cache.weight());
+        assertEquals(1, cache.size());
+    }
+
+    private PacketRewriter counting() {
+        return (packet, bodyIndex, alloc) -> {
+            translations++;
+            return BlockIdRewriters.levelChunk(packet, bodyIndex, alloc, MAPPING, 686);
+        };
+    }
+
+    // 区块坐标、维度、一个版本 8 的子区块（位数 0，只有一个调色板条目）
+    private static ByteBuf levelChunk(int x, int dimension, int block) {
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeByte(8).writeByte(1).writeByte(1);
+        signed(payload, block);
+        payload.writeZero(256);
+
+        ByteBuf packet = Unpooled.buffer();
+        packet.writeByte(BlockIdRewriters.LEVEL_CHUNK);
+        signed(packet, x);
+        signed(packet, 0);
+        signed(packet, dimension);
+        PacketRewriters.writeVarInt(packet, 1);
+        packet.writeBoolean(false);
+        PacketRewriters.writeVarInt(packet, payload.readableBytes());
+        packet.writeBytes(payload);
+        payload.release();
+        return packet;
+    }
+
+    // levelChunk 写出的唯一调色板条目
+    private static int paletteEntry(ByteBuf packet) {
+        int index = packet.readerIndex() + 1;
+        // 坐标、维度、子区块数、缓存标志（单字节）和负载长度
+        for (int i = 0; i < 6; i++) {
+            index = PacketRewriters.skipVarInt(packet, index, packet.writerIndex());
+        }
+        index += 3;
+        int value = PacketRewriters.getVarInt(packet, index);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // 未命中时原数据包由调用方释放；命中时返回的是缓存的共享副本
+    private static void release(ByteBuf packet, ByteBuf out) {
+        if (out != packet) {
+            out.release();
+        }
+        packet.release();
+    }
+
+    private static void signed(ByteBuf buffer, int value) {
+        PacketRewriters.writeVarInt(buffer, (value << 1) ^ (value >> 31));
+    }
+}
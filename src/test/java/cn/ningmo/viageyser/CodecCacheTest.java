@@ -0,0 +1,75 @@
+package cn.ningmo.viageyser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 未命中时登录线程不能等待编解码器创建
+class CodecCacheTest {
+
+    @Test
+    void missDoesNotBlockCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        List<Integer> loaded = new ArrayList<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CodecCache cache = new CodecCache(4, version -> {
+            loads.incrementAndGet();
+            release.await();
+            return "codec-" + version;
+        }, listener(loaded), executor);
+
+        // 创建任务被卡住时，同一版本的多次登录都立即返回
+        for (int i = 0; i < 5; i++) {
+            assertNull(cache.getIfLoaded(560));
+        }
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals("codec-560", cache.getIfLoaded(560));
+        assertEquals(1, loads.get());
+        assertEquals(List.of(560), loaded);
+        assertEquals(1, cache.hits());
+        assertEquals(5, cache.misses());
+    }
+
+    @Test
+    void failedLoadIsRetried() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CodecCache cache = new CodecCache(4, version -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("first");
+            }
+            return "codec-" + version;
+        }, listener(new ArrayList<>()), Runnable::run);
+
+        assertNull(cache.getIfLoaded(560));
+        assertEquals(1, cache.failures());
+        assertEquals("codec-560", cache.getIfLoaded(560));
+        assertEquals(2, loads.get());
+    }
+
+    private static CodecCache.Listener listener(List<Integer> loaded) {
+        return new CodecCache.Listener() {
+            @Override
+            public void onLoad(int version, Object codec) {
+                loaded.add(version);
+            }
+
+            @Override
+            public void onEvict(int version, Object codec) {
+            }
+        };
+    }
+}
@@ -0,0 +1,45 @@
+package cn.ningmo.viageyser;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 用 ASM 的 jar 代替 Geyser 的 jar 检查索引
+class GeyserClassIndexTest {
+
+    @Test
+    void matchesOnlyJavaUtilContainers() {
+        for (String descriptor : new String[]{"Ljava/util/Map;", "Ljava/util/List;", "Ljava/util/Set;",
+                "Ljava/util/concurrent/ConcurrentHashMap;", "Ljava/util/EnumMap;", "[I", "[Ljava/lang/Object;"}) {
+            assertTrue(field(descriptor).isMapOrCollection(), descriptor);
+        }
+        for (String descriptor : new String[]{"LBitmap;", "Lcom/example/MapCollectionHolder;", "I",
+                "Ljava/util/Mapping;", "Ljava/lang/String;"}) {
+            assertFalse(field(descriptor).isMapOrCollection(), descriptor);
+        }
+    }
+
+    @Test
+    void readsFieldsAndUnmapsOnClose() throws Exception {
+        GeyserClassIndex index = GeyserClassIndex.open(ClassWriter.class);
+        assertTrue(index.contains(ClassWriter.class.getName()));
+        GeyserClassIndex.ClassInfo info = index.find(ClassWriter.class.getName());
+        assertNotNull(info);
+        GeyserClassIndex.FieldInfo computeFrames = info.field("COMPUTE_FRAMES");
+        assertTrue(computeFrames.isStatic());
+        assertEquals(ClassWriter.COMPUTE_FRAMES, computeFrames.constantValue);
+
+        index.close();
+        index.close();
+        assertNull(index.find("org.objectweb.asm.ClassReader"));
+    }
+
+    private static GeyserClassIndex.FieldInfo field(String descriptor) {
+        return new GeyserClassIndex.FieldInfo(0x0008, "field", descriptor, null);
+    }
+}
@@ -0,0 +1,94 @@
+package cn.ningmo.viageyser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 用和 Geyser 处理器相同结构的类检查生成的委托：接口来自父类，方法带宽类型参数和返回值
+class HandlerDelegateFactoryTest {
+
+    @Test
+    void collectsInterfacesFromSuperclasses() {
+        Class<?>[] interfaces = HandlerDelegateFactory.collectInterfaces(SessionHandler.class);
+        assertEquals(List.of(Closeable.class, PacketHandler.class), List.of(interfaces));
+    }
+
+    @Test
+    void generatedDelegateInterceptsLoginAndForwards() {
+        List<Object> intercepted = new ArrayList<>();
+        SessionHandler original = new SessionHandler();
+        Object delegate = HandlerDelegateFactory.createGenerated(original,
+                HandlerDelegateFactory.collectInterfaces(SessionHandler.class), intercepted::add);
+        assertTrue(delegate != null && delegate.getClass().isHidden());
+        assertTrue(HandlerDelegateFactory.isDelegate(delegate));
+
+        PacketHandler handler = (PacketHandler) delegate;
+        assertTrue(handler.handleLogin("login"));
+        assertTrue(handler.handleRequestNetworkSettings("settings"));
+        assertEquals(7L + 2, handler.handleTick(7L, 2.0, 1));
+        ((Closeable) delegate).close();
+
+        assertEquals(List.of("login", "settings"), intercepted);
+        assertEquals(List.of("login", "settings", "tick", "close"), original.calls);
+    }
+
+    @Test
+    void proxyFallbackInterceptsLogin() {
+        List<Object> intercepted = new ArrayList<>();
+        SessionHandler original = new SessionHandler();
+        PacketHandler handler = (PacketHandler) HandlerDelegateFactory.createProxy(original,
+                HandlerDelegateFactory.collectInterfaces(SessionHandler.class), intercepted::add);
+        handler.handleLogin("login");
+        assertEquals(3L, handler.handleTick(1L, 2.0, 0));
+        assertEquals(List.of("login"), intercepted);
+        assertFalse(handler.getClass().isHidden());
+        assertTrue(HandlerDelegateFactory.isDelegate(handler));
+    }
+
+    public interface PacketHandler {
+        boolean handleLogin(Object packet);
+
+        boolean handleRequestNetworkSettings(Object packet);
+
+        long handleTick(long tick, double delta, int flags);
+    }
+
+    public interface Closeable {
+        void close();
+    }
+
+    // Geyser 的会话处理器继承自实现接口的基类，自身不再声明接口
+    public static class BaseHandler implements PacketHandler {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public boolean handleLogin(Object packet) {
+            calls.add("login");
+            return true;
+        }
+
+        @Override
+        public boolean handleRequestNetworkSettings(Object packet) {
+            calls.add("settings");
+            return true;
+        }
+
+        @Override
+        public long handleTick(long tick, double delta, int flags) {
+            calls.add("tick");
+            return tick + (long) delta;
+        }
+    }
+
+    public static class SessionHandler extends BaseHandler implements Closeable {
+        @Override
+        public void close() {
+            calls.add("close");
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package cn.ningmo.viageyser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// CODEC_LOOKUP 表的改写目标要和填入 CODEC_LOOKUP 的编解码器一致：空隙中的版本都用最新的编解码器
+class IntCodecTableTest {
+
+    @Test
+    void gapVersionsTargetLatestCodec() {
+        Map<Object, Object> lookup = new HashMap<>();
+        for (int version : new int[]{649, 662, 671, 685, 686}) {
+            lookup.put(version, "codec-" + version);
+        }
+        lookup.put("not-a-version", "ignored");
+        IntCodecTable table = IntCodecTable.copyOf(lookup);
+
+        assertEquals(5, table.size());
+        // 原生版本保持不变
+        assertEquals(662, table.targetVersion(662, 400));
+        assertEquals(686, table.targetVersion(686, 400));
+        // 空隙中的版本，包括两个原生版本之间的，改写到最新版本
+        assertEquals(686, table.targetVersion(560, 400));
+        assertEquals(686, table.targetVersion(665, 400));
+        // 范围之外不改写
+        assertEquals(-1, table.targetVersion(390, 400));
+        assertEquals(-1, table.targetVersion(700, 400));
+        assertEquals(-1, IntCodecTable.copyOf(Map.of()).targetVersion(560, 400));
+    }
+}
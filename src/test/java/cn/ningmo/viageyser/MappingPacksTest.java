@@ -0,0 +1,79 @@
+package cn.ningmo.viageyser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappingPacksTest {
+    private static final Logger LOGGER = Logger.getLogger("test");
+
+    @TempDir
+    File folder;
+
+    @Test
+    void skipsPacksForAnotherTargetVersion() throws IOException {
+        write("560.vgm", 560, 686);
+        write("594.vgm", 594, 685);
+
+        MappingPacks packs = MappingPacks.load(folder, 686, LOGGER);
+        assertEquals(1, packs.size());
+        assertNotNull(packs.forVersion(560));
+        assertNull(packs.forVersion(594));
+    }
+
+    @Test
+    void loadsAllPacksWhenTargetIsUnknown() throws IOException {
+        write("560.vgm", 560, 686);
+        write("594.vgm", 594, 685);
+        assertEquals(2, MappingPacks.load(folder, -1, LOGGER).size());
+    }
+
+    @Test
+    void downgradesThroughMappedTable() throws IOException {
+        write("560.vgm", 560, 686);
+        MappingPack pack = MappingPacks.load(folder, 686, LOGGER).forVersion(560);
+        assertEquals(686, pack.targetVersion());
+        assertEquals(20, pack.downgradeBlock(2));
+        // 没有映射和超出表范围的 ID 使用后备 ID
+        assertEquals(7, pack.downgradeBlock(1));
+        assertEquals(7, pack.downgradeBlock(99));
+    }
+
+    @Test
+    void upgradesThroughSourceTable() throws IOException {
+        int[][] tables = new int[MappingPack.BLOCKS_DOWNGRADE + 1][];
+        int[] fallbacks = new int[tables.length];
+        tables[MappingPack.BLOCKS] = new int[] { 5, -1 };
+        fallbacks[MappingPack.BLOCKS] = 3;
+        MappingPack.write(new File(folder, "560.vgm"), 560, 686, tables, fallbacks);
+        MappingPack pack = MappingPacks.load(folder, 686, LOGGER).forVersion(560);
+        assertEquals(5, pack.upgradeBlock(0));
+        assertEquals(3, pack.upgradeBlock(1));
+        assertFalse(pack.hasTable(MappingPack.BLOCKS_DOWNGRADE));
+    }
+
+    @Test
+    void rejectsItemTables() {
+        int[][] tables = new int[4][];
+        tables[3] = new int[] { 1 };
+        assertThrows(IllegalArgumentException.class,
+                () -> MappingPack.write(new File(folder, "560.vgm"), 560, 686, tables, new int[4]));
+    }
+
+    private void write(String name, int sourceVersion, int targetVersion) throws IOException {
+        int[][] tables = new int[4][];
+        int[] fallbacks = new int[4];
+        tables[MappingPack.BLOCKS_DOWNGRADE] = new int[] { 0, -1, 20 };
+        fallbacks[MappingPack.BLOCKS_DOWNGRADE] = 7;
+        MappingPack.write(new File(folder, name), sourceVersion, targetVersion, tables, fallbacks);
+    }
+}
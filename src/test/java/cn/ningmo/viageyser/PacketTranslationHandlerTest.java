@@ -0,0 +1,96 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PacketTranslationHandlerTest {
+    private static final int UPDATE_BLOCK = 0x15;
+
+    @TempDir
+    File folder;
+
+    @Test
+    void writesResizedPacketBackIntoBatchElement() {
+        // 运行时 ID 5 改写为 20005，varint 变长，转换结果是新的缓冲区
+        PacketTranslator translator = PacketTranslator.builder(560)
+                .rewrite(PacketTranslator.OUTBOUND, UPDATE_BLOCK, PacketRewriters.remapVarInt(3, id -> id + 20000))
+                .build();
+        EmbeddedChannel channel = channel(new PacketTranslationHandler(translator));
+
+        ByteBuf original = updateBlock(5);
+        TestPacketWrapper wrapper = new TestPacketWrapper(null, 0, 0);
+        wrapper.setPacketBuffer(original);
+        ByteBuf raw = updateBlock(5);
+        List<Object> packets = new ArrayList<>(List.of(wrapper, raw));
+        channel.writeOutbound(new TestBatchWrapper(packets));
+        TestBatchWrapper written = channel.readOutbound();
+
+        ByteBuf translated = wrapper.getPacketBuffer();
+        assertEquals(0, original.refCnt());
+        assertEquals(20005, PacketRewriters.getVarInt(translated, translated.readerIndex() + 4));
+        // 列表中的裸 ByteBuf 原样保留，没有被释放
+        assertSame(raw, written.getPackets().get(1));
+        assertEquals(1, raw.refCnt());
+        assertEquals(5, raw.getByte(4));
+        translated.release();
+        raw.release();
+    }
+
+    @Test
+    void mappingPackReloadUnregistersRemovedPacks() throws IOException {
+        int[][] tables = new int[4][];
+        tables[MappingPack.BLOCKS_DOWNGRADE] = new int[] { 0, 1 };
+        MappingPack.write(new File(folder, "560.vgm"), 560, 686, tables, new int[4]);
+
+        ProtocolVersionHook hook = new ProtocolVersionHook(Logger.getLogger("test"));
+        hook.setMappingPacks(MappingPacks.load(folder, 686, Logger.getLogger("test")));
+        assertNotNull(hook.translationHandler(560));
+
+        hook.setMappingPacks(MappingPacks.empty());
+        assertNull(hook.translationHandler(560));
+    }
+
+    @Test
+    void registeredTranslatorOutlivesMappingPackReload() {
+        ProtocolVersionHook hook = new ProtocolVersionHook(Logger.getLogger("test"));
+        PacketTranslator translator = PacketTranslator.builder(560)
+                .remapId(PacketTranslator.OUTBOUND, UPDATE_BLOCK, UPDATE_BLOCK + 1)
+                .build();
+        hook.registerTranslator(translator);
+        hook.setMappingPacks(MappingPacks.empty());
+        assertNotNull(hook.translationHandler(560));
+    }
+
+    private static EmbeddedChannel channel(PacketTranslationHandler handler) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        // 代替协议库的数据包编解码器，只占位
+        channel.pipeline().addLast("bedrock-packet-codec", new ChannelOutboundHandlerAdapter());
+        handler.addTo(channel.pipeline());
+        return channel;
+    }
+
+    // 包头、坐标 (x, y, z)、方块运行时 ID、标志、图层
+    private static ByteBuf updateBlock(int runtimeId) {
+        ByteBuf buffer = Unpooled.directBuffer(16);
+        buffer.writeByte(UPDATE_BLOCK);
+        buffer.writeByte(0x00).writeByte(0x40).writeByte(0x00);
+        PacketRewriters.writeVarInt(buffer, runtimeId);
+        buffer.writeByte(0x03).writeByte(0x00);
+        return buffer;
+    }
+}
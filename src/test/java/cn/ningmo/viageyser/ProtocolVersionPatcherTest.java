@@ -0,0 +1,155 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// 按线上抓到的帧布局拼出 RequestNetworkSettings 和 Login，经 EmbeddedChannel 回放
+class ProtocolVersionPatcherTest {
+
+    // 1.19.50 (560) 的 RequestNetworkSettings：头 C1 01，后面是大端 int32 协议版本
+    private static final byte[] SETTINGS_560 = {(byte) 0xC1, 0x01, 0x00, 0x00, 0x02, 0x30};
+    // 1.21.2 (686) 的 Login：头 01，协议版本，之后是身份链长度和内容（这里只保留几个字节）
+    private static final byte[] LOGIN_686 = {0x01, 0x00, 0x00, 0x02, (byte) 0xAE, 0x05, 0x7B, 0x7D, 0x00, 0x00};
+
+    @Test
+    void rewritesRequestNetworkSettings() {
+        EmbeddedChannel channel = channel(new ProtocolVersionPatcher((original, login, ch) -> 686));
+        ByteBuf frame = replay(channel, SETTINGS_560);
+        assertEquals(686, frame.getInt(2));
+        assertEquals(0, frame.readerIndex());
+        assertEquals(560, SessionProtocolVersions.get(channel));
+        frame.release();
+    }
+
+    @Test
+    void rewritesLoginAndRemovesItself() {
+        List<Channel> logins = new ArrayList<>();
+        ProtocolVersionPatcher patcher = new ProtocolVersionPatcher((original, login, ch) -> 649, null, logins::add);
+        EmbeddedChannel channel = channel(patcher);
+        ByteBuf frame = replay(channel, LOGIN_686);
+        assertEquals(649, frame.getInt(1));
+        assertEquals(0x7B, frame.getByte(6));
+        assertNull(channel.pipeline().get(ProtocolVersionPatcher.NAME));
+        assertEquals(List.of(channel), logins);
+        frame.release();
+    }
+
+    @Test
+    void settingsListenerRunsBeforeDecoder() {
+        List<Channel> settings = new ArrayList<>();
+        ProtocolVersionPatcher patcher = new ProtocolVersionPatcher((original, login, ch) -> original, settings::add, null);
+        EmbeddedChannel channel = channel(patcher);
+        replay(channel, SETTINGS_560).release();
+        assertEquals(List.of(channel), settings);
+        assertNotNull(channel.pipeline().get(ProtocolVersionPatcher.NAME));
+    }
+
+    @Test
+    void passesThroughNativeVersion() {
+        EmbeddedChannel channel = channel(new ProtocolVersionPatcher((original, login, ch) -> original));
+        ByteBuf frame = replay(channel, LOGIN_686);
+        assertArrayEquals(LOGIN_686, bytes(frame));
+        frame.release();
+    }
+
+    @Test
+    void passesThroughOtherPackets() {
+        int[] calls = {0};
+        EmbeddedChannel channel = channel(new ProtocolVersionPatcher((original, login, ch) -> {
+            calls[0]++;
+            return 0;
+        }));
+        // ClientCacheStatus (0x81)，头需要两个字节的 varint
+        byte[] cacheStatus = {(byte) 0x81, 0x01, 0x01};
+        ByteBuf frame = replay(channel, cacheStatus);
+        assertArrayEquals(cacheStatus, bytes(frame));
+        assertEquals(0, calls[0]);
+        assertEquals(SessionProtocolVersions.UNKNOWN, SessionProtocolVersions.get(channel));
+        frame.release();
+    }
+
+    @Test
+    void ignoresTruncatedFrames() {
+        int[] calls = {0};
+        EmbeddedChannel channel = channel(new ProtocolVersionPatcher((original, login, ch) -> {
+            calls[0]++;
+            return 686;
+        }));
+        byte[][] truncated = {
+                {},
+                {(byte) 0xC1},
+                {(byte) 0xC1, 0x01, 0x00, 0x00, 0x02},
+                {0x01, 0x00, 0x00},
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}
+        };
+        for (byte[] bytes : truncated) {
+            ByteBuf frame = replay(channel, bytes);
+            assertArrayEquals(bytes, bytes(frame));
+            frame.release();
+        }
+        assertEquals(0, calls[0]);
+        assertNotNull(channel.pipeline().get(ProtocolVersionPatcher.NAME));
+    }
+
+    @Test
+    void readsPacketIdFromLowBitsOfHeader() {
+        EmbeddedChannel channel = channel(new ProtocolVersionPatcher((original, login, ch) -> 649));
+        // 子客户端 ID 为 1 的 Login：头 0x401 编码为 81 08
+        ByteBuf frame = replay(channel, new byte[]{(byte) 0x81, 0x08, 0x00, 0x00, 0x02, (byte) 0xAE});
+        assertEquals(649, frame.getInt(2));
+        frame.release();
+    }
+
+    @Test
+    void countsRejectionOncePerConnection() {
+        ProtocolVersionHook hook = new ProtocolVersionHook(Logger.getLogger("test"));
+        hook.setAdmission(VersionAdmission.builder().allowRange(400, -1).deny(560).build());
+        EmbeddedChannel channel = channel(new ProtocolVersionPatcher(hook::rewriteFrameVersion));
+
+        ByteBuf settings = replay(channel, SETTINGS_560);
+        assertEquals(0, settings.getInt(2));
+        settings.release();
+        ByteBuf login = replay(channel, new byte[]{0x01, 0x00, 0x00, 0x02, 0x30, 0x00});
+        assertEquals(0, login.getInt(1));
+        login.release();
+        assertEquals(1, hook.getMetrics().rejected());
+
+        EmbeddedChannel other = channel(new ProtocolVersionPatcher(hook::rewriteFrameVersion));
+        replay(other, SETTINGS_560).release();
+        assertEquals(2, hook.getMetrics().rejected());
+    }
+
+    private static EmbeddedChannel channel(ProtocolVersionPatcher patcher) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        // 代替协议库的数据包解码器，只占位，数据包原样传给下一个处理器
+        channel.pipeline().addLast("bedrock-packet-codec", new ChannelInboundHandlerAdapter());
+        patcher.addTo(channel.pipeline());
+        return channel;
+    }
+
+    private static ByteBuf replay(EmbeddedChannel channel, byte[] bytes) {
+        channel.writeInbound(Unpooled.wrappedBuffer(bytes.clone()));
+        ByteBuf frame = channel.readInbound();
+        assertNotNull(frame);
+        return frame;
+    }
+
+    private static byte[] bytes(ByteBuf buffer) {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return bytes;
+    }
+}
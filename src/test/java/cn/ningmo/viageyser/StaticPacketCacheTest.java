@@ -0,0 +1,189 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 按 Geyser 登录时构建这些数据包的方式模拟多个会话，统计编码次数和缓存命中
+class StaticPacketCacheTest {
+
+    // Geyser 的注册表：生物群系 NBT、实体标识、创造物品栏和物品组件都是启动时建好的共享对象
+    private static final Object BIOMES = new Object();
+    private static final Object ENTITY_IDENTIFIERS = new Object();
+    private static final Object[] CREATIVE_ITEMS = {new Object(), new Object(), new Object()};
+    private static final List<Object> COMPONENT_ITEMS = List.of(new Object(), new Object());
+
+    private final HookMetrics metrics = new HookMetrics();
+    private final StaticPacketCache cache = new StaticPacketCache(metrics);
+    private final Map<Class<?>, Integer> encodes = new HashMap<>();
+
+    @Test
+    void registryBackedPacketsHitAfterFirstSession() {
+        for (int i = 0; i < 20; i++) {
+            EmbeddedChannel session = session(560);
+            for (Object packet : loginPackets()) {
+                send(session, packet);
+            }
+        }
+
+        // 注册表支撑的四种数据包每个版本只编码一次；CraftingDataPacket 每个会话都重新构建，不参与缓存
+        assertEquals(1, encodes.get(BiomeDefinitionListPacket.class));
+        assertEquals(1, encodes.get(AvailableEntityIdentifiersPacket.class));
+        assertEquals(1, encodes.get(CreativeContentPacket.class));
+        assertEquals(1, encodes.get(ItemComponentPacket.class));
+        assertEquals(20, encodes.get(CraftingDataPacket.class));
+        assertEquals(19 * 4, metrics.staticPacketHits());
+        assertEquals(4, metrics.staticPacketMisses());
+        assertEquals(4, cache.size());
+        cache.clear();
+    }
+
+    @Test
+    void versionsAreCachedSeparately() {
+        send(session(560), new BiomeDefinitionListPacket(BIOMES));
+        send(session(390), new BiomeDefinitionListPacket(BIOMES));
+        send(session(560), new BiomeDefinitionListPacket(BIOMES));
+        assertEquals(2, encodes.get(BiomeDefinitionListPacket.class));
+        assertEquals(1, metrics.staticPacketHits());
+        cache.clear();
+    }
+
+    @Test
+    void registryChangeReEncodesOnce() {
+        send(session(560), new BiomeDefinitionListPacket(BIOMES));
+        Object reloaded = new Object();
+        for (int i = 0; i < 5; i++) {
+            send(session(560), new BiomeDefinitionListPacket(reloaded));
+        }
+        assertEquals(2, encodes.get(BiomeDefinitionListPacket.class));
+        assertEquals(4, metrics.staticPacketHits());
+        assertEquals(1, cache.size());
+        cache.clear();
+    }
+
+    @Test
+    void stopsCapturingRebuiltPackets() {
+        // 元素每个会话都是新对象，快照永远不匹配
+        for (int i = 0; i < 10; i++) {
+            send(session(560), new ItemComponentPacket(List.of(new Object(), new Object())));
+        }
+        assertEquals(10, encodes.get(ItemComponentPacket.class));
+        assertEquals(0, metrics.staticPacketHits());
+        assertEquals(0, cache.size());
+        assertTrue(metrics.describe().stream().anyMatch(line -> line.contains("停用 1")));
+
+        // 重载后重新启用
+        cache.clear();
+        send(session(560), new ItemComponentPacket(COMPONENT_ITEMS));
+        assertEquals(1, cache.size());
+        cache.clear();
+    }
+
+    @Test
+    void skipsSubClientPackets() {
+        EmbeddedChannel session = session(560);
+        for (int i = 0; i < 3; i++) {
+            session.writeOutbound(new TestPacketWrapper(new BiomeDefinitionListPacket(BIOMES), 0, 1));
+            release(session);
+        }
+        assertEquals(3, encodes.get(BiomeDefinitionListPacket.class));
+        assertEquals(0, cache.size());
+    }
+
+    // Geyser 在 Login 之后依次发送的数据包，构建方式与 Geyser 相同：
+    // 注册表对象直接引用，物品组件每次放进新列表，合成配方每次新建
+    private static List<Object> loginPackets() {
+        return List.of(
+                new BiomeDefinitionListPacket(BIOMES),
+                new AvailableEntityIdentifiersPacket(ENTITY_IDENTIFIERS),
+                new CreativeContentPacket(CREATIVE_ITEMS),
+                new ItemComponentPacket(new ArrayList<>(COMPONENT_ITEMS)),
+                new CraftingDataPacket(List.of(new Object(), new Object()))
+        );
+    }
+
+    private EmbeddedChannel session(int version) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.pipeline().addLast("bedrock-packet-codec", new Encoder());
+        SessionProtocolVersions.record(channel, version);
+        cache.addTo(channel.pipeline());
+        return channel;
+    }
+
+    private static void send(EmbeddedChannel session, Object packet) {
+        session.writeOutbound(new TestPacketWrapper(packet, 0, 0));
+        release(session);
+    }
+
+    private static void release(EmbeddedChannel session) {
+        TestPacketWrapper written = session.readOutbound();
+        written.getPacketBuffer().release();
+    }
+
+    // 代替协议库的编码器：包装里还没有编码结果时才编码
+    private final class Encoder extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            TestPacketWrapper wrapper = (TestPacketWrapper) msg;
+            if (wrapper.getPacketBuffer() == null) {
+                encodes.merge(wrapper.getPacket().getClass(), 1, Integer::sum);
+                ByteBuf buffer = Unpooled.buffer(1024);
+                buffer.writeZero(1024);
+                wrapper.setPacketBuffer(buffer);
+            }
+            ctx.write(msg, promise);
+        }
+    }
+
+    static final class BiomeDefinitionListPacket {
+        final Object definitions;
+
+        BiomeDefinitionListPacket(Object definitions) {
+            this.definitions = definitions;
+        }
+    }
+
+    static final class AvailableEntityIdentifiersPacket {
+        final Object identifiers;
+
+        AvailableEntityIdentifiersPacket(Object identifiers) {
+            this.identifiers = identifiers;
+        }
+    }
+
+    static final class CreativeContentPacket {
+        final Object[] contents;
+
+        CreativeContentPacket(Object[] contents) {
+            this.contents = contents;
+        }
+    }
+
+    static final class ItemComponentPacket {
+        final List<Object> items;
+
+        ItemComponentPacket(List<Object> items) {
+            this.items = items;
+        }
+    }
+
+    static final class CraftingDataPacket {
+        final List<Object> craftingData;
+
+        CraftingDataPacket(List<Object> craftingData) {
+            this.craftingData = craftingData;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package cn.ningmo.viageyser;
+
+import java.util.List;
+
+// 批量包装的测试替身，PacketWrappers 只通过 getPackets() 访问
+public class TestBatchWrapper {
+    private final List<Object> packets;
+
+    public TestBatchWrapper(List<Object> packets) {
+        this.packets = packets;
+    }
+
+    public List<Object> getPackets() {
+        return packets;
+    }
+}
@@ -0,0 +1,39 @@
+package cn.ningmo.viageyser;
+
+import io.netty.buffer.ByteBuf;
+
+// 单个数据包包装的测试替身。PacketWrappers 只按方法名和签名访问包装对象，
+// 这里实现的就是插件依赖的那几个方法，不冒用协议库的类名。
+// 必须是公开的顶层类，PacketWrappers 通过 publicLookup 访问
+public class TestPacketWrapper {
+    private final Object packet;
+    private final int senderSubClientId;
+    private final int targetSubClientId;
+    private ByteBuf packetBuffer;
+
+    public TestPacketWrapper(Object packet, int senderSubClientId, int targetSubClientId) {
+        this.packet = packet;
+        this.senderSubClientId = senderSubClientId;
+        this.targetSubClientId = targetSubClientId;
+    }
+
+    public Object getPacket() {
+        return packet;
+    }
+
+    public ByteBuf getPacketBuffer() {
+        return packetBuffer;
+    }
+
+    public void setPacketBuffer(ByteBuf packetBuffer) {
+        this.packetBuffer = packetBuffer;
+    }
+
+    public int getSenderSubClientId() {
+        return senderSubClientId;
+    }
+
+    public int getTargetSubClientId() {
+        return targetSubClientId;
+    }
+}
@@ -0,0 +1,42 @@
+package cn.ningmo.viageyser;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VersionAdmissionTest {
+
+    @Test
+    void compilesRangesAndDenyList() {
+        VersionAdmission admission = VersionAdmission.builder()
+                .allowRange(400, 600)
+                .allow(686)
+                .deny(560)
+                .deny(649)
+                .build();
+
+        assertTrue(admission.allows(400));
+        assertTrue(admission.allows(600));
+        assertTrue(admission.allows(686));
+        assertFalse(admission.allows(390));
+        assertFalse(admission.allows(560));
+        assertFalse(admission.allows(700));
+        assertEquals(400, admission.lowestAllowed());
+        assertEquals(686, admission.highestAllowed());
+
+        // 原生版本不在区间内时由钩子放行，只有拒绝列表能拦住
+        assertTrue(admission.denies(649));
+        assertFalse(admission.denies(662));
+    }
+
+    @Test
+    void openEndedRangeAllowsEverythingAbove() {
+        VersionAdmission admission = VersionAdmission.builder().allowRange(400, -1).build();
+        assertTrue(admission.allows(10_000));
+        assertTrue(admission.isOpenEnded());
+        assertEquals(-1, admission.highestAllowed());
+        assertFalse(admission.denies(400));
+    }
+}
@@ -0,0 +1,69 @@
+package cn.ningmo.viageyser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VersionHistoryTest {
+    private static final Logger LOGGER = Logger.getLogger("test");
+
+    @TempDir
+    File directory;
+
+    @Test
+    void countsOnlyNewLoginsBetweenSaves() throws Exception {
+        File file = new File(directory, "version-history.txt");
+        VersionHistory history = VersionHistory.load(file, LOGGER);
+        HookMetrics metrics = new HookMetrics();
+        login(metrics, 560, 5);
+        history.save(metrics);
+        history.save(metrics);
+        login(metrics, 560, 2);
+        history.save(metrics);
+        assertEquals(7, weight(file, 560), 0.01);
+    }
+
+    @Test
+    void keepsCountingAfterMetricsReset() throws Exception {
+        File file = new File(directory, "version-history.txt");
+        VersionHistory history = VersionHistory.load(file, LOGGER);
+        HookMetrics metrics = new HookMetrics();
+        login(metrics, 560, 5);
+        login(metrics, 390, 1);
+        history.save(metrics);
+
+        // 统计重置后计数从零开始，低于上次保存时的累计数
+        HookMetrics reset = new HookMetrics();
+        login(reset, 560, 2);
+        history.save(reset);
+        login(reset, 560, 4);
+        login(reset, 390, 1);
+        history.save(reset);
+
+        assertEquals(11, weight(file, 560), 0.01);
+        assertEquals(2, weight(file, 390), 0.01);
+        assertEquals(List.of(560, 390), VersionHistory.load(file, LOGGER).topVersions(1.0, 8));
+    }
+
+    private static void login(HookMetrics metrics, int version, int count) {
+        for (int i = 0; i < count; i++) {
+            metrics.recordLogin(version);
+        }
+    }
+
+    private static double weight(File file, int version) throws Exception {
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith(version + "=")) {
+                return Double.parseDouble(line.substring(line.indexOf('=') + 1));
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,98 @@
+package cn.ningmo.viageyser.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+// 按改写后的包装方法的调用顺序直接调用 lookup 和 store
+class LoginChainCacheTest {
+    private static final String CHAIN = "validateChain(Ljava/util/List;)Lorg/cloudburstmc/protocol/bedrock/util/ChainValidationResult;";
+    private static final String PAYLOAD = "validatePayload(Lorg/cloudburstmc/protocol/bedrock/data/auth/AuthPayload;)Lorg/cloudburstmc/protocol/bedrock/util/ChainValidationResult;";
+
+    @AfterEach
+    void reset() {
+        LoginChainCache.configure(600, 4096);
+        LoginChainCache.clear();
+    }
+
+    @Test
+    void methodsDoNotShareResults() {
+        LoginChainCache.configure(600, 16);
+        List<String> chain = List.of("a.b.c", "d.e.f");
+        Object result = new Object();
+        assertNull(LoginChainCache.lookup(chain, CHAIN));
+        assertSame(result, LoginChainCache.store(chain, CHAIN, result));
+
+        assertSame(result, LoginChainCache.lookup(List.copyOf(chain), CHAIN));
+        assertNull(LoginChainCache.lookup(List.copyOf(chain), PAYLOAD));
+    }
+
+    @Test
+    void nestedCallsStoreTheirOwnResults() {
+        LoginChainCache.configure(600, 16);
+        Payload outer = new Payload("outer.x.y");
+        List<String> inner = List.of("inner.x.y");
+        Object innerResult = new Object();
+        Object outerResult = new Object();
+
+        assertNull(LoginChainCache.lookup(outer, PAYLOAD));
+        assertNull(LoginChainCache.lookup(inner, CHAIN));
+        LoginChainCache.store(inner, CHAIN, innerResult);
+        LoginChainCache.store(outer, PAYLOAD, outerResult);
+
+        assertSame(innerResult, LoginChainCache.lookup(List.of("inner.x.y"), CHAIN));
+        assertSame(outerResult, LoginChainCache.lookup(new Payload("outer.x.y"), PAYLOAD));
+    }
+
+    @Test
+    void failedInnerCallDoesNotBlockOuterStore() {
+        LoginChainCache.configure(600, 16);
+        List<String> outer = List.of("outer.a.b");
+        assertNull(LoginChainCache.lookup(outer, PAYLOAD));
+        // 内层验证抛出异常，没有对应的 store
+        assertNull(LoginChainCache.lookup(List.of("bad.a.b"), CHAIN));
+        Object result = new Object();
+        LoginChainCache.store(outer, PAYLOAD, result);
+        assertSame(result, LoginChainCache.lookup(List.of("outer.a.b"), PAYLOAD));
+        assertNull(LoginChainCache.lookup(List.of("bad.a.b"), CHAIN));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        LoginChainCache.configure(600, 2);
+        Object first = store(List.of("first.a.b"));
+        store(List.of("second.a.b"));
+        // 访问 first 之后，second 成为最久未使用的条目
+        assertSame(first, LoginChainCache.lookup(List.of("first.a.b"), CHAIN));
+        store(List.of("third.a.b"));
+
+        assertEquals(2, LoginChainCache.size());
+        assertSame(first, LoginChainCache.lookup(List.of("first.a.b"), CHAIN));
+        assertNull(LoginChainCache.lookup(List.of("second.a.b"), CHAIN));
+    }
+
+    private static Object store(List<String> chain) {
+        Object result = new Object();
+        assertNull(LoginChainCache.lookup(chain, CHAIN));
+        LoginChainCache.store(chain, CHAIN, result);
+        return result;
+    }
+
+    // 新版协议库的 AuthPayload，通过 getToken() 取得身份令牌
+    public static final class Payload {
+        private final String token;
+
+        Payload(String token) {
+            this.token = token;
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+}